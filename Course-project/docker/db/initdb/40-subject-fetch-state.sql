@@ -0,0 +1,11 @@
+SET ROLE schedule_user;
+SET search_path TO public;
+
+CREATE TABLE IF NOT EXISTS subject_fetch_state (
+    subject_id    INTEGER PRIMARY KEY REFERENCES subjects(id) ON DELETE CASCADE,
+    etag          VARCHAR(255),
+    last_modified VARCHAR(64),
+    checked_at    TIMESTAMPTZ NOT NULL DEFAULT NOW()
+);
+
+RESET ROLE;
@@ -0,0 +1,8 @@
+SET ROLE schedule_user;
+SET search_path TO public;
+
+ALTER TABLE subject_fetch_state
+    ADD COLUMN IF NOT EXISTS last_changed_at  TIMESTAMPTZ,
+    ADD COLUMN IF NOT EXISTS poll_interval_ms BIGINT;
+
+RESET ROLE;
@@ -0,0 +1,12 @@
+SET ROLE schedule_user;
+SET search_path TO public;
+
+CREATE TABLE IF NOT EXISTS subject_lease (
+    subject_id  INTEGER PRIMARY KEY REFERENCES subjects(id) ON DELETE CASCADE,
+    owner       VARCHAR(128),
+    lease_until TIMESTAMPTZ NOT NULL,
+    next_due_at TIMESTAMPTZ NOT NULL
+);
+CREATE INDEX IF NOT EXISTS idx_subject_lease_due ON subject_lease (next_due_at);
+
+RESET ROLE;
@@ -0,0 +1,18 @@
+SET ROLE schedule_user;
+SET search_path TO public;
+
+ALTER TABLE subject_fetch_state
+    ADD COLUMN IF NOT EXISTS payload_hash VARCHAR(128),
+    ADD COLUMN IF NOT EXISTS snapshot_id  BIGINT;
+
+-- seed the index from the newest snapshot of every subject
+INSERT INTO subject_fetch_state (subject_id, payload_hash, snapshot_id)
+SELECT DISTINCT ON (subject_id) subject_id, payload_hash, id
+FROM snapshots
+ORDER BY subject_id, snapshot_at DESC, id DESC
+ON CONFLICT (subject_id) DO UPDATE
+    SET payload_hash = EXCLUDED.payload_hash,
+        snapshot_id  = EXCLUDED.snapshot_id
+    WHERE subject_fetch_state.payload_hash IS NULL;
+
+RESET ROLE;
@@ -0,0 +1,16 @@
+SET ROLE schedule_user;
+SET search_path TO public;
+
+CREATE TABLE IF NOT EXISTS snapshot_payloads (
+    hash       VARCHAR(128) PRIMARY KEY,
+    body       BYTEA NOT NULL,
+    raw_size   INTEGER NOT NULL,
+    created_at TIMESTAMPTZ NOT NULL DEFAULT NOW()
+);
+
+-- new snapshots reference snapshot_payloads by payload_hash; raw is only kept
+-- until SnapshotPayloadMigrator has moved an old row's payload over
+ALTER TABLE snapshots ALTER COLUMN raw DROP NOT NULL;
+CREATE INDEX IF NOT EXISTS idx_snapshots_inline_raw ON snapshots (id) WHERE raw IS NOT NULL;
+
+RESET ROLE;
@@ -0,0 +1,71 @@
+SET ROLE schedule_user;
+SET search_path TO public;
+
+-- Creates the monthly partition <parent>_pYYYYMM holding [month, month + 1 month).
+-- Called here for existing data and by RetentionService for the months ahead.
+CREATE OR REPLACE FUNCTION create_month_partition(parent TEXT, month DATE) RETURNS VOID AS $$
+DECLARE
+    m DATE := date_trunc('month', month)::date;
+BEGIN
+    EXECUTE format('CREATE TABLE IF NOT EXISTS %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+                   parent || '_p' || to_char(m, 'YYYYMM'), parent, m, (m + INTERVAL '1 month')::date);
+END $$ LANGUAGE plpgsql;
+
+-- Converts a plain table into one range-partitioned by month on time_col, keeping its rows
+-- and id sequence. The primary key of a partitioned table has to contain the partition key,
+-- so it becomes (id, time_col); events therefore lose the global uq_subject_hash constraint
+-- and EventRepository.insertIgnore checks (subject_id, hash) itself under a lock on the
+-- subject's row, see idx_events_subject_hash.
+CREATE OR REPLACE FUNCTION partition_by_month(tbl TEXT, time_col TEXT, columns_ddl TEXT, ahead INT) RETURNS VOID AS $$
+DECLARE
+    first_month DATE;
+    m DATE;
+    cols TEXT;
+BEGIN
+    IF (SELECT relkind FROM pg_class WHERE oid = tbl::regclass) = 'p' THEN
+        RETURN;
+    END IF;
+
+    EXECUTE format('ALTER TABLE %I RENAME TO %I', tbl, tbl || '_unpartitioned');
+    EXECUTE format('CREATE TABLE %I (%s, PRIMARY KEY (id, %I)) PARTITION BY RANGE (%I)',
+                   tbl, columns_ddl, time_col, time_col);
+    EXECUTE format('ALTER SEQUENCE %I OWNED BY %I.id', tbl || '_id_seq', tbl);
+
+    EXECUTE format('SELECT date_trunc(''month'', min(%I))::date FROM %I', time_col, tbl || '_unpartitioned')
+        INTO first_month;
+    m := coalesce(first_month, date_trunc('month', now())::date);
+    WHILE m <= (date_trunc('month', now()) + make_interval(months => ahead))::date LOOP
+        PERFORM create_month_partition(tbl, m);
+        m := (m + INTERVAL '1 month')::date;
+    END LOOP;
+
+    SELECT string_agg(quote_ident(attname), ', ' ORDER BY attnum) INTO cols
+    FROM pg_attribute WHERE attrelid = tbl::regclass AND attnum > 0 AND NOT attisdropped;
+    EXECUTE format('INSERT INTO %I (%s) SELECT %s FROM %I', tbl, cols, cols, tbl || '_unpartitioned');
+    EXECUTE format('DROP TABLE %I', tbl || '_unpartitioned');
+END $$ LANGUAGE plpgsql;
+
+SELECT partition_by_month('snapshots', 'snapshot_at', $cols$
+    id           BIGINT NOT NULL DEFAULT nextval('snapshots_id_seq'),
+    subject_id   INTEGER NOT NULL REFERENCES subjects(id) ON DELETE CASCADE,
+    snapshot_at  TIMESTAMPTZ NOT NULL,
+    payload_hash VARCHAR(128) NOT NULL,
+    raw          JSONB
+$cols$, 3);
+
+SELECT partition_by_month('events', 'event_time', $cols$
+    id         BIGINT NOT NULL DEFAULT nextval('events_id_seq'),
+    subject_id INTEGER NOT NULL REFERENCES subjects(id) ON DELETE CASCADE,
+    event_time TIMESTAMPTZ NOT NULL,
+    diff       JSONB NOT NULL,
+    hash       VARCHAR(128) NOT NULL,
+    created_at TIMESTAMPTZ DEFAULT now()
+$cols$, 3);
+
+CREATE INDEX IF NOT EXISTS idx_snapshots_subject_time ON snapshots (subject_id, snapshot_at DESC);
+CREATE INDEX IF NOT EXISTS idx_snapshots_payload_hash ON snapshots (payload_hash);
+CREATE INDEX IF NOT EXISTS idx_snapshots_inline_raw ON snapshots (id) WHERE raw IS NOT NULL;
+CREATE INDEX IF NOT EXISTS idx_events_subject_time ON events (subject_id, event_time DESC);
+CREATE INDEX IF NOT EXISTS idx_events_subject_hash ON events (subject_id, hash);
+
+RESET ROLE;
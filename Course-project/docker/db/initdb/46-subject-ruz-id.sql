@@ -0,0 +1,13 @@
+SET ROLE schedule_user;
+SET search_path TO public;
+
+ALTER TABLE subjects ADD COLUMN IF NOT EXISTS ruz_id VARCHAR(64);
+
+-- keys that already are ids need no lookup; the rest are resolved by the app on their next poll
+UPDATE subjects SET ruz_id = substring(ruz_key FROM 3)
+WHERE ruz_id IS NULL AND type = 'TEACHER' AND ruz_key ~ '^T-[0-9]+$';
+
+UPDATE subjects SET ruz_id = ruz_key
+WHERE ruz_id IS NULL AND type = 'COURSE' AND ruz_key ~ '^[0-9]+$';
+
+RESET ROLE;
@@ -0,0 +1,7 @@
+SET ROLE schedule_user;
+SET search_path TO public;
+
+-- week -> day hashes of the snapshot's lessons; older snapshots keep NULL and are diffed in full
+ALTER TABLE snapshots ADD COLUMN IF NOT EXISTS hash_tree JSONB;
+
+RESET ROLE;
@@ -0,0 +1,11 @@
+SET ROLE schedule_user;
+SET search_path TO public;
+
+-- events.diff rendered for the events page, per locale; older rows are filled in by EventDiffTextBackfill
+ALTER TABLE events ADD COLUMN IF NOT EXISTS diff_text_en TEXT;
+ALTER TABLE events ADD COLUMN IF NOT EXISTS diff_text_zh TEXT;
+
+-- lets the backfill find what is left with one index scan, and nothing once it is done
+CREATE INDEX IF NOT EXISTS events_diff_text_missing_idx ON events (id) WHERE diff_text_en IS NULL;
+
+RESET ROLE;
@@ -0,0 +1,23 @@
+SET ROLE schedule_user;
+SET search_path TO public;
+
+-- mails written in the transaction of the event they report, sent by NotificationOutboxWorker;
+-- DEAD rows failed notifications.outbox.max-attempts times and are kept for inspection;
+-- RetentionService deletes SENT and DEAD rows after retention.outbox-sent-days / -dead-days
+CREATE TABLE IF NOT EXISTS notification_outbox (
+    id              BIGSERIAL PRIMARY KEY,
+    recipient       VARCHAR(255) NOT NULL,
+    mail_subject    VARCHAR(512) NOT NULL,
+    body            TEXT NOT NULL,
+    status          VARCHAR(16) NOT NULL DEFAULT 'PENDING',
+    attempts        INTEGER NOT NULL DEFAULT 0,
+    next_attempt_at TIMESTAMPTZ NOT NULL DEFAULT now(),
+    owner           VARCHAR(128),
+    lease_until     TIMESTAMPTZ,
+    last_error      TEXT,
+    created_at      TIMESTAMPTZ NOT NULL DEFAULT now(),
+    sent_at         TIMESTAMPTZ
+);
+CREATE INDEX IF NOT EXISTS idx_notification_outbox_due ON notification_outbox (status, next_attempt_at);
+
+RESET ROLE;
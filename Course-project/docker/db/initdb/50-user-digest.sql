@@ -0,0 +1,11 @@
+SET ROLE schedule_user;
+SET search_path TO public;
+
+-- NULL: mail every change right away; otherwise changes of non-important subscriptions are
+-- collected and sent as one mail at the end of each window of this many minutes
+ALTER TABLE users ADD COLUMN IF NOT EXISTS digest_minutes INTEGER;
+
+-- queued mails that are merged with the recipient's other digest mails due at the same time
+ALTER TABLE notification_outbox ADD COLUMN IF NOT EXISTS digest BOOLEAN NOT NULL DEFAULT false;
+
+RESET ROLE;
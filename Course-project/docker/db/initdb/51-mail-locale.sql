@@ -0,0 +1,11 @@
+SET ROLE schedule_user;
+SET search_path TO public;
+
+-- language change mails are written in, as the user last saw the site ("en", "zh");
+-- NULL for users who never saved their profile, who get English
+ALTER TABLE users ADD COLUMN IF NOT EXISTS locale VARCHAR(16);
+
+-- language of a queued mail, so a digest of several is titled in the same one
+ALTER TABLE notification_outbox ADD COLUMN IF NOT EXISTS locale VARCHAR(16);
+
+RESET ROLE;
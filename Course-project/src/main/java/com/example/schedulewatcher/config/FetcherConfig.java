@@ -0,0 +1,39 @@
+package com.example.schedulewatcher.config;
+
+import com.example.schedulewatcher.util.CanonicalJson;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+public class FetcherConfig {
+
+    /**
+     * Bounded pool used by ScheduleFetchService to fetch, hash and diff subjects concurrently.
+     * fetcher.parallelism is the global cap; the per-host cap lives in RuzClient.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService fetchExecutor(@Value("${fetcher.parallelism:8}") int parallelism) {
+        AtomicInteger seq = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, parallelism), r -> {
+            Thread t = new Thread(r, "ruz-fetch-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Hashes RUZ payloads by content, so reordered keys or a new generation timestamp do not
+     * count as a schedule change. fetcher.hash.ignored-fields are dropped wherever they occur.
+     */
+    @Bean
+    public CanonicalJson payloadCanonicalizer(
+            @Value("${fetcher.hash.ignored-fields:generated_at,generatedAt,timestamp,server_time}") List<String> ignored) {
+        return new CanonicalJson(ignored);
+    }
+}
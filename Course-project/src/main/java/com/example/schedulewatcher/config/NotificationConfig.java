@@ -0,0 +1,27 @@
+package com.example.schedulewatcher.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Configuration
+public class NotificationConfig {
+
+    /**
+     * Threads NotificationOutboxWorker sends mail on; kept apart from the fetch pool, so a
+     * slow mail server never holds up change detection.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService notificationExecutor(@Value("${notifications.outbox.workers:4}") int workers) {
+        AtomicInteger seq = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, workers), r -> {
+            Thread t = new Thread(r, "mail-send-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.schedulewatcher.config;
+
+import com.example.schedulewatcher.util.TokenBucket;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+
+@Configuration
+public class RuzConfig {
+
+    /**
+     * HTTP client for RUZ. One shared instance keeps its connections alive between polls and
+     * negotiates HTTP/2 where the server supports it; the per-request read timeout is set by RuzClient.
+     */
+    @Bean
+    public HttpClient ruzHttpClient(@Value("${ruz.connect-timeout:3000}") long connectTimeoutMs) {
+        return HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    /** Client-side cap on the request rate against RUZ, shared by all fetch workers and retries. */
+    @Bean
+    public TokenBucket ruzRateLimiter(@Value("${ruz.rate-limit.per-second:10}") double perSecond,
+                                      @Value("${ruz.rate-limit.burst:20}") int burst) {
+        return new TokenBucket(perSecond, burst);
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.schedulewatcher.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Turns on the @Scheduled pollers. Tests switch it off with spring.task.scheduling.enabled=false
+ * so background polls do not race the fetches a test drives itself.
+ */
+@Configuration
+@EnableScheduling
+@ConditionalOnProperty(name = "spring.task.scheduling.enabled", havingValue = "true", matchIfMissing = true)
+public class SchedulingConfig {
+}
@@ -54,8 +54,7 @@ public class AdminController {
     private String prettyFilters(String json) {
         if (json == null || json.isBlank()) return "";
         try {
-            var M = new com.fasterxml.jackson.databind.ObjectMapper();
-            var n = M.readTree(json);
+            var n = com.example.schedulewatcher.util.Json.MAPPER.readTree(json);
             String room = n.hasNonNull("room") ? n.get("room").asText("") : "";
             String date = n.hasNonNull("date") ? n.get("date").asText("") : "";
             String from = n.hasNonNull("from") ? n.get("from").asText("") : "";
@@ -4,7 +4,12 @@ import com.example.schedulewatcher.model.Event;
 import com.example.schedulewatcher.model.Subscription;
 import com.example.schedulewatcher.repository.EventRepository;
 import com.example.schedulewatcher.repository.SubscriptionRepository;
+import com.example.schedulewatcher.service.DiffTextRenderer;
 import com.example.schedulewatcher.service.NotificationService;
+import com.example.schedulewatcher.service.ScheduleFetchService;
+import com.example.schedulewatcher.util.Json;
+import com.example.schedulewatcher.util.LessonDiff;
+import com.example.schedulewatcher.util.ScheduleDiff;
 import com.example.schedulewatcher.util.ScheduleDiffUtil;
 
 import com.example.schedulewatcher.repository.SubjectRepository;
@@ -30,18 +35,24 @@ public class AdminSubscriptionController {
     private final SubscriptionRepository subs;
     private final EventRepository events;
     private final NotificationService notifier;
+    private final ScheduleFetchService fetcher;
+    private final DiffTextRenderer texts;
 
     @org.springframework.beans.factory.annotation.Autowired
     private SubjectRepository subjects;
 
-    private static final ObjectMapper M = new ObjectMapper();
+    private static final ObjectMapper M = Json.MAPPER;
 
     public AdminSubscriptionController(SubscriptionRepository subs,
                                        EventRepository events,
-                                       NotificationService notifier) {
+                                       NotificationService notifier,
+                                       ScheduleFetchService fetcher,
+                                       DiffTextRenderer texts) {
         this.subs = subs;
         this.events = events;
         this.notifier = notifier;
+        this.fetcher = fetcher;
+        this.texts = texts;
     }
 
     private String normalizeTeacher(String t) {
@@ -104,6 +115,7 @@ public class AdminSubscriptionController {
                         Subject ns = new Subject();
                         ns.setName("Teacher " + normalizedTeacher);
                         ns.setRuzKey(normalizedTeacher);
+                        if (normalizedTeacher.matches("\\d+")) ns.setRuzId(normalizedTeacher);
                         ns.setType(SubjectType.TEACHER);
                         newSubject = subjects.save(ns);
                     }
@@ -119,22 +131,32 @@ public class AdminSubscriptionController {
         s.setFilters(newFilters);
         subs.save(s);
 
-        String diffJson = buildManualDiff(oldFilters, newFilters);
+        ScheduleDiff diff = buildManualDiff(oldFilters, newFilters);
 
         Event evt = new Event();
         evt.setSubject(s.getSubject());
         evt.setEventTime(OffsetDateTime.now());
         evt.setCreatedAt(OffsetDateTime.now());
-        evt.setDiff(diffJson);
-        evt.setHash(ScheduleDiffUtil.sha256(s.getSubject().getId() + ":" + diffJson));
+        evt.setScheduleDiff(diff);
+        evt.setHash(ScheduleDiffUtil.sha256(s.getSubject().getId() + ":" + diff.toJson()));
+        texts.render(evt);
         events.insertIgnoreFromEntity(evt);
 
-        notifier.notifyByEmail(java.util.List.of(s), evt);
+        notifier.enqueue(java.util.List.of(SubscriptionRepository.Recipient.of(s)), evt);
 
         if (ra != null) ra.addFlashAttribute("flashKey", "flash.subscription_saved");
         return "redirect:/admin/manage";
     }
 
+    @PostMapping("/{id}/refresh")
+    public String refresh(@PathVariable Long id,
+                          org.springframework.web.servlet.mvc.support.RedirectAttributes ra) {
+        Subscription s = subs.findById(id).orElseThrow();
+        boolean done = fetcher.refresh(s.getSubject().getId());
+        if (ra != null) ra.addFlashAttribute("flashKey", done ? "flash.schedule_refreshed" : "flash.schedule_refresh_busy");
+        return "redirect:/admin/manage";
+    }
+
     private static Map<String, String> parseFilters(String json) {
         Map<String,String> out = new HashMap<>();
         if (json == null || json.isBlank()) return out;
@@ -157,25 +179,21 @@ public class AdminSubscriptionController {
         return n.toString();
     }
 
-    private static String buildManualDiff(String oldJson, String newJson) {
+    private static ScheduleDiff buildManualDiff(String oldJson, String newJson) {
         try {
             Map<String,String> o = parseFilters(oldJson);
             Map<String,String> n = parseFilters(newJson);
-            ObjectNode root = M.createObjectNode();
-            root.put("type","manual");
-            ObjectNode ch = root.putObject("changes");
+            Map<String, LessonDiff.Change> changes = new java.util.LinkedHashMap<>();
             for (String k : new String[]{"room","date","from","to","teacher"}) {
                 String ov = o.getOrDefault(k, "");
                 String nv = n.getOrDefault(k, "");
                 if (!java.util.Objects.equals(ov, nv)) {
-                    ObjectNode item = ch.putObject(k);
-                    item.put("from", ov);
-                    item.put("to", nv);
+                    changes.put(k, new LessonDiff.Change(ov, nv));
                 }
             }
-            return root.toString();
+            return ScheduleDiff.manual(changes);
         } catch (Exception e) {
-            return ScheduleDiffUtil.diff(oldJson, newJson);
+            return ScheduleDiffUtil.compare(oldJson, newJson);
         }
     }
 }
\ No newline at end of file
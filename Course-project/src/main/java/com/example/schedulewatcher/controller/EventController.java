@@ -6,7 +6,6 @@ import com.example.schedulewatcher.model.Subscription;
 import com.example.schedulewatcher.model.User;
 import com.example.schedulewatcher.service.SubscriptionService;
 import com.example.schedulewatcher.repository.EventRepository;
-import com.example.schedulewatcher.repository.SubscriptionRepository;
 import com.example.schedulewatcher.service.UserSessionService;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.stereotype.Controller;
@@ -23,7 +22,7 @@ public class EventController {
     private final SubscriptionService subscriptionService;
     private final UserSessionService userSession;
 
-    public EventController(EventRepository events, SubscriptionRepository subs, SubscriptionService subscriptionService, UserSessionService userSession) {
+    public EventController(EventRepository events, SubscriptionService subscriptionService, UserSessionService userSession) {
         this.events = events;
         this.subscriptionService = subscriptionService;
         this.userSession = userSession;
@@ -5,6 +5,7 @@ import com.example.schedulewatcher.model.User;
 import com.example.schedulewatcher.service.SubscriptionService;
 import com.example.schedulewatcher.service.UserSessionService;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.example.schedulewatcher.util.Json;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpSession;
 import org.springframework.stereotype.Controller;
@@ -22,7 +23,7 @@ public class SubscriptionController {
 
     private final SubscriptionService svc;
     private final UserSessionService userSession;
-    private static final ObjectMapper M = new ObjectMapper();
+    private static final ObjectMapper M = Json.MAPPER;
 
     public SubscriptionController(SubscriptionService svc, UserSessionService userSession) {
         this.svc = svc;
@@ -33,6 +34,7 @@ public class SubscriptionController {
     public String page(HttpSession session, Model model) {
         User me = userSession.current(session);
         model.addAttribute("email", me.getEmail());
+        model.addAttribute("digestMinutes", me.getDigestMinutes() != null ? me.getDigestMinutes() : 0);
 
         List<Subscription> list = svc.listForUser(me.getId());
         List<SubsView> vms = new ArrayList<>(list.size());
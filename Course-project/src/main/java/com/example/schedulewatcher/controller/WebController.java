@@ -10,6 +10,8 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import java.util.Locale;
+
 @Controller
 public class WebController {
 
@@ -29,8 +31,19 @@ public class WebController {
     @PostMapping(path = "/profile/email", consumes = "application/x-www-form-urlencoded")
     public String saveEmail(HttpSession session,
                             @RequestParam("email") String email,
+                            Locale locale,
                             RedirectAttributes ra) {
-        userSession.updateEmail(session, email);
+        userSession.updateEmail(session, email, locale);
+        ra.addFlashAttribute("ok", "Saved");
+        return "redirect:/subscriptions";
+    }
+
+    @PostMapping(path = "/profile/digest", consumes = "application/x-www-form-urlencoded")
+    public String saveDigest(HttpSession session,
+                             @RequestParam(name = "minutes", defaultValue = "0") int minutes,
+                             Locale locale,
+                             RedirectAttributes ra) {
+        userSession.updateDigest(session, minutes, locale);
         ra.addFlashAttribute("ok", "Saved");
         return "redirect:/subscriptions";
     }
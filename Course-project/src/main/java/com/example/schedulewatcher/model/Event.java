@@ -1,5 +1,6 @@
 package com.example.schedulewatcher.model;
 
+import com.example.schedulewatcher.util.ScheduleDiff;
 import jakarta.persistence.*;
 import org.hibernate.annotations.JdbcTypeCode;
 import org.hibernate.type.SqlTypes;
@@ -31,6 +32,17 @@ public class Event {
     @Column(name = "diff", columnDefinition = "jsonb", nullable = false)
     private String diff = "{}";
 
+    /** diff rendered for the events page, one per supported locale; see DiffTextRenderer. */
+    @Column(name = "diff_text_en", columnDefinition = "text")
+    private String diffTextEn;
+
+    @Column(name = "diff_text_zh", columnDefinition = "text")
+    private String diffTextZh;
+
+    /** diff, read at most once per loaded event; see {@link #getScheduleDiff()}. */
+    @Transient
+    private ScheduleDiff scheduleDiff;
+
     // getters / setters
     public Long getId() { return id; }
     public void setId(Long id) { this.id = id; }
@@ -48,5 +60,19 @@ public class Event {
     public void setCreatedAt(OffsetDateTime createdAt) { this.createdAt = createdAt; }
 
     public String getDiff() { return diff; }
-    public void setDiff(String diff) { this.diff = diff; }
+    public void setDiff(String diff) { this.diff = diff; this.scheduleDiff = null; }
+
+    /** The typed diff; parsed from the stored JSON on first use only. */
+    public ScheduleDiff getScheduleDiff() {
+        if (scheduleDiff == null) scheduleDiff = ScheduleDiff.parse(diff);
+        return scheduleDiff;
+    }
+
+    public void setScheduleDiff(ScheduleDiff d) { this.diff = d.toJson(); this.scheduleDiff = d; }
+
+    public String getDiffTextEn() { return diffTextEn; }
+    public void setDiffTextEn(String diffTextEn) { this.diffTextEn = diffTextEn; }
+
+    public String getDiffTextZh() { return diffTextZh; }
+    public void setDiffTextZh(String diffTextZh) { this.diffTextZh = diffTextZh; }
 }
@@ -0,0 +1,73 @@
+package com.example.schedulewatcher.model;
+
+import jakarta.persistence.*;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Per-subject bookkeeping of the fetcher: the HTTP validators RUZ returned for the
+ * last downloaded schedule, sent back as If-None-Match / If-Modified-Since, the
+ * adaptive polling interval maintained by PollScheduler, and the hash and id of the
+ * subject's latest snapshot, against which a new download is compared before anything
+ * else is read.
+ */
+@Entity
+@Table(name = "subject_fetch_state")
+public class FetchState {
+
+    @Id
+    @Column(name = "subject_id")
+    private Long subjectId;
+
+    @Column(name = "etag")
+    private String etag;
+
+    @Column(name = "last_modified", length = 64)
+    private String lastModified;
+
+    @Column(name = "checked_at", nullable = false)
+    private OffsetDateTime checkedAt = OffsetDateTime.now();
+
+    @Column(name = "last_changed_at")
+    private OffsetDateTime lastChangedAt;
+
+    @Column(name = "poll_interval_ms")
+    private Long pollIntervalMs;
+
+    @Column(name = "payload_hash", length = 128)
+    private String payloadHash;
+
+    @Column(name = "snapshot_id")
+    private Long snapshotId;
+
+    public FetchState() {}
+
+    public FetchState(Long subjectId) {
+        this.subjectId = subjectId;
+    }
+
+    // getters / setters
+    public Long getSubjectId() { return subjectId; }
+    public void setSubjectId(Long subjectId) { this.subjectId = subjectId; }
+
+    public String getEtag() { return etag; }
+    public void setEtag(String etag) { this.etag = etag; }
+
+    public String getLastModified() { return lastModified; }
+    public void setLastModified(String lastModified) { this.lastModified = lastModified; }
+
+    public OffsetDateTime getCheckedAt() { return checkedAt; }
+    public void setCheckedAt(OffsetDateTime checkedAt) { this.checkedAt = checkedAt; }
+
+    public OffsetDateTime getLastChangedAt() { return lastChangedAt; }
+    public void setLastChangedAt(OffsetDateTime lastChangedAt) { this.lastChangedAt = lastChangedAt; }
+
+    public Long getPollIntervalMs() { return pollIntervalMs; }
+    public void setPollIntervalMs(Long pollIntervalMs) { this.pollIntervalMs = pollIntervalMs; }
+
+    public String getPayloadHash() { return payloadHash; }
+    public void setPayloadHash(String payloadHash) { this.payloadHash = payloadHash; }
+
+    public Long getSnapshotId() { return snapshotId; }
+    public void setSnapshotId(Long snapshotId) { this.snapshotId = snapshotId; }
+}
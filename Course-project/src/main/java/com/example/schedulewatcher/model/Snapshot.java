@@ -21,13 +21,19 @@ public class Snapshot {
     @JoinColumn(name = "subject_id", nullable = false)
     private Subject subject;
 
+    /** Inline payload of snapshots written before snapshot_payloads; null for new ones. */
     @JdbcTypeCode(SqlTypes.JSON)
-    @Column(name = "raw", columnDefinition = "jsonb", nullable = false)
-    private String raw = "{}";
+    @Column(name = "raw", columnDefinition = "jsonb")
+    private String raw;
 
     @Column(name = "payload_hash", nullable = false)
     private String payloadHash;
 
+    /** ScheduleHashTree of the payload's lessons; null for non-schedule payloads and old rows. */
+    @JdbcTypeCode(SqlTypes.JSON)
+    @Column(name = "hash_tree", columnDefinition = "jsonb")
+    private String hashTree;
+
     // getters / setters
     public Long getId() { return id; }
     public void setId(Long id) { this.id = id; }
@@ -43,4 +49,7 @@ public class Snapshot {
 
     public String getPayloadHash() { return payloadHash; }
     public void setPayloadHash(String payloadHash) { this.payloadHash = payloadHash; }
+
+    public String getHashTree() { return hashTree; }
+    public void setHashTree(String hashTree) { this.hashTree = hashTree; }
 }
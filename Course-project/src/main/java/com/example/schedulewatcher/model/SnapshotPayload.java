@@ -0,0 +1,40 @@
+package com.example.schedulewatcher.model;
+
+import jakarta.persistence.*;
+
+import java.time.OffsetDateTime;
+
+/**
+ * A schedule payload stored once per distinct content: keyed by the same SHA-256 as
+ * Snapshot.payloadHash, body gzip-compressed. Snapshots reference it by that hash.
+ */
+@Entity
+@Table(name = "snapshot_payloads")
+public class SnapshotPayload {
+
+    @Id
+    @Column(name = "hash", length = 128)
+    private String hash;
+
+    @Column(name = "body", nullable = false, columnDefinition = "bytea")
+    private byte[] body;
+
+    @Column(name = "raw_size", nullable = false)
+    private int rawSize;
+
+    @Column(name = "created_at", nullable = false)
+    private OffsetDateTime createdAt = OffsetDateTime.now();
+
+    // getters / setters
+    public String getHash() { return hash; }
+    public void setHash(String hash) { this.hash = hash; }
+
+    public byte[] getBody() { return body; }
+    public void setBody(byte[] body) { this.body = body; }
+
+    public int getRawSize() { return rawSize; }
+    public void setRawSize(int rawSize) { this.rawSize = rawSize; }
+
+    public OffsetDateTime getCreatedAt() { return createdAt; }
+    public void setCreatedAt(OffsetDateTime createdAt) { this.createdAt = createdAt; }
+}
@@ -16,6 +16,10 @@ public class Subject {
     @Column(name = "ruz_key", nullable = false, unique = true)
     private String ruzKey;
 
+    // numeric RUZ id the schedule is fetched by, resolved from ruzKey once (see RuzIdResolver)
+    @Column(name = "ruz_id", length = 64)
+    private String ruzId;
+
     @Enumerated(EnumType.STRING)
     @Column(name = "type", columnDefinition = "subject_type", nullable = false)
     private SubjectType type;
@@ -30,6 +34,9 @@ public class Subject {
     public String getRuzKey() { return ruzKey; }
     public void setRuzKey(String ruzKey) { this.ruzKey = ruzKey; }
 
+    public String getRuzId() { return ruzId; }
+    public void setRuzId(String ruzId) { this.ruzId = ruzId; }
+
     public SubjectType getType() { return type; }
     public void setType(SubjectType type) { this.type = type; }
 }
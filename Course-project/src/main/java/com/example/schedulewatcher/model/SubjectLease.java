@@ -0,0 +1,41 @@
+package com.example.schedulewatcher.model;
+
+import jakarta.persistence.*;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Cluster-wide claim on a subject. A node may fetch a subject only while it holds an
+ * unexpired lease on it and the subject is due; leases of a dead node simply run out.
+ */
+@Entity
+@Table(name = "subject_lease",
+        indexes = @Index(name = "idx_subject_lease_due", columnList = "next_due_at"))
+public class SubjectLease {
+
+    @Id
+    @Column(name = "subject_id")
+    private Long subjectId;
+
+    @Column(name = "owner", length = 128)
+    private String owner;
+
+    @Column(name = "lease_until", nullable = false)
+    private OffsetDateTime leaseUntil;
+
+    @Column(name = "next_due_at", nullable = false)
+    private OffsetDateTime nextDueAt;
+
+    // getters / setters
+    public Long getSubjectId() { return subjectId; }
+    public void setSubjectId(Long subjectId) { this.subjectId = subjectId; }
+
+    public String getOwner() { return owner; }
+    public void setOwner(String owner) { this.owner = owner; }
+
+    public OffsetDateTime getLeaseUntil() { return leaseUntil; }
+    public void setLeaseUntil(OffsetDateTime leaseUntil) { this.leaseUntil = leaseUntil; }
+
+    public OffsetDateTime getNextDueAt() { return nextDueAt; }
+    public void setNextDueAt(OffsetDateTime nextDueAt) { this.nextDueAt = nextDueAt; }
+}
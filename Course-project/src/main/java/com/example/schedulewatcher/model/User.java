@@ -18,6 +18,14 @@ public class User {
     @Column(name = "telegram_id")
     private String telegramId;
 
+    /** Minutes changes are collected for before one digest mail goes out; null mails each change. */
+    @Column(name = "digest_minutes")
+    private Integer digestMinutes;
+
+    /** Language tag mails are written in ("en", "zh"); null for English. */
+    @Column(name = "locale", length = 16)
+    private String locale;
+
     @Column(name = "created_at", nullable = false)
     private OffsetDateTime createdAt = OffsetDateTime.now();
 
@@ -29,6 +37,10 @@ public class User {
     public void setTelegramId(String telegramId) { this.telegramId = telegramId; }
     public String getStatus() { return status; }
     public void setStatus(String status) { this.status = status; }
+    public Integer getDigestMinutes() { return digestMinutes; }
+    public void setDigestMinutes(Integer digestMinutes) { this.digestMinutes = digestMinutes; }
+    public String getLocale() { return locale; }
+    public void setLocale(String locale) { this.locale = locale; }
     public OffsetDateTime getCreatedAt() { return createdAt; }
     public void setCreatedAt(OffsetDateTime createdAt) { this.createdAt = createdAt; }
 }
@@ -1,6 +1,7 @@
 package com.example.schedulewatcher.repository;
 import com.example.schedulewatcher.model.Event;
 import com.example.schedulewatcher.model.Subject;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
@@ -9,24 +10,55 @@ import org.springframework.transaction.annotation.Transactional;
 import java.time.OffsetDateTime;
 import java.util.List;
 public interface EventRepository extends JpaRepository<Event, Long> {
-    @Modifying(clearAutomatically = true, flushAutomatically = true)
+    /**
+     * Stores the event unless the subject already has one with this hash. The partitioned
+     * events table cannot have a unique (subject_id, hash) key, so the check is part of the
+     * insert, and the subject's row is locked first: concurrent writers of one subject (two
+     * pollers without leasing, a poll and an admin edit) check and insert one after the other.
+     *
+     * Only events still kept are checked: once RetentionService has dropped the partition
+     * holding an event, the same change can be stored, and mailed, again.
+     *
+     * @return 1 if stored, 0 if the subject already had the event
+     */
     @Transactional
+    default int insertIgnore(java.time.OffsetDateTime createdAt, String diffJson, String diffTextEn,
+                             String diffTextZh, java.time.OffsetDateTime eventTime, String hash, Long subjectId) {
+        lockSubject(subjectId);
+        return insertIfNew(createdAt, diffJson, diffTextEn, diffTextZh, eventTime, hash, subjectId);
+    }
+
+    @Query(value = "SELECT id FROM subjects WHERE id = :subjectId FOR UPDATE", nativeQuery = true)
+    List<Number> lockSubject(@Param("subjectId") Long subjectId);
+
+    /** The insert of insertIgnore, without the lock that makes its check safe. */
+    @Modifying(clearAutomatically = true, flushAutomatically = true)
     @Query(value = """
-    INSERT INTO events (created_at, diff, event_time, hash, subject_id)
-    VALUES (:createdAt, CAST(:diffJson AS jsonb), :eventTime, :hash, :subjectId)
-    ON CONFLICT (subject_id, hash) DO NOTHING
+    INSERT INTO events (created_at, diff, diff_text_en, diff_text_zh, event_time, hash, subject_id)
+    SELECT :createdAt, CAST(:diffJson AS jsonb), :diffTextEn, :diffTextZh, :eventTime, :hash, :subjectId
+    WHERE NOT EXISTS (SELECT 1 FROM events WHERE subject_id = :subjectId AND hash = :hash)
     """, nativeQuery = true)
-    int insertIgnore(@Param("createdAt") java.time.OffsetDateTime createdAt,
-                     @Param("diffJson") String diffJson,
-                     @Param("eventTime") java.time.OffsetDateTime eventTime,
-                     @Param("hash") String hash,
-                     @Param("subjectId") Long subjectId);
+    int insertIfNew(@Param("createdAt") java.time.OffsetDateTime createdAt,
+                    @Param("diffJson") String diffJson,
+                    @Param("diffTextEn") String diffTextEn,
+                    @Param("diffTextZh") String diffTextZh,
+                    @Param("eventTime") java.time.OffsetDateTime eventTime,
+                    @Param("hash") String hash,
+                    @Param("subjectId") Long subjectId);
 
     default int insertIgnoreFromEntity(Event e) {
         return insertIgnore(e.getCreatedAt() != null ? e.getCreatedAt() : java.time.OffsetDateTime.now(),
-                e.getDiff(), e.getEventTime(), e.getHash(), e.getSubject().getId());
+                e.getDiff(), e.getDiffTextEn(), e.getDiffTextZh(), e.getEventTime(), e.getHash(), e.getSubject().getId());
     }
 
     List<Event> findBySubjectInOrderByEventTimeDesc(List<Subject> subjects);
+
+    /** Events from before diff texts were stored, oldest first; see EventDiffTextBackfill. */
+    @Query("select e from Event e where e.diffTextEn is null order by e.id")
+    List<Event> findWithoutDiffText(Pageable page);
+
+    @Modifying
+    @Query("update Event e set e.diffTextEn = :en, e.diffTextZh = :zh where e.id = :id")
+    int setDiffText(@Param("id") Long id, @Param("en") String en, @Param("zh") String zh);
     long countByEventTimeAfter(OffsetDateTime since);
 }
@@ -0,0 +1,6 @@
+package com.example.schedulewatcher.repository;
+import com.example.schedulewatcher.model.FetchState;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+public interface FetchStateRepository extends JpaRepository<FetchState, Long> {
+}
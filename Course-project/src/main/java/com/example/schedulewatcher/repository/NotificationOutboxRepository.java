@@ -0,0 +1,57 @@
+package com.example.schedulewatcher.repository;
+
+import com.example.schedulewatcher.model.NotificationOutbox;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+
+public interface NotificationOutboxRepository extends JpaRepository<NotificationOutbox, Long> {
+
+    /**
+     * Up to limit pending mails that are due and not leased by a live worker, oldest first.
+     * Rows another node is claiming at the same moment are skipped rather than waited for.
+     */
+    @Query(value = """
+    SELECT id FROM notification_outbox
+    WHERE status = 'PENDING' AND next_attempt_at <= :now AND (lease_until IS NULL OR lease_until <= :now)
+    ORDER BY next_attempt_at
+    LIMIT :limit
+    FOR UPDATE SKIP LOCKED
+    """, nativeQuery = true)
+    List<Number> lockDue(@Param("now") OffsetDateTime now, @Param("limit") int limit);
+
+    @Modifying
+    @Query(value = "UPDATE notification_outbox SET owner = :node, lease_until = :until WHERE id IN (:ids)",
+            nativeQuery = true)
+    int claim(@Param("ids") Collection<Long> ids,
+              @Param("node") String node,
+              @Param("until") OffsetDateTime until);
+
+    @Modifying
+    @Query(value = """
+    UPDATE notification_outbox SET status = 'SENT', sent_at = :now, attempts = attempts + 1,
+        owner = NULL, lease_until = NULL, last_error = NULL
+    WHERE id = :id AND owner = :node
+    """, nativeQuery = true)
+    int markSent(@Param("id") Long id, @Param("node") String node, @Param("now") OffsetDateTime now);
+
+    /** A failed attempt: back to PENDING until next, or DEAD when no attempts are left. */
+    @Modifying
+    @Query(value = """
+    UPDATE notification_outbox SET status = :status, attempts = attempts + 1, next_attempt_at = :next,
+        owner = NULL, lease_until = NULL, last_error = :error
+    WHERE id = :id AND owner = :node
+    """, nativeQuery = true)
+    int markFailed(@Param("id") Long id,
+                   @Param("node") String node,
+                   @Param("status") String status,
+                   @Param("next") OffsetDateTime next,
+                   @Param("error") String error);
+
+    long countByStatus(NotificationOutbox.Status status);
+}
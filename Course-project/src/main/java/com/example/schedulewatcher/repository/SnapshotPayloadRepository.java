@@ -0,0 +1,32 @@
+package com.example.schedulewatcher.repository;
+
+import com.example.schedulewatcher.model.SnapshotPayload;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.OffsetDateTime;
+
+public interface SnapshotPayloadRepository extends JpaRepository<SnapshotPayload, String> {
+
+    /** Stores a payload unless one with the same hash exists already. */
+    @Modifying
+    @Query(value = """
+    INSERT INTO snapshot_payloads (hash, body, raw_size, created_at)
+    VALUES (:hash, :body, :rawSize, :createdAt)
+    ON CONFLICT DO NOTHING
+    """, nativeQuery = true)
+    int insertIfAbsent(@Param("hash") String hash,
+                       @Param("body") byte[] body,
+                       @Param("rawSize") int rawSize,
+                       @Param("createdAt") OffsetDateTime createdAt);
+
+    /**
+     * Writes the row without changing it, which locks it until the transaction ends; a
+     * concurrent RetentionService sweep then fails instead of deleting it.
+     */
+    @Modifying
+    @Query(value = "UPDATE snapshot_payloads SET created_at = created_at WHERE hash = :hash", nativeQuery = true)
+    int touch(@Param("hash") String hash);
+}
@@ -1,8 +1,23 @@
 package com.example.schedulewatcher.repository;
 import com.example.schedulewatcher.model.Snapshot;
 import com.example.schedulewatcher.model.Subject;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 public interface SnapshotRepository extends JpaRepository<Snapshot, Long> {
     Optional<Snapshot> findTopBySubjectOrderBySnapshotAtDesc(Subject subject);
+
+    /** Old snapshots that still carry their payload inline. */
+    @Query("select s from Snapshot s where s.raw is not null order by s.id")
+    List<Snapshot> findWithInlineRaw(Pageable page);
+
+    @Modifying
+    @Query("update Snapshot s set s.raw = null where s.id in :ids")
+    int clearRaw(@Param("ids") Collection<Long> ids);
 }
@@ -0,0 +1,74 @@
+package com.example.schedulewatcher.repository;
+
+import com.example.schedulewatcher.model.SubjectLease;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
+
+public interface SubjectLeaseRepository extends JpaRepository<SubjectLease, Long> {
+
+    @Modifying
+    @Query(value = """
+    INSERT INTO subject_lease (subject_id, owner, lease_until, next_due_at)
+    VALUES (:subjectId, NULL, :now, :now)
+    ON CONFLICT DO NOTHING
+    """, nativeQuery = true)
+    int insertIfAbsent(@Param("subjectId") Long subjectId, @Param("now") OffsetDateTime now);
+
+    /** Creates the lease rows missing for the subjects, due now, in one statement. */
+    @Modifying
+    @Query(value = """
+    INSERT INTO subject_lease (subject_id, owner, lease_until, next_due_at)
+    SELECT id, NULL, :now, :now FROM subjects WHERE id IN (:ids)
+    ON CONFLICT DO NOTHING
+    """, nativeQuery = true)
+    int insertMissing(@Param("ids") Collection<Long> ids, @Param("now") OffsetDateTime now);
+
+    /**
+     * Up to limit due, unleased rows among the candidates, most overdue first.
+     * Rows another node is claiming at the same moment are skipped rather than waited for.
+     */
+    @Query(value = """
+    SELECT subject_id FROM subject_lease
+    WHERE subject_id IN (:ids) AND next_due_at <= :now AND (lease_until <= :now OR owner = :node)
+    ORDER BY next_due_at
+    LIMIT :limit
+    FOR UPDATE SKIP LOCKED
+    """, nativeQuery = true)
+    List<Number> lockClaimable(@Param("ids") Collection<Long> ids,
+                               @Param("now") OffsetDateTime now,
+                               @Param("node") String node,
+                               @Param("limit") int limit);
+
+    /** The subject's row if its lease is free or already ours, whether it is due or not. */
+    @Query(value = """
+    SELECT subject_id FROM subject_lease
+    WHERE subject_id = :id AND (lease_until <= :now OR owner = :node)
+    FOR UPDATE SKIP LOCKED
+    """, nativeQuery = true)
+    List<Number> lockLeasable(@Param("id") Long id,
+                              @Param("now") OffsetDateTime now,
+                              @Param("node") String node);
+
+    @Modifying
+    @Query(value = "UPDATE subject_lease SET owner = :node, lease_until = :until WHERE subject_id IN (:ids)",
+            nativeQuery = true)
+    int claim(@Param("ids") Collection<Long> ids,
+              @Param("node") String node,
+              @Param("until") OffsetDateTime until);
+
+    @Modifying
+    @Query(value = """
+    UPDATE subject_lease SET lease_until = :now, next_due_at = :nextDue
+    WHERE subject_id = :subjectId AND owner = :node
+    """, nativeQuery = true)
+    int release(@Param("subjectId") Long subjectId,
+                @Param("node") String node,
+                @Param("now") OffsetDateTime now,
+                @Param("nextDue") OffsetDateTime nextDue);
+}
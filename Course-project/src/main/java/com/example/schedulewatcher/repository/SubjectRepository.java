@@ -2,9 +2,18 @@ package com.example.schedulewatcher.repository;
 
 import com.example.schedulewatcher.model.Subject;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Optional;
 
 public interface SubjectRepository extends JpaRepository<Subject, Long> {
     Optional<Subject> findByRuzKey(String ruzKey);
+
+    @Transactional
+    @Modifying
+    @Query("update Subject s set s.ruzId = :ruzId where s.id = :id")
+    int updateRuzId(@Param("id") Long id, @Param("ruzId") String ruzId);
 }
@@ -18,10 +18,42 @@ public interface SubscriptionRepository extends JpaRepository<Subscription, Long
 
     boolean existsByUser_IdAndSubject_Id(Long userId, Long subjectId);
 
-    @Query("select s from Subscription s join fetch s.user where s.subject.id = :subjectId")
-    List<Subscription> findAllBySubjectIdFetchUser(@Param("subjectId") Long subjectId);
+    boolean existsBySubject_IdAndImportantTrue(Long subjectId);
+
+    /** Everything notifying a subject's subscribers needs, in one query and without entities. */
+    @Query("select new com.example.schedulewatcher.repository.SubscriptionRepository$Recipient("
+            + "s.id, u.email, sub.name, s.important, s.filters, s.channels, u.digestMinutes, u.locale) "
+            + "from Subscription s join s.user u join s.subject sub where sub.id = :subjectId order by s.id")
+    List<Recipient> findRecipientsBySubjectId(@Param("subjectId") Long subjectId);
 
     @Query("select s from Subscription s join fetch s.user")
     List<Subscription> findAllWithUser();
 
+    @Query("select s.subject.id as subjectId, "
+            + "sum(case when s.important = true then 1 else 0 end) as importantCount "
+            + "from Subscription s group by s.subject.id")
+    List<WatchedSubject> findWatchedSubjects();
+
+    interface WatchedSubject {
+        Long getSubjectId();
+        Long getImportantCount();
+    }
+
+    /** A subscriber of a subject as the notification path sees it. */
+    record Recipient(Long subscriptionId, String email, String subjectName, boolean important, String filters,
+                     String channels, Integer digestMinutes, String locale) {
+
+        /** The recipient of a subscription whose user and subject are loaded. */
+        public static Recipient of(Subscription s) {
+            return new Recipient(s.getId(), s.getUser().getEmail(), s.getSubject().getName(), s.isImportant(),
+                    s.getFilters(), s.getChannels(), s.getUser().getDigestMinutes(),
+                    s.getUser().getLocale());
+        }
+
+        /** Channels is a JSON array like ["web","email"]; subscriptions without one get mail. */
+        public boolean wantsEmail() {
+            return channels == null || channels.contains("\"email\"");
+        }
+    }
+
 }
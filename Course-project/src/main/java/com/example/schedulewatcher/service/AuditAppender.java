@@ -0,0 +1,142 @@
+package com.example.schedulewatcher.service;
+
+import com.example.schedulewatcher.util.Json;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes audit_log rows off the caller's path. Entries go into a bounded buffer that a
+ * background flush (every audit.flush-interval) writes with JDBC batch inserts, up to
+ * audit.batch-size rows per round trip, instead of one IDENTITY insert and flush per row
+ * through JPA. When the buffer is full the caller writes a batch itself, which slows
+ * callers down before anything is dropped.
+ *
+ * Best effort all the same: a write that fails puts its entries back into the buffer, and
+ * those that no longer fit are dropped and counted (audit.dropped). Failures never reach
+ * the caller. Whatever is buffered is lost if the process dies between two flushes.
+ */
+@Component
+public class AuditAppender {
+
+    private static final Logger log = LoggerFactory.getLogger(AuditAppender.class);
+    private static final String INSERT =
+            "INSERT INTO audit_log (actor, action, target_id, meta, created_at) VALUES (?, ?, ?, CAST(? AS jsonb), ?)";
+
+    /** An audit_log row waiting to be written. */
+    record Entry(String actor, String action, Long targetId, String meta, OffsetDateTime createdAt) {}
+
+    private final JdbcTemplate jdbc;
+    private final BlockingQueue<Entry> buffer;
+    private final int batchSize;
+    private final Counter overflows;
+    private final Counter dropped;
+
+    public AuditAppender(JdbcTemplate jdbc,
+                         @Value("${audit.buffer-size:10000}") int bufferSize,
+                         @Value("${audit.batch-size:500}") int batchSize,
+                         MeterRegistry metrics) {
+        this.jdbc = jdbc;
+        this.buffer = new ArrayBlockingQueue<>(Math.max(1, bufferSize));
+        this.batchSize = Math.max(1, batchSize);
+        Gauge.builder("audit.buffer", buffer, BlockingQueue::size)
+                .description("Audit entries waiting to be written")
+                .register(metrics);
+        this.overflows = Counter.builder("audit.overflow")
+                .description("Appends that found the buffer full and wrote synchronously")
+                .register(metrics);
+        this.dropped = Counter.builder("audit.dropped")
+                .description("Entries lost because writing them failed and the buffer was full")
+                .register(metrics);
+    }
+
+    /** Queues an audit_log row; meta is written as a JSON object. */
+    public void append(String actor, String action, Long targetId, Map<String, ?> meta) {
+        Entry e = new Entry(actor, action, targetId, json(meta), OffsetDateTime.now());
+        if (buffer.offer(e)) return;
+        overflows.increment();
+        // full: write a batch here, which also makes room, and this entry with it
+        List<Entry> batch = new ArrayList<>(batchSize);
+        buffer.drainTo(batch, batchSize - 1);
+        batch.add(e);
+        try {
+            write(batch);
+        } catch (RuntimeException ex) {
+            requeue(batch, ex);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${audit.flush-interval:1000}")
+    public void flush() {
+        int n;
+        do {
+            n = flushBatch();
+        } while (n == batchSize);
+    }
+
+    /** Writes up to batch-size buffered entries; @return number of entries written */
+    public int flushBatch() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        buffer.drainTo(batch, batchSize);
+        if (batch.isEmpty()) return 0;
+        try {
+            write(batch);
+        } catch (RuntimeException ex) {
+            requeue(batch, ex);
+            return 0;
+        }
+        return batch.size();
+    }
+
+    /** The database is away: keeps what fits for the next flush, drops and counts the rest. */
+    private void requeue(List<Entry> batch, RuntimeException ex) {
+        int kept = 0;
+        for (Entry e : batch) if (buffer.offer(e)) kept++;
+        dropped.increment(batch.size() - kept);
+        log.warn("Writing {} audit entries failed ({} kept for retry, {} dropped): {}",
+                batch.size(), kept, batch.size() - kept, ex.toString());
+    }
+
+    @PreDestroy
+    void flushOnShutdown() {
+        flush();
+    }
+
+    int buffered() {
+        return buffer.size();
+    }
+
+    private void write(List<Entry> batch) {
+        jdbc.batchUpdate(INSERT, batch, batch.size(), (ps, e) -> {
+            ps.setString(1, e.actor());
+            ps.setString(2, e.action());
+            ps.setObject(3, e.targetId());
+            ps.setString(4, e.meta());
+            ps.setObject(5, e.createdAt());
+        });
+    }
+
+    private static String json(Map<String, ?> meta) {
+        if (meta == null || meta.isEmpty()) return "{}";
+        try {
+            return Json.MAPPER.writeValueAsString(meta);
+        } catch (JsonProcessingException e) {
+            return "{}";
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.schedulewatcher.service;
+
+import com.example.schedulewatcher.model.Event;
+import com.example.schedulewatcher.util.LessonDiff;
+import com.example.schedulewatcher.util.LessonDiff.Lesson;
+import com.example.schedulewatcher.util.ScheduleDiff;
+import org.springframework.context.MessageSource;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Human-readable text of a diff, with labels from messages*.properties. Events get theirs
+ * for every supported locale when they are created (and by EventDiffTextBackfill for older
+ * rows), so showing them needs no JSON processing.
+ */
+@Component
+public class DiffTextRenderer {
+
+    /** The locales the site has messages for; events store one text each. */
+    public static final List<Locale> SUPPORTED = List.of(Locale.ENGLISH, Locale.CHINESE);
+
+    private final MessageSource messages;
+
+    public DiffTextRenderer(MessageSource messages) {
+        this.messages = messages;
+    }
+
+    /** Sets the event's stored texts from its diff. */
+    public void render(Event evt) {
+        ScheduleDiff diff = evt.getScheduleDiff();
+        evt.setDiffTextEn(plain(diff, Locale.ENGLISH));
+        evt.setDiffTextZh(plain(diff, Locale.CHINESE));
+    }
+
+    /** "Type: changed" followed by the lesson and field changes; the JSON itself when there is nothing else to show. */
+    public String plain(ScheduleDiff diff, Locale locale) {
+        String json = diff.toJson();
+        if (json.isBlank()) return "";
+        if (diff.type() == null && !diff.isLessonLevel() && diff.changes().isEmpty()) return json;
+        StringBuilder sb = new StringBuilder();
+        if (diff.type() != null && !diff.type().isEmpty()) {
+            sb.append(label("diff.type", "Type", locale)).append(": ")
+                    .append(label("diff.type." + diff.type(), diff.type(), locale)).append("\n");
+        }
+        sb.append(lessons(diff, locale));
+        sb.append(changes(diff, locale));
+        String out = sb.toString().trim();
+        return out.isEmpty() ? json : out;
+    }
+
+    /** One line per added (+), removed (-) and modified (~) lesson of a lesson-level diff. */
+    public String lessons(ScheduleDiff diff, Locale locale) {
+        StringBuilder sb = new StringBuilder();
+        for (Lesson l : diff.added()) sb.append("+ ").append(describe(l)).append("\n");
+        for (Lesson l : diff.removed()) sb.append("- ").append(describe(l)).append("\n");
+        for (LessonDiff.Modified m : diff.modified()) {
+            sb.append("~ ").append(describe(m.after())).append(":");
+            String sep = " ";
+            for (Map.Entry<String, LessonDiff.Change> e : m.changes().entrySet()) {
+                sb.append(sep).append(field(e.getKey(), locale)).append(" ")
+                        .append(orEmpty(e.getValue().from())).append(" -> ").append(orEmpty(e.getValue().to()));
+                sep = "; ";
+            }
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+    /** One "field: from -> to" line per field change of a manual edit. */
+    public String changes(ScheduleDiff diff, Locale locale) {
+        StringBuilder sb = new StringBuilder();
+        diff.changes().forEach((k, c) -> {
+            String from = orEmpty(c.from());
+            String to = orEmpty(c.to());
+            if (!from.isEmpty() || !to.isEmpty()) {
+                sb.append(field(k, locale)).append(": ").append(from).append(" -> ").append(to).append("\n");
+            }
+        });
+        return sb.toString();
+    }
+
+    private static String describe(Lesson l) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(orEmpty(l.date())).append(' ').append(orEmpty(l.start()));
+        if (l.end() != null) sb.append('-').append(l.end());
+        sb.append(' ').append(orEmpty(l.subject()));
+        if (l.kind() != null) sb.append(", ").append(l.kind());
+        if (l.room() != null) sb.append(", ").append(l.room());
+        if (l.teacher() != null) sb.append(", ").append(l.teacher());
+        return sb.toString().trim();
+    }
+
+    private String field(String name, Locale locale) {
+        return label("diff.field." + name, name, locale);
+    }
+
+    private String label(String key, String fallback, Locale locale) {
+        return messages.getMessage(key, null, fallback, locale);
+    }
+
+    private static String orEmpty(String s) {
+        return s != null ? s : "";
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.schedulewatcher.service;
+
+import com.example.schedulewatcher.model.Event;
+import com.example.schedulewatcher.repository.EventRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Renders the diff texts of events stored before they were rendered at creation, a batch
+ * per transaction. Once nothing is left each run is one indexed query.
+ */
+@Component
+public class EventDiffTextBackfill {
+
+    private static final Logger log = LoggerFactory.getLogger(EventDiffTextBackfill.class);
+
+    private final EventRepository events;
+    private final DiffTextRenderer texts;
+    private final TransactionTemplate tx;
+    private final int batchSize;
+
+    public EventDiffTextBackfill(EventRepository events,
+                                 DiffTextRenderer texts,
+                                 PlatformTransactionManager txManager,
+                                 @Value("${events.diff-text.backfill.batch-size:500}") int batchSize) {
+        this.events = events;
+        this.texts = texts;
+        this.tx = new TransactionTemplate(txManager);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Scheduled(fixedDelayString = "${events.diff-text.backfill.delay:60000}")
+    public void backfill() {
+        int rendered = 0, n;
+        do {
+            n = backfillBatch();
+            rendered += n;
+        } while (n == batchSize);
+        if (rendered > 0) log.info("Rendered diff texts of {} events", rendered);
+    }
+
+    /** @return number of events rendered */
+    public int backfillBatch() {
+        Integer n = tx.execute(status -> {
+            List<Event> batch = events.findWithoutDiffText(PageRequest.of(0, batchSize));
+            for (Event e : batch) {
+                texts.render(e);
+                events.setDiffText(e.getId(), e.getDiffTextEn(), e.getDiffTextZh());
+            }
+            return batch.size();
+        });
+        return n == null ? 0 : n;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.schedulewatcher.service;
+
+/**
+ * Result of one schedule download from RUZ. A NOT_MODIFIED outcome carries no body:
+ * RUZ answered 304 to the validators we sent, so there is nothing to hash or diff.
+ *
+ * Failures carry no body either, only a short reason. They are never hashed, diffed or
+ * stored: the subject keeps its last good snapshot and is simply polled again.
+ * TRANSIENT_FAILURE is worth retrying soon (RUZ down, timeout, 5xx, circuit open, rate
+ * limited); PERMANENT_FAILURE will not fix itself by retrying (4xx, e.g. an unknown id).
+ */
+public final class FetchOutcome {
+
+    public enum Status { MODIFIED, NOT_MODIFIED, TRANSIENT_FAILURE, PERMANENT_FAILURE }
+
+    private final Status status;
+    private final String body;
+    private final String etag;
+    private final String lastModified;
+    private final String failure;
+
+    private FetchOutcome(Status status, String body, String etag, String lastModified, String failure) {
+        this.status = status;
+        this.body = body;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.failure = failure;
+    }
+
+    public static FetchOutcome modified(String body, String etag, String lastModified) {
+        return new FetchOutcome(Status.MODIFIED, body, etag, lastModified, null);
+    }
+
+    public static FetchOutcome notModified() {
+        return new FetchOutcome(Status.NOT_MODIFIED, null, null, null, null);
+    }
+
+    public static FetchOutcome transientFailure(String reason) {
+        return new FetchOutcome(Status.TRANSIENT_FAILURE, null, null, null, reason);
+    }
+
+    public static FetchOutcome permanentFailure(String reason) {
+        return new FetchOutcome(Status.PERMANENT_FAILURE, null, null, null, reason);
+    }
+
+    public Status getStatus() { return status; }
+    public boolean isNotModified() { return status == Status.NOT_MODIFIED; }
+    public boolean isFailure() { return status == Status.TRANSIENT_FAILURE || status == Status.PERMANENT_FAILURE; }
+    public String getBody() { return body; }
+    public String getEtag() { return etag; }
+    public String getLastModified() { return lastModified; }
+    /** Why the fetch failed, e.g. "http_404", "timeout", "circuit_open"; null unless isFailure(). */
+    public String getFailure() { return failure; }
+}
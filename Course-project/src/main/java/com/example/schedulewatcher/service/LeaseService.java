@@ -0,0 +1,135 @@
+package com.example.schedulewatcher.service;
+
+import com.example.schedulewatcher.model.SubjectLease;
+import com.example.schedulewatcher.repository.SubjectLeaseRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * Splits polling between several app instances sharing one database.
+ *
+ * Every watched subject has a subject_lease row holding its cluster-wide next due time.
+ * Before fetching, a node claims at most fetcher.leasing.batch-size due subjects with
+ * SELECT ... FOR UPDATE SKIP LOCKED, so two nodes never claim the same row and
+ * concurrent nodes end up with disjoint batches; after the fetch it releases the lease
+ * and moves next_due_at forward. A node that dies mid-cycle leaves leases that expire
+ * after fetcher.leasing.duration and are then claimed by someone else.
+ *
+ * Disabled by default (single instance): claim() then hands back every candidate and
+ * nothing is written. Instances sharing a database without it each poll every subject
+ * and each mail every change; docker-compose.yml turns it on.
+ */
+@Service
+public class LeaseService {
+
+    private final SubjectLeaseRepository leases;
+    private final TransactionTemplate tx;
+    private final boolean enabled;
+    private final String nodeId;
+    private final long leaseMs;
+    private final int batchSize;
+
+    public LeaseService(SubjectLeaseRepository leases,
+                        PlatformTransactionManager txManager,
+                        @Value("${fetcher.leasing.enabled:false}") boolean enabled,
+                        @Value("${fetcher.leasing.node-id:}") String nodeId,
+                        @Value("${fetcher.leasing.duration:300000}") long leaseMs,
+                        @Value("${fetcher.leasing.batch-size:200}") int batchSize) {
+        this.leases = leases;
+        this.tx = new TransactionTemplate(txManager);
+        this.tx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.enabled = enabled;
+        this.nodeId = nodeId == null || nodeId.isBlank() ? ManagementFactory.getRuntimeMXBean().getName() : nodeId;
+        this.leaseMs = leaseMs;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    public String getNodeId() { return nodeId; }
+
+    /**
+     * Tries to claim the candidates for this node.
+     * Subjects that could not be claimed come back with the earliest time worth retrying.
+     */
+    public Claim claim(List<Long> candidates, long nowMs) {
+        if (!enabled || candidates.isEmpty()) return new Claim(candidates, Map.of());
+
+        OffsetDateTime now = at(nowMs);
+        return tx.execute(status -> {
+            leases.insertMissing(candidates, now);
+
+            List<Long> acquired = new ArrayList<>();
+            for (Number n : leases.lockClaimable(candidates, now, nodeId, batchSize)) acquired.add(n.longValue());
+            if (!acquired.isEmpty()) leases.claim(acquired, nodeId, at(nowMs + leaseMs));
+
+            Set<Long> rest = new HashSet<>(candidates);
+            acquired.forEach(rest::remove);
+            Map<Long, Long> notBefore = new HashMap<>();
+            for (SubjectLease l : leases.findAllById(rest)) {
+                long due = l.getNextDueAt().toInstant().toEpochMilli();
+                long free = l.getLeaseUntil().toInstant().toEpochMilli();
+                notBefore.put(l.getSubjectId(), Math.max(Math.max(due, free), nowMs + 1000));
+            }
+            return new Claim(acquired, notBefore);
+        });
+    }
+
+    /**
+     * Claims one subject now, even if it is not due yet, e.g. for an admin refresh.
+     * Returns false only when another node holds a live lease on it.
+     */
+    public boolean claimNow(Long subjectId, long nowMs) {
+        if (!enabled) return true;
+
+        OffsetDateTime now = at(nowMs);
+        return Boolean.TRUE.equals(tx.execute(status -> {
+            leases.insertIfAbsent(subjectId, now);
+            if (leases.lockLeasable(subjectId, now, nodeId).isEmpty()) return false;
+            leases.claim(List.of(subjectId), nodeId, at(nowMs + leaseMs));
+            return true;
+        }));
+    }
+
+    /**
+     * Gives up the lease on a fetched subject and publishes its next due time to the other nodes.
+     * Inside a transaction this waits until it has completed, so nobody can pick the subject up
+     * before its snapshot is visible.
+     */
+    public void release(Long subjectId, long nextDueMs) {
+        if (!enabled) return;
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    doRelease(subjectId, nextDueMs);
+                }
+            });
+        } else {
+            doRelease(subjectId, nextDueMs);
+        }
+    }
+
+    private void doRelease(Long subjectId, long nextDueMs) {
+        // whole milliseconds, like the claims: a finer lease_until would still count as held
+        // for a claim made within the same millisecond
+        OffsetDateTime now = at(System.currentTimeMillis());
+        tx.executeWithoutResult(status -> leases.release(subjectId, nodeId, now, at(nextDueMs)));
+    }
+
+    private static OffsetDateTime at(long epochMs) {
+        return OffsetDateTime.ofInstant(Instant.ofEpochMilli(epochMs), ZoneOffset.UTC);
+    }
+
+    /** acquired: subjects this node may fetch now; notBefore: when to look at the others again (epoch ms). */
+    public record Claim(List<Long> acquired, Map<Long, Long> notBefore) {}
+}
@@ -0,0 +1,145 @@
+package com.example.schedulewatcher.service;
+
+import com.example.schedulewatcher.util.ScheduleDiff;
+import org.springframework.context.MessageSource;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Subjects and bodies of change mails, from the mail.* templates in messages*.properties.
+ * Templates are read and compiled once per locale; a change is rendered once per locale and
+ * important flag among its recipients, who then share the same strings.
+ */
+@Component
+public class MailComposer {
+
+    private final MessageSource messages;
+    private final DiffTextRenderer texts;
+    private final Map<Locale, Templates> templates = new ConcurrentHashMap<>();
+
+    public MailComposer(MessageSource messages, DiffTextRenderer texts) {
+        this.messages = messages;
+        this.texts = texts;
+    }
+
+    /** The supported locale of a stored language tag; English when there is none or it is unknown. */
+    public static Locale localeOf(String tag) {
+        if (tag == null || tag.isBlank()) return Locale.ENGLISH;
+        String language = Locale.forLanguageTag(tag).getLanguage();
+        for (Locale l : DiffTextRenderer.SUPPORTED) {
+            if (l.getLanguage().equals(language)) return l;
+        }
+        return Locale.ENGLISH;
+    }
+
+    /** Renders the mails of one change lazily, each variant the first time a recipient needs it. */
+    public Composition compose(ScheduleDiff diff) {
+        return new Composition(diff);
+    }
+
+    /** Subject of a digest mail merging the given number of changes. */
+    public String digestSubject(Locale locale, int changes) {
+        return templates(locale).digestSubject.apply(String.valueOf(changes));
+    }
+
+    private Templates templates(Locale locale) {
+        return templates.computeIfAbsent(locale, l -> new Templates(
+                template("mail.subject", "[Schedule Change] {0}", l),
+                template("mail.subject.important", "[Important] [Schedule Change] {0}", l),
+                template("mail.body", "Schedule changed for {0}\n{1}", l),
+                template("mail.digest.subject", "[Schedule Change] {0} changes", l)));
+    }
+
+    private Template template(String key, String fallback, Locale locale) {
+        return Template.compile(messages.getMessage(key, null, fallback, locale));
+    }
+
+    public record Mail(String subject, String body) {
+    }
+
+    private record Templates(Template subject, Template importantSubject, Template body, Template digestSubject) {
+    }
+
+    private record Variant(Locale locale, boolean important, String subjectName) {
+    }
+
+    /** The mails of one change; not thread-safe, it lives for one enqueue call. */
+    public final class Composition {
+
+        private final ScheduleDiff diff;
+        private final Map<Locale, String> changes = new HashMap<>(4);
+        private final Map<Variant, String> bodies = new HashMap<>(4);
+        private final Map<Variant, Mail> mails = new HashMap<>(8);
+
+        private Composition(ScheduleDiff diff) {
+            this.diff = diff;
+        }
+
+        public Mail mail(Locale locale, boolean important, String subjectName) {
+            return mails.computeIfAbsent(new Variant(locale, important, subjectName), v -> {
+                Templates t = templates(locale);
+                // only the subject tells important mails apart, the body is the same
+                String body = bodies.computeIfAbsent(new Variant(locale, false, subjectName),
+                        b -> t.body.apply(subjectName, changes.computeIfAbsent(locale, this::text)));
+                return new Mail((important ? t.importantSubject : t.subject).apply(subjectName), body);
+            });
+        }
+
+        /** Lines of changed lessons, or of changed fields, or the JSON when there are neither. */
+        private String text(Locale locale) {
+            String lessons = texts.lessons(diff, locale);
+            if (!lessons.isEmpty()) return lessons;
+            String s = texts.changes(diff, locale).trim();
+            return s.isEmpty() ? diff.toJson() : s;
+        }
+    }
+
+    /**
+     * A message pattern split at its {n} placeholders once, so that filling it in is a
+     * concatenation. Only plain placeholders are understood, no MessageFormat types or quoting.
+     */
+    static final class Template {
+
+        private final String[] literals;
+        private final int[] args;
+
+        private Template(String[] literals, int[] args) {
+            this.literals = literals;
+            this.args = args;
+        }
+
+        static Template compile(String pattern) {
+            List<String> literals = new ArrayList<>();
+            List<Integer> args = new ArrayList<>();
+            int from = 0;
+            for (int open = pattern.indexOf('{'); open >= 0; open = pattern.indexOf('{', open + 1)) {
+                int close = pattern.indexOf('}', open);
+                if (close < 0) break;
+                String n = pattern.substring(open + 1, close);
+                if (n.isEmpty() || !n.chars().allMatch(Character::isDigit)) continue;
+                literals.add(pattern.substring(from, open));
+                args.add(Integer.parseInt(n));
+                from = close + 1;
+                open = close;
+            }
+            literals.add(pattern.substring(from));
+            return new Template(literals.toArray(String[]::new), args.stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        String apply(String... values) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < args.length; i++) {
+                sb.append(literals[i]);
+                int a = args[i];
+                sb.append(a < values.length ? values[a] : "{" + a + "}");
+            }
+            return sb.append(literals[args.length]).toString();
+        }
+    }
+}
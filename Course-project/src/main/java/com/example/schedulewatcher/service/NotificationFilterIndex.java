@@ -0,0 +1,168 @@
+package com.example.schedulewatcher.service;
+
+import com.example.schedulewatcher.repository.SubscriptionRepository.Recipient;
+import com.example.schedulewatcher.util.Json;
+import com.example.schedulewatcher.util.LessonDiff.Lesson;
+import com.example.schedulewatcher.util.ScheduleDiff;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides which subscribers of a subject a lesson-level change concerns, using each
+ * subscription's filters (room, date, from, to, teacher).
+ *
+ * Filters are compiled once per subscription (and again only when they are edited). For a
+ * change, the subject's subscriptions are indexed by filter date, so every changed lesson
+ * is only tested against the subscriptions for its day plus those without a date.
+ * A subscription matches when one lesson the change touches, before or after the change,
+ * passes all of its filters. Anything that cannot be evaluated (a diff without lessons,
+ * a manual edit, an unreadable filter or lesson time) matches, so mail is never lost.
+ */
+@Component
+public class NotificationFilterIndex {
+
+    private static final int MAX_COMPILED = 100_000;
+    private static final List<DateTimeFormatter> DATES = List.of(
+            DateTimeFormatter.ISO_LOCAL_DATE,
+            DateTimeFormatter.ofPattern("yyyy.MM.dd"),
+            DateTimeFormatter.ofPattern("dd.MM.yyyy"));
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("H:mm");
+
+    private final Map<Long, Compiled> compiled = new ConcurrentHashMap<>();
+
+    private record Compiled(String source, Filter filter) {}
+
+    /** A subscription's filters; null fields do not restrict. */
+    record Filter(LocalDate date, LocalTime from, LocalTime to, String room, String teacher) {
+
+        static final Filter NONE = new Filter(null, null, null, null, null);
+
+        boolean isEmpty() {
+            return date == null && from == null && to == null && room == null && teacher == null;
+        }
+
+        boolean test(Lesson l, LocalDate lessonDate) {
+            if (date != null && lessonDate != null && !date.equals(lessonDate)) return false;
+            if (room != null && l.room() != null && !inRoom(l.room())) return false;
+            if (teacher != null && l.teacher() != null && !l.teacher().toLowerCase(Locale.ROOT).contains(teacher)) return false;
+            if (from == null && to == null) return true;
+            LocalTime start = time(l.start());
+            LocalTime end = l.end() != null ? time(l.end()) : start;
+            if (start == null || end == null) return true;
+            return (to == null || !start.isAfter(to)) && (from == null || !end.isBefore(from));
+        }
+
+        /** RUZ rooms look like "Main, 101" and several are joined with "; ". */
+        private boolean inRoom(String rooms) {
+            for (String r : rooms.split("; ")) {
+                String name = r.substring(r.lastIndexOf(", ") + 1).trim();
+                if (name.equalsIgnoreCase(room) || r.trim().equalsIgnoreCase(room)) return true;
+            }
+            return false;
+        }
+    }
+
+    /** The subscribers, in their order, that the change concerns. */
+    public List<Recipient> matching(List<Recipient> subs, ScheduleDiff diff) {
+        if (subs.isEmpty()) return subs;
+        List<Lesson> touched = diff.touchedLessons();
+        if (touched == null) return subs;
+
+        // index: unfiltered subscriptions match anything, the rest by the date they watch
+        boolean[] matched = new boolean[subs.size()];
+        Map<LocalDate, List<Integer>> byDate = new HashMap<>();
+        List<Integer> anyDate = new ArrayList<>();
+        Filter[] filters = new Filter[subs.size()];
+        for (int i = 0; i < subs.size(); i++) {
+            Filter f = filterOf(subs.get(i));
+            filters[i] = f;
+            if (f.isEmpty()) matched[i] = true;
+            else if (f.date != null) byDate.computeIfAbsent(f.date, d -> new ArrayList<>()).add(i);
+            else anyDate.add(i);
+        }
+
+        for (Lesson l : touched) {
+            LocalDate day = date(l.date());
+            if (day != null) {
+                test(byDate.getOrDefault(day, List.of()), filters, matched, l, day);
+            } else {
+                byDate.values().forEach(candidates -> test(candidates, filters, matched, l, null));
+            }
+            test(anyDate, filters, matched, l, day);
+        }
+
+        List<Recipient> out = new ArrayList<>();
+        for (int i = 0; i < subs.size(); i++) if (matched[i]) out.add(subs.get(i));
+        return out;
+    }
+
+    private static void test(List<Integer> candidates, Filter[] filters, boolean[] matched, Lesson l, LocalDate day) {
+        for (int i : candidates) {
+            if (!matched[i] && filters[i].test(l, day)) matched[i] = true;
+        }
+    }
+
+    Filter filterOf(Recipient r) {
+        String source = r.filters();
+        if (r.subscriptionId() == null) return compile(source);
+        Compiled c = compiled.get(r.subscriptionId());
+        if (c != null && c.source.equals(source == null ? "" : source)) return c.filter;
+        if (compiled.size() >= MAX_COMPILED) compiled.clear();
+        Filter f = compile(source);
+        compiled.put(r.subscriptionId(), new Compiled(source == null ? "" : source, f));
+        return f;
+    }
+
+    static Filter compile(String filtersJson) {
+        if (filtersJson == null || filtersJson.isBlank()) return Filter.NONE;
+        try {
+            JsonNode n = Json.MAPPER.readTree(filtersJson);
+            String teacher = text(n, "teacher");
+            // a numeric teacher is a RUZ id; lessons only carry names, so it cannot narrow anything
+            if (teacher != null && teacher.matches("[Tt]?-?\\d+")) teacher = null;
+            return new Filter(date(text(n, "date")), time(text(n, "from")), time(text(n, "to")),
+                    text(n, "room"), teacher != null ? teacher.toLowerCase(Locale.ROOT) : null);
+        } catch (Exception e) {
+            return Filter.NONE;
+        }
+    }
+
+    private static String text(JsonNode n, String field) {
+        JsonNode v = n.get(field);
+        if (v == null || v.isNull() || v.isContainerNode()) return null;
+        String s = v.asText().trim();
+        return s.isEmpty() ? null : s;
+    }
+
+    private static LocalDate date(String s) {
+        if (s == null) return null;
+        for (DateTimeFormatter f : DATES) {
+            try {
+                return LocalDate.parse(s, f);
+            } catch (DateTimeParseException ignore) {
+                // next pattern
+            }
+        }
+        return null;
+    }
+
+    private static LocalTime time(String s) {
+        if (s == null) return null;
+        try {
+            return LocalTime.parse(s.length() > 5 ? s.substring(0, 5) : s, TIME);
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+}
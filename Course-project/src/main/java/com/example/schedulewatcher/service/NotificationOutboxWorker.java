@@ -0,0 +1,199 @@
+package com.example.schedulewatcher.service;
+
+import com.example.schedulewatcher.model.NotificationOutbox;
+import com.example.schedulewatcher.repository.NotificationOutboxRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sends the mails queued in notification_outbox, off the fetch path.
+ *
+ * Every tick it claims up to notifications.outbox.batch-size due rows with
+ * SELECT ... FOR UPDATE SKIP LOCKED and a lease, like LeaseService does for subjects, so
+ * several instances never send the same row, and hands them to the notification pool in
+ * chunks of send-batch, each sent over a single SMTP connection: with hundreds of
+ * subscribers to a group, connection setup, not the mails, used to be most of the work.
+ * Digest rows claimed together for the same recipient go out as one mail.
+ * A failed send is retried after a jittered exponential backoff; after max-attempts the
+ * row is marked DEAD and left for inspection. Rows are only marked SENT after the mail
+ * server took them, and a node that dies mid-send leaves leases that run out, so nothing
+ * is lost across restarts (a mail may rarely go out twice).
+ */
+@Component
+public class NotificationOutboxWorker {
+
+    private static final Logger log = LoggerFactory.getLogger(NotificationOutboxWorker.class);
+
+    private final NotificationOutboxRepository outbox;
+    private final NotificationService notifier;
+    private final ExecutorService workers;
+    private final TransactionTemplate tx;
+    private final String nodeId;
+    private final int batchSize;
+    private final int sendBatch;
+    private final int maxAttempts;
+    private final long backoffMs;
+    private final long maxBackoffMs;
+    private final long leaseMs;
+    private final Counter sent;
+    private final Counter retried;
+    private final Counter dead;
+
+    public NotificationOutboxWorker(NotificationOutboxRepository outbox,
+                                    NotificationService notifier,
+                                    @Qualifier("notificationExecutor") ExecutorService workers,
+                                    PlatformTransactionManager txManager,
+                                    @Value("${fetcher.leasing.node-id:}") String nodeId,
+                                    @Value("${notifications.outbox.batch-size:100}") int batchSize,
+                                    @Value("${notifications.outbox.send-batch:25}") int sendBatch,
+                                    @Value("${notifications.outbox.max-attempts:8}") int maxAttempts,
+                                    @Value("${notifications.outbox.backoff:30000}") long backoffMs,
+                                    @Value("${notifications.outbox.max-backoff:3600000}") long maxBackoffMs,
+                                    @Value("${notifications.outbox.lease:300000}") long leaseMs,
+                                    MeterRegistry metrics) {
+        this.outbox = outbox;
+        this.notifier = notifier;
+        this.workers = workers;
+        this.tx = new TransactionTemplate(txManager);
+        this.tx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.nodeId = nodeId == null || nodeId.isBlank() ? ManagementFactory.getRuntimeMXBean().getName() : nodeId;
+        this.batchSize = Math.max(1, batchSize);
+        this.sendBatch = Math.max(1, sendBatch);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMs = Math.max(1, backoffMs);
+        this.maxBackoffMs = Math.max(this.backoffMs, maxBackoffMs);
+        this.leaseMs = leaseMs;
+        this.sent = counter(metrics, "sent");
+        this.retried = counter(metrics, "retried");
+        this.dead = counter(metrics, "dead");
+    }
+
+    private static Counter counter(MeterRegistry metrics, String result) {
+        return Counter.builder("notifications.outbox")
+                .description("Outbox delivery attempts by result")
+                .tag("result", result)
+                .register(metrics);
+    }
+
+    @Scheduled(fixedDelayString = "${notifications.outbox.tick:2000}")
+    public void drain() {
+        int n;
+        do {
+            n = drainBatch();
+        } while (n == batchSize);
+    }
+
+    /** Claims and sends one batch of due mails; @return number of mails attempted */
+    public int drainBatch() {
+        List<NotificationOutbox> batch = claim(System.currentTimeMillis());
+
+        // the mails to send, each with the rows it reports: one row, or all digest rows of a recipient
+        Map<NotificationOutbox, List<NotificationOutbox>> rowsOf = new LinkedHashMap<>();
+        Map<String, List<NotificationOutbox>> digests = new LinkedHashMap<>();
+        for (NotificationOutbox n : batch) {
+            if (n.isDigest()) digests.computeIfAbsent(n.getRecipient(), k -> new ArrayList<>()).add(n);
+            else rowsOf.put(n, List.of(n));
+        }
+        for (List<NotificationOutbox> rows : digests.values()) {
+            rowsOf.put(rows.size() == 1 ? rows.get(0) : notifier.digest(rows), rows);
+        }
+
+        List<NotificationOutbox> mails = new ArrayList<>(rowsOf.keySet());
+        List<Future<?>> sends = new ArrayList<>();
+        for (int i = 0; i < mails.size(); i += sendBatch) {
+            List<NotificationOutbox> chunk = mails.subList(i, Math.min(i + sendBatch, mails.size()));
+            sends.add(workers.submit(() -> attempt(chunk, rowsOf)));
+        }
+        for (Future<?> f : sends) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                // the row keeps its lease and is picked up again once it runs out
+                log.warn("Outbox delivery failed unexpectedly: {}", e.getCause().toString());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 0;
+            }
+        }
+        return batch.size();
+    }
+
+    private List<NotificationOutbox> claim(long nowMs) {
+        return tx.execute(status -> {
+            List<Long> ids = new ArrayList<>();
+            for (Number n : outbox.lockDue(at(nowMs), batchSize)) ids.add(n.longValue());
+            if (ids.isEmpty()) return List.of();
+            outbox.claim(ids, nodeId, at(nowMs + leaseMs));
+            return outbox.findAllById(ids);
+        });
+    }
+
+    private void attempt(List<NotificationOutbox> chunk, Map<NotificationOutbox, List<NotificationOutbox>> rowsOf) {
+        Map<NotificationOutbox, Exception> failed = notifier.deliver(chunk);
+        List<NotificationOutbox> delivered = new ArrayList<>(chunk.size());
+        for (NotificationOutbox mail : chunk) if (!failed.containsKey(mail)) delivered.add(mail);
+        if (!delivered.isEmpty()) {
+            OffsetDateTime now = OffsetDateTime.now();
+            tx.executeWithoutResult(status -> {
+                for (NotificationOutbox mail : delivered) {
+                    for (NotificationOutbox n : rowsOf.get(mail)) outbox.markSent(n.getId(), nodeId, now);
+                }
+            });
+            sent.increment(delivered.size());
+            // only once committed: an audit write that fails must not roll back markSent and resend
+            for (NotificationOutbox mail : delivered) notifier.recordSent(mail, rowsOf.get(mail).size());
+        }
+        failed.forEach((mail, e) -> failed(rowsOf.get(mail), e));
+    }
+
+    /** Retries all rows of a mail at the same time, so a digest stays one mail. */
+    private void failed(List<NotificationOutbox> rows, Exception e) {
+        int attempts = 1;
+        for (NotificationOutbox n : rows) attempts = Math.max(attempts, n.getAttempts() + 1);
+        boolean last = attempts >= maxAttempts;
+        long next = System.currentTimeMillis() + (last ? 0 : backoff(attempts));
+        String status = (last ? NotificationOutbox.Status.DEAD : NotificationOutbox.Status.PENDING).name();
+        tx.executeWithoutResult(s -> {
+            for (NotificationOutbox n : rows) outbox.markFailed(n.getId(), nodeId, status, at(next), e.toString());
+        });
+        NotificationOutbox first = rows.get(0);
+        if (last) {
+            dead.increment();
+            log.warn("Giving up on mail {} to {} after {} attempts: {}", first.getId(), first.getRecipient(), attempts, e.toString());
+        } else {
+            retried.increment();
+        }
+    }
+
+    /** Before retry n: random in [cap/2, cap], cap = min(max-backoff, backoff * 2^(n-1)). */
+    long backoff(int attempt) {
+        long cap = Math.min(maxBackoffMs, backoffMs << Math.min(attempt - 1, 20));
+        return cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+    }
+
+    private static OffsetDateTime at(long epochMs) {
+        return OffsetDateTime.ofInstant(Instant.ofEpochMilli(epochMs), ZoneOffset.UTC);
+    }
+}
@@ -1,180 +1,160 @@
 package com.example.schedulewatcher.service;
 
-import com.example.schedulewatcher.model.AuditLog;
 import com.example.schedulewatcher.model.Event;
-import com.example.schedulewatcher.model.Subscription;
-import com.example.schedulewatcher.model.User;
-import com.example.schedulewatcher.repository.AuditLogRepository;
-import com.example.schedulewatcher.repository.UserRepository;
-import com.example.schedulewatcher.repository.SubjectRepository;
-import com.example.schedulewatcher.model.Subject;
-
-import org.springframework.transaction.annotation.Transactional;
+import com.example.schedulewatcher.model.NotificationOutbox;
+import com.example.schedulewatcher.repository.NotificationOutboxRepository;
+import com.example.schedulewatcher.repository.SubscriptionRepository.Recipient;
+
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
-import org.hibernate.LazyInitializationException;
+import com.example.schedulewatcher.util.ScheduleDiff;
 
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 @Service
-@Transactional
 public class NotificationService {
 
     private final JavaMailSender mailSender;
-    private final AuditLogRepository audit;
-    private final UserRepository users;
-    private final SubjectRepository subjects;
+    private final AuditAppender audit;
+    private final NotificationFilterIndex filters;
+    private final DiffTextRenderer texts;
+    private final MailComposer composer;
+    private final NotificationOutboxRepository outbox;
 
     public NotificationService(JavaMailSender mailSender,
-                               AuditLogRepository audit,
-                               UserRepository users,
-                               SubjectRepository subjects) {
+                               AuditAppender audit,
+                               NotificationFilterIndex filters,
+                               DiffTextRenderer texts,
+                               MailComposer composer,
+                               NotificationOutboxRepository outbox) {
         this.mailSender = mailSender;
         this.audit = audit;
-        this.users = users;
-        this.subjects = subjects;
+        this.filters = filters;
+        this.texts = texts;
+        this.composer = composer;
+        this.outbox = outbox;
     }
 
-    public void notifyByEmail(List<Subscription> subs, Event evt) {
-
-        if (!isMeaningfulDiff(evt.getDiff())) { return; }
-
-        for (Subscription s : subs) {
-            String email = resolveEmail(s);
-            if (email == null || email.isBlank()) continue;
-
-            SimpleMailMessage msg = new SimpleMailMessage();
-            msg.setTo(email);
-
-            String subjectName = resolveSubjectName(s, evt);
-            msg.setSubject((s.isImportant() ? "[Important] " : "") + "[Schedule Change] " + subjectName);
-
-            msg.setText("Schedule changed for " + subjectName + "\n" + formatDiffForEmail(evt.getDiff()));
-            mailSender.send(msg);
-
-            AuditLog log = new AuditLog();
-            log.setAction("NOTIFY_SENT");
-            log.setActor("system");
-            log.setMeta("{\"channel\":\"email\",\"email\":\""+email+"\"}");
-            audit.save(log);
+    /**
+     * Queues one mail per matching subscriber in notification_outbox; subscriptions whose
+     * channels leave out "email" get none. Called inside the transaction that stores the
+     * event, so a change is never recorded without its notifications or the other way
+     * round; NotificationOutboxWorker sends them.
+     * Users with a digest window get theirs at the end of the window, merged with their
+     * other changes, except for important subscriptions, which are always sent right away.
+     * Mails are rendered once per language and important flag and shared by the recipients.
+     */
+    public void enqueue(List<Recipient> recipients, Event evt) {
+
+        ScheduleDiff diff = evt.getScheduleDiff();
+        if (!diff.isMeaningful()) { return; }
+
+        MailComposer.Composition mails = composer.compose(diff);
+        // only subscribers whose filters (room, date, time, teacher) match a changed lesson
+        for (Recipient r : filters.matching(recipients, diff)) {
+            String email = r.email();
+            if (email == null || email.isBlank() || !r.wantsEmail()) continue;
+
+            String subjectName = r.subjectName() != null ? r.subjectName() : "Subject";
+            Locale locale = MailComposer.localeOf(r.locale());
+            MailComposer.Mail mail = mails.mail(locale, r.important(), subjectName);
+
+            NotificationOutbox n = new NotificationOutbox();
+            n.setRecipient(email);
+            n.setMailSubject(mail.subject());
+            n.setBody(mail.body());
+            n.setLocale(r.locale());
+            Integer window = r.digestMinutes();
+            if (!r.important() && window != null && window > 0) {
+                n.setDigest(true);
+                n.setNextAttemptAt(digestDue(System.currentTimeMillis(), window));
+            }
+            outbox.save(n);
         }
     }
 
-    private String formatDiffForEmail(String diffJson) {
+    /**
+     * Hands queued mails to the mail server over one connection (JavaMailSenderImpl opens
+     * a single SMTP session per call) and returns the ones it did not accept, with the reason.
+     */
+    public Map<NotificationOutbox, Exception> deliver(List<NotificationOutbox> batch) {
+        SimpleMailMessage[] msgs = new SimpleMailMessage[batch.size()];
+        for (int i = 0; i < msgs.length; i++) {
+            NotificationOutbox n = batch.get(i);
+            msgs[i] = new SimpleMailMessage();
+            msgs[i].setTo(n.getRecipient());
+            msgs[i].setSubject(n.getMailSubject());
+            msgs[i].setText(n.getBody());
+        }
+        Map<NotificationOutbox, Exception> failed = new IdentityHashMap<>();
         try {
-            com.fasterxml.jackson.databind.ObjectMapper om = new com.fasterxml.jackson.databind.ObjectMapper();
-            var n = om.readTree(diffJson);
-            if (n.has("changes")) {
-                var ch = n.get("changes");
-                StringBuilder sb = new StringBuilder();
-                var fields = ch.fieldNames();
-                while (fields.hasNext()) {
-                    var k = fields.next();
-                    var item = ch.get(k);
-                    String from = item.has("from") && !item.get("from").isNull() ? item.get("from").asText("") : "";
-                    String to   = item.has("to")   && !item.get("to").isNull()   ? item.get("to").asText("")   : "";
-                    if (!from.isEmpty() || !to.isEmpty()) {
-                        sb.append(k).append(": ").append(from).append(" -> ").append(to).append("\n");
-                    }
-                }
-                String s = sb.toString().trim();
-                if (!s.isEmpty()) return s;
+            mailSender.send(msgs);
+        } catch (MailSendException e) {
+            // per message when the session got that far, otherwise (no connection) for all
+            Map<Object, Exception> byMessage = e.getFailedMessages();
+            for (int i = 0; i < msgs.length; i++) {
+                Exception cause = byMessage.get(msgs[i]);
+                if (cause != null) failed.put(batch.get(i), cause);
             }
-            return diffJson;
-        } catch (Exception e) {
-            return diffJson;
+            if (failed.isEmpty()) batch.forEach(n -> failed.put(n, e));
+        } catch (MailException e) {
+            batch.forEach(n -> failed.put(n, e));
         }
+        return failed;
     }
 
-    private String resolveEmail(Subscription s){
-        try {
-            // try lazy property first
-            User u = s.getUser();
-            if (u != null) return u.getEmail();
-        } catch (LazyInitializationException ignore) {}
-
-        try {
-            Long uid = null;
-            if (s.getUser() != null) uid = s.getUser().getId();
-            if (uid != null) {
-                return users.findById(uid).map(User::getEmail).orElse(null);
-            }
-        } catch (Exception ignore) {}
-        return null;
+    /**
+     * End of the digest window a change made at nowMs falls into. Windows are aligned to the
+     * clock (an hourly digest goes out on the hour), so all of a user's digest rows in one
+     * window are due at the same moment and are claimed together.
+     */
+    static OffsetDateTime digestDue(long nowMs, int windowMinutes) {
+        long window = windowMinutes * 60_000L;
+        return OffsetDateTime.ofInstant(Instant.ofEpochMilli((nowMs / window + 1) * window), ZoneOffset.UTC);
     }
 
-    private String resolveSubjectName(Subscription s, Event evt) {
-        try {
-            if (evt != null && evt.getSubject() != null && evt.getSubject().getName() != null) {
-                return evt.getSubject().getName();
-            }
-        } catch (Exception ignore) {}
-
-        Long sid = null;
-        try {
-            if (s.getSubject() != null) sid = s.getSubject().getId();
-        } catch (Exception ignore) {}
-
-        if (sid != null) {
-            try {
-                return subjects.findById(sid).map(Subject::getName).orElse("Subject#" + sid);
-            } catch (Exception e) {
-                return "Subject#" + sid;
-            }
+    /** One mail for several queued digest mails of the same recipient; not stored. */
+    public NotificationOutbox digest(List<NotificationOutbox> rows) {
+        NotificationOutbox d = new NotificationOutbox();
+        d.setRecipient(rows.get(0).getRecipient());
+        d.setLocale(rows.get(0).getLocale());
+        d.setMailSubject(composer.digestSubject(MailComposer.localeOf(d.getLocale()), rows.size()));
+        StringBuilder body = new StringBuilder();
+        for (NotificationOutbox n : rows) {
+            if (body.length() > 0) body.append("\n");
+            body.append(n.getBody());
+            if (!n.getBody().endsWith("\n")) body.append("\n");
         }
-        return "Subject";
+        d.setBody(body.toString());
+        return d;
+    }
+
+    /** Audits a delivered mail that reported the given number of queued changes. */
+    public void recordSent(NotificationOutbox n, int changes) {
+        Map<String, Object> meta = new LinkedHashMap<>();
+        meta.put("channel", "email");
+        meta.put("email", n.getRecipient());
+        if (changes > 1) meta.put("digest", changes);
+        audit.append("system", "NOTIFY_SENT", null, meta);
     }
 
     public String formatDiffPlain(String diffJson) {
         if (diffJson == null || diffJson.isBlank()) return "";
-        try {
-            com.fasterxml.jackson.databind.ObjectMapper om = new com.fasterxml.jackson.databind.ObjectMapper();
-            com.fasterxml.jackson.databind.JsonNode root = om.readTree(diffJson);
-            StringBuilder sb = new StringBuilder();
-            if (root.has("type")) {
-                String type = root.get("type").asText("");
-                if (!type.isEmpty()) sb.append("Type: ").append(type).append("\n");
-            }
-            if (root.has("changes")) {
-                com.fasterxml.jackson.databind.JsonNode ch = root.get("changes");
-                if (ch.isObject()) {
-                    var it = ch.fields();
-                    while (it.hasNext()) {
-                        var e = it.next();
-                        String k = e.getKey();
-                        var val = e.getValue();
-                        String from = val.has("from") && !val.get("from").isNull() ? val.get("from").asText("") : "";
-                        String to   = val.has("to")   && !val.get("to").isNull()   ? val.get("to").asText("")   : "";
-                        if (!from.isEmpty() || !to.isEmpty()) {
-                            sb.append(k).append(": ").append(from).append(" -> ").append(to).append("\n");
-                        }
-                    }
-                }
-            }
-            String out = sb.toString().trim();
-            return out.isEmpty() ? diffJson : out;
-        } catch (Exception ex) {
-            return diffJson;
-        }
+        return formatDiffPlain(ScheduleDiff.parse(diffJson));
     }
 
-    private boolean isMeaningfulDiff(String diffJson) {
-        if (diffJson == null || diffJson.isBlank()) return false;
-        try {
-            com.fasterxml.jackson.databind.ObjectMapper om = new com.fasterxml.jackson.databind.ObjectMapper();
-            com.fasterxml.jackson.databind.JsonNode root = om.readTree(diffJson);
-            if ("initial".equalsIgnoreCase(root.path("type").asText())) return false;
-
-            com.fasterxml.jackson.databind.JsonNode ch = root.path("changes");
-            if (ch.isMissingNode()) return false;
-            if (ch.isObject() && ch.size() == 0) return false;
-            if (ch.isTextual() && ch.asText().isBlank()) return false;
-
-            if (root.has("changedFields") && root.get("changedFields").asInt(0) == 0) return false;
-            return true;
-        } catch (Exception ex) {
-            return true;
-        }
+    /** English text of a diff; events also store it, see DiffTextRenderer. */
+    public String formatDiffPlain(ScheduleDiff diff) {
+        return texts.plain(diff, Locale.ENGLISH);
     }
-}
\ No newline at end of file
+}
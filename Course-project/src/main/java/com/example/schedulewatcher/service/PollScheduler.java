@@ -0,0 +1,129 @@
+package com.example.schedulewatcher.service;
+
+import com.example.schedulewatcher.model.FetchState;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides when each subject is polled next. Subjects sit in a priority queue keyed by
+ * their next due time; ScheduleFetchService takes the due ones every tick and hands
+ * them back through {@link #reschedule} once they have been fetched.
+ *
+ * Interval policy: a subject with an important subscription is polled every
+ * fetcher.important-interval, others every fetcher.fixedDelay. Once a subject has not
+ * changed for fetcher.backoff-after, every further unchanged poll doubles its interval,
+ * up to fetcher.fixedDelay for important subjects and fetcher.max-interval otherwise.
+ * A change resets the interval to the floor.
+ */
+@Component
+public class PollScheduler {
+
+    private final long baseIntervalMs;
+    private final long importantIntervalMs;
+    private final long maxIntervalMs;
+    private final long backoffAfterMs;
+
+    private final PriorityQueue<Due> queue = new PriorityQueue<>(Comparator.comparingLong(Due::at));
+    private final Map<Long, Due> scheduled = new HashMap<>();
+
+    public PollScheduler(@Value("${fetcher.fixedDelay:60000}") long baseIntervalMs,
+                         @Value("${fetcher.important-interval:15000}") long importantIntervalMs,
+                         @Value("${fetcher.max-interval:21600000}") long maxIntervalMs,
+                         @Value("${fetcher.backoff-after:86400000}") long backoffAfterMs) {
+        this.baseIntervalMs = baseIntervalMs;
+        this.importantIntervalMs = Math.min(importantIntervalMs, baseIntervalMs);
+        this.maxIntervalMs = Math.max(maxIntervalMs, baseIntervalMs);
+        this.backoffAfterMs = backoffAfterMs;
+    }
+
+    /** Watched subjects that are not in the queue yet (new subscriptions, or after a restart). */
+    public synchronized List<Long> unscheduled(Collection<Long> watched) {
+        List<Long> out = new ArrayList<>();
+        for (Long id : watched) if (!scheduled.containsKey(id)) out.add(id);
+        return out;
+    }
+
+    /**
+     * Puts a subject into the queue. With a known interval the first poll is spread
+     * randomly over that interval so a restart does not poll everything at once.
+     */
+    public synchronized void admit(Long subjectId, FetchState state, long nowMs) {
+        if (scheduled.containsKey(subjectId)) return;
+        Long interval = state != null ? state.getPollIntervalMs() : null;
+        long at = interval == null ? nowMs : nowMs + ThreadLocalRandom.current().nextLong(interval + 1);
+        push(subjectId, at);
+    }
+
+    /**
+     * Removes and returns the subjects whose due time has passed. Queue entries of
+     * subjects nobody watches any more are dropped on the way.
+     */
+    public synchronized List<Long> takeDue(Set<Long> watched, long nowMs) {
+        List<Long> due = new ArrayList<>();
+        while (!queue.isEmpty() && queue.peek().at() <= nowMs) {
+            Due d = queue.poll();
+            if (scheduled.get(d.subjectId()) != d) continue;   // superseded entry
+            scheduled.remove(d.subjectId());
+            if (watched.contains(d.subjectId())) due.add(d.subjectId());
+        }
+        return due;
+    }
+
+    /**
+     * Computes the next interval after a poll, updates the state and re-queues the subject.
+     *
+     * @return true when the state changed and has to be persisted
+     */
+    public synchronized boolean reschedule(FetchState state, boolean important, boolean changed, OffsetDateTime now) {
+        long floor = important ? importantIntervalMs : baseIntervalMs;
+        long cap = important ? baseIntervalMs : maxIntervalMs;
+
+        Long previous = state.getPollIntervalMs();
+        long next;
+        if (changed) {
+            state.setLastChangedAt(now);
+            next = floor;
+        } else if (previous == null || !stableLongEnough(state, now)) {
+            next = floor;
+        } else {
+            next = Math.min(Math.max(previous, floor) * 2, cap);
+        }
+        next = Math.max(Math.min(next, cap), floor);
+
+        push(state.getSubjectId(), now.toInstant().toEpochMilli() + next);
+        if (changed || !Objects.equals(previous, next)) {
+            state.setPollIntervalMs(next);
+            return true;
+        }
+        return false;
+    }
+
+    /** Puts a subject back after a failed poll without touching its state; returns the new due time. */
+    public synchronized long retryLater(Long subjectId, long nowMs) {
+        push(subjectId, nowMs + baseIntervalMs);
+        return nowMs + baseIntervalMs;
+    }
+
+    /** Re-queues a subject for a given time, e.g. when another node holds its lease. */
+    public synchronized void requeue(Long subjectId, long atMs) {
+        push(subjectId, atMs);
+    }
+
+    private boolean stableLongEnough(FetchState state, OffsetDateTime now) {
+        OffsetDateTime since = state.getLastChangedAt();
+        return since == null || Duration.between(since, now).toMillis() >= backoffAfterMs;
+    }
+
+    private void push(Long subjectId, long at) {
+        Due d = new Due(subjectId, at);
+        scheduled.put(subjectId, d);
+        queue.add(d);
+    }
+
+    private record Due(Long subjectId, long at) {}
+}
@@ -0,0 +1,204 @@
+package com.example.schedulewatcher.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Retention for the month-partitioned snapshots and events tables (see
+ * 45-partition-snapshots-events.sql). Once a day it creates the partitions for the
+ * coming months, which inserts need whether retention is enabled or not, and, when it
+ * is, drops whole partitions older than the configured number of months, which leaves
+ * no dead tuples or index bloat behind the way DELETE would.
+ *
+ * Before a snapshots partition is dropped, the latest snapshot of every subject that has
+ * nothing newer is copied forward to the start of the oldest kept month, so each subject
+ * keeps a baseline to diff against.
+ *
+ * The same run purges the notification outbox, which is not partitioned: SENT mails after
+ * retention.outbox-sent-days, DEAD ones, kept for inspection, after retention.outbox-dead-days.
+ */
+@Service
+public class RetentionService {
+
+    private static final Logger log = LoggerFactory.getLogger(RetentionService.class);
+    private static final Pattern MONTH_SUFFIX = Pattern.compile("_p(\\d{6})$");
+    private static final DateTimeFormatter YYYYMM = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final int PURGE_BATCH = 1000;
+
+    private final JdbcTemplate jdbc;
+    private final TransactionTemplate tx;
+    private final boolean enabled;
+    private final int snapshotMonths;
+    private final int eventMonths;
+    private final int aheadMonths;
+    private final int outboxSentDays;
+    private final int outboxDeadDays;
+
+    public RetentionService(JdbcTemplate jdbc,
+                            PlatformTransactionManager txManager,
+                            @Value("${retention.enabled:true}") boolean enabled,
+                            @Value("${retention.snapshot-months:6}") int snapshotMonths,
+                            @Value("${retention.event-months:12}") int eventMonths,
+                            @Value("${retention.ahead-months:3}") int aheadMonths,
+                            @Value("${retention.outbox-sent-days:14}") int outboxSentDays,
+                            @Value("${retention.outbox-dead-days:90}") int outboxDeadDays) {
+        this.jdbc = jdbc;
+        this.tx = new TransactionTemplate(txManager);
+        this.enabled = enabled;
+        this.snapshotMonths = Math.max(1, snapshotMonths);
+        this.eventMonths = Math.max(1, eventMonths);
+        this.aheadMonths = Math.max(1, aheadMonths);
+        this.outboxSentDays = Math.max(1, outboxSentDays);
+        this.outboxDeadDays = Math.max(1, outboxDeadDays);
+    }
+
+    @Scheduled(cron = "${retention.cron:0 30 3 * * *}")
+    public void runScheduled() {
+        run(LocalDate.now(ZoneOffset.UTC));
+    }
+
+    public void run(LocalDate today) {
+        YearMonth current = YearMonth.from(today);
+        createAhead("snapshots", current);
+        createAhead("events", current);
+        if (!enabled) return;
+
+        int purged = purgeOutbox(OffsetDateTime.now());
+        if (purged > 0) log.info("Retention purged {} sent or dead outbox mails", purged);
+
+        int dropped = dropExpiredSnapshots(current.minusMonths(snapshotMonths));
+        dropped += dropExpired("events", current.minusMonths(eventMonths));
+        if (dropped > 0) {
+            int swept = sweepPayloads();
+            log.info("Retention dropped {} partitions and {} unreferenced payloads", dropped, swept);
+        }
+    }
+
+    /**
+     * Deletes payloads no snapshot refers to any more. The candidates are locked first, which
+     * waits for fetches that are storing a snapshot of one of them (SnapshotPayloadStore.put
+     * locks the payload row), and each is only deleted if it is still unreferenced once they
+     * have committed; a single DELETE would re-check the row but not the snapshots after waiting.
+     *
+     * @return number of payloads deleted
+     */
+    public int sweepPayloads() {
+        Integer swept = tx.execute(status -> {
+            List<String> unreferenced = jdbc.queryForList("SELECT p.hash FROM snapshot_payloads p"
+                    + " WHERE NOT EXISTS (SELECT 1 FROM snapshots s WHERE s.payload_hash = p.hash)"
+                    + " FOR UPDATE", String.class);
+            if (unreferenced.isEmpty()) return 0;
+            int n = 0;
+            for (int count : jdbc.batchUpdate("DELETE FROM snapshot_payloads WHERE hash = ?"
+                            + " AND NOT EXISTS (SELECT 1 FROM snapshots s WHERE s.payload_hash = ?)",
+                    unreferenced.stream().map(h -> new Object[]{h, h}).toList())) {
+                n += Math.max(count, 0);
+            }
+            return n;
+        });
+        return swept != null ? swept : 0;
+    }
+
+    /**
+     * Deletes SENT outbox rows sent more than outbox-sent-days before now, and DEAD rows
+     * queued more than outbox-dead-days before now, a batch per transaction. PENDING rows
+     * are never touched.
+     *
+     * @return number of rows deleted
+     */
+    public int purgeOutbox(OffsetDateTime now) {
+        return purge("status = 'SENT' AND sent_at < ?", now.minusDays(outboxSentDays))
+                + purge("status = 'DEAD' AND created_at < ?", now.minusDays(outboxDeadDays));
+    }
+
+    private int purge(String condition, OffsetDateTime before) {
+        int total = 0;
+        int n;
+        do {
+            n = jdbc.update("DELETE FROM notification_outbox WHERE id IN (SELECT id FROM notification_outbox"
+                    + " WHERE " + condition + " LIMIT " + PURGE_BATCH + ")", before);
+            total += n;
+        } while (n == PURGE_BATCH);
+        return total;
+    }
+
+    private void createAhead(String table, YearMonth current) {
+        for (int i = 0; i <= aheadMonths; i++) {
+            createPartition(table, current.plusMonths(i));
+        }
+    }
+
+    private int dropExpiredSnapshots(YearMonth keepFrom) {
+        List<String> expired = expiredPartitions("snapshots", keepFrom);
+        if (expired.isEmpty()) return 0;
+
+        // the carried-forward snapshots land in keepFrom, which must exist
+        createPartition("snapshots", keepFrom);
+        OffsetDateTime baseline = keepFrom.atDay(1).atStartOfDay().atOffset(ZoneOffset.UTC);
+        for (String partition : expired) {   // oldest first
+            OffsetDateTime end = monthOf(partition).plusMonths(1).atDay(1).atStartOfDay().atOffset(ZoneOffset.UTC);
+            tx.executeWithoutResult(status -> {
+                jdbc.update("WITH moved AS ("
+                        + " INSERT INTO snapshots (subject_id, snapshot_at, payload_hash, raw, hash_tree)"
+                        + " SELECT DISTINCT ON (p.subject_id) p.subject_id, ?, p.payload_hash, p.raw, p.hash_tree"
+                        + " FROM " + partition + " p"
+                        + " WHERE NOT EXISTS (SELECT 1 FROM snapshots n"
+                        + "                   WHERE n.subject_id = p.subject_id AND n.snapshot_at >= ?)"
+                        + " ORDER BY p.subject_id, p.snapshot_at DESC, p.id DESC"
+                        + " RETURNING id, subject_id)"
+                        + " UPDATE subject_fetch_state f SET snapshot_id = m.id FROM moved m"
+                        + " WHERE f.subject_id = m.subject_id", baseline, end);
+                jdbc.execute("DROP TABLE " + partition);
+            });
+        }
+        return expired.size();
+    }
+
+    private int dropExpired(String table, YearMonth keepFrom) {
+        List<String> expired = expiredPartitions(table, keepFrom);
+        for (String partition : expired) {
+            jdbc.execute("DROP TABLE " + partition);
+        }
+        return expired.size();
+    }
+
+    /** Monthly partitions of the table that end before keepFrom, oldest first. */
+    List<String> expiredPartitions(String table, YearMonth keepFrom) {
+        List<String> names = jdbc.queryForList(
+                "SELECT c.relname FROM pg_inherits i"
+                        + " JOIN pg_class c ON c.oid = i.inhrelid"
+                        + " JOIN pg_class p ON p.oid = i.inhparent"
+                        + " WHERE p.relname = ?", String.class, table);
+        return names.stream()
+                .filter(n -> n.matches(Pattern.quote(table) + "_p\\d{6}"))
+                .filter(n -> monthOf(n).isBefore(keepFrom))
+                .sorted()
+                .toList();
+    }
+
+    private void createPartition(String table, YearMonth month) {
+        jdbc.queryForList("SELECT create_month_partition(?, ?)", table, Date.valueOf(month.atDay(1)));
+    }
+
+    private static YearMonth monthOf(String partition) {
+        Matcher m = MONTH_SUFFIX.matcher(partition);
+        if (!m.find()) throw new IllegalArgumentException("Not a monthly partition: " + partition);
+        return YearMonth.parse(m.group(1), YYYYMM);
+    }
+}
@@ -1,81 +1,403 @@
 package com.example.schedulewatcher.service;
 
+import com.example.schedulewatcher.util.AsyncPermits;
+import com.example.schedulewatcher.util.CircuitBreaker;
+import com.example.schedulewatcher.util.Json;
+import com.example.schedulewatcher.util.SingleFlight;
+import com.example.schedulewatcher.util.TokenBucket;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
 import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
 
+/**
+ * RUZ API client.
+ *
+ * Requests go out on the shared ruzHttpClient (keep-alive connection pool, HTTP/2 where
+ * the server offers it) with Accept-Encoding: gzip, and are fully asynchronous: waiting
+ * for RUZ, for a rate-limit token or for a per-host slot never parks a thread.
+ *
+ * Every call goes through the same guards: a client-side rate limit (ruzRateLimiter),
+ * a per-endpoint circuit breaker that skips calls while that endpoint keeps failing,
+ * bounded retries with full-jitter exponential backoff for I/O errors, 5xx and 429, and
+ * a cap on concurrent requests per host.
+ */
 @Service
 public class RuzClient {
-    private final RestTemplate http = new RestTemplate();
-    private final ObjectMapper om = new ObjectMapper();
+    private final HttpClient http;
+    private final TokenBucket rateLimiter;
+    private final MeterRegistry metrics;
+    private final ObjectMapper om = Json.MAPPER;
 
     @Value("${ruz.base-url:https://ruz.spbstu.ru/api/v1/ruz}")
     private String baseUrl;
 
+    // time allowed for one request until the response headers arrive (ms)
+    @Value("${ruz.read-timeout:10000}")
+    private long readTimeoutMs = 10000;
+
+    // at most this many requests in flight against one host, however many fetch workers there are
+    @Value("${ruz.max-concurrent-per-host:4}")
+    private int maxConcurrentPerHost = 4;
+
+    private final Map<String, AsyncPermits> hostPermits = new ConcurrentHashMap<>();
+
+    // attempts per call, including the first one
+    @Value("${ruz.retry.max-attempts:3}")
+    private int maxAttempts = 3;
+
+    // backoff before retry n is random in [0, min(max-backoff, backoff * 2^(n-1))]
+    @Value("${ruz.retry.backoff:200}")
+    private long backoffMs = 200;
+
+    @Value("${ruz.retry.max-backoff:2000}")
+    private long maxBackoffMs = 2000;
+
+    @Value("${ruz.circuit-breaker.failure-threshold:5}")
+    private int failureThreshold = 5;
+
+    @Value("${ruz.circuit-breaker.open-duration:30000}")
+    private long openMs = 30000;
+
+    // how long a call may wait for a rate-limit token before it is rejected
+    @Value("${ruz.rate-limit.max-wait:5000}")
+    private long rateLimitMaxWaitMs = 5000;
+
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private final Counter modifiedCount;
+    private final Counter notModifiedCount;
+    private final Counter sharedCount;
+    private final Counter transientFailureCount;
+    private final Counter permanentFailureCount;
+
+    // concurrent fetches of one schedule share a single request; its result is reused for ruz.coalesce.ttl (ms)
+    private final SingleFlight<ScheduleKey, FetchOutcome> scheduleFlights;
+
+    public RuzClient(HttpClient ruzHttpClient, TokenBucket ruzRateLimiter, MeterRegistry metrics,
+                     @Value("${ruz.coalesce.ttl:5000}") long coalesceTtlMs) {
+        this.http = ruzHttpClient;
+        this.rateLimiter = ruzRateLimiter;
+        this.metrics = metrics;
+        this.modifiedCount = Counter.builder("ruz.schedule.fetch").tag("result", "modified").register(metrics);
+        this.notModifiedCount = Counter.builder("ruz.schedule.fetch").tag("result", "not_modified").register(metrics);
+        this.sharedCount = Counter.builder("ruz.schedule.fetch").tag("result", "shared").register(metrics);
+        this.transientFailureCount = Counter.builder("ruz.schedule.fetch").tag("result", "transient_failure").register(metrics);
+        this.permanentFailureCount = Counter.builder("ruz.schedule.fetch").tag("result", "permanent_failure").register(metrics);
+        this.scheduleFlights = new SingleFlight<>(coalesceTtlMs);
+        Gauge.builder("ruz.schedule.not_modified.ratio", this, RuzClient::notModifiedRatio)
+                .description("Share of schedule polls answered with 304 Not Modified")
+                .register(metrics);
+    }
+
+    /**
+     * Looks a group up by its code. The search endpoint has taken the term under different
+     * parameter names over time, so all three variants are probed concurrently and the first
+     * one that finds the group wins. Returns null when RUZ answered but knows no such group;
+     * fails when no probe got an answer at all.
+     */
     public String resolveGroupIdByCode(String code) {
         String q = url(code);
-        String[] urls = new String[] {
+        return firstId(
                 baseUrl + "/search/groups?term=" + q,
                 baseUrl + "/search/groups?q=" + q,
-                baseUrl + "/search/groups?name=" + q
-        };
-        for (String u : urls) {
-            String id = pickFirstId(u);
-            if (id != null) return id;
-        }
-        return null;
+                baseUrl + "/search/groups?name=" + q);
     }
 
+    /** Same as resolveGroupIdByCode for teachers; "T-123" style codes carry the id and need no lookup. */
     public String resolveTeacherIdByTCode(String tcode) {
         if (tcode != null && tcode.startsWith("T-")) {
             String digits = tcode.substring(2).replaceAll("\\D+", "");
             if (!digits.isEmpty()) return digits;
         }
         String q = url(tcode);
-        String[] urls = new String[] {
+        return firstId(
                 baseUrl + "/search/teachers?term=" + q,
                 baseUrl + "/search/teachers?q=" + q,
-                baseUrl + "/search/teachers?name=" + q
-        };
-        for (String u : urls) {
-            String id = pickFirstId(u);
-            if (id != null) return id;
+                baseUrl + "/search/teachers?name=" + q);
+    }
+
+    /**
+     * Conditional schedule download: etag / lastModified are the validators of the
+     * previous response (either may be null) and are sent back as If-None-Match /
+     * If-Modified-Since, so an unchanged schedule costs a 304 instead of a full body.
+     *
+     * Failures, including calls skipped because the circuit is open or the rate limit is
+     * exhausted, complete the future normally with a transient or permanent failure outcome.
+     */
+    public CompletableFuture<FetchOutcome> fetchScheduleAsync(String subjectType, String ruzId,
+                                                              String etag, String lastModified) {
+        boolean teacher = "teacher".equalsIgnoreCase(subjectType);
+        String url = teacher
+                ? baseUrl + "/teachers/" + ruzId + "/scheduler"
+                : baseUrl + "/scheduler/" + ruzId;
+        HttpRequest.Builder req = request(url);
+        if (etag != null && !etag.isBlank()) req.header("If-None-Match", etag);
+        if (lastModified != null && !lastModified.isBlank()) req.header("If-Modified-Since", lastModified);
+
+        String endpoint = teacher ? "teacher-schedule" : "schedule";
+        ScheduleKey key = new ScheduleKey(endpoint, ruzId, etag, lastModified);
+        boolean[] own = new boolean[1];
+        CompletableFuture<FetchOutcome> outcome = scheduleFlights.run(key, () -> {
+            own[0] = true;
+            return exchange(endpoint, req.build()).thenApply(res -> {
+                if (res.statusCode() == 304) {
+                    notModifiedCount.increment();
+                    return FetchOutcome.notModified();
+                }
+                String body = body(res);
+                if (!looksLikeJson(body)) throw new CompletionException(new InvalidBodyException());
+                modifiedCount.increment();
+                return FetchOutcome.modified(body,
+                        res.headers().firstValue("ETag").orElse(null),
+                        res.headers().firstValue("Last-Modified").orElse(null));
+            });
+        });
+        if (!own[0]) sharedCount.increment();
+        return outcome.exceptionally(e -> {
+            FetchOutcome failed = failureOf(unwrap(e));
+            (failed.getStatus() == FetchOutcome.Status.PERMANENT_FAILURE ? permanentFailureCount : transientFailureCount)
+                    .increment();
+            return failed;
+        });
+    }
+
+    private static FetchOutcome failureOf(Throwable e) {
+        if (e instanceof RuzUnavailableException skipped) return FetchOutcome.transientFailure(skipped.getReason());
+        if (e instanceof HttpStatusException h) {
+            // RUZ understood the request and refused it; asking again will not help
+            return h.status >= 400 && h.status < 500 && h.status != 429
+                    ? FetchOutcome.permanentFailure("http_" + h.status)
+                    : FetchOutcome.transientFailure("http_" + h.status);
         }
-        return tcode;
+        if (e instanceof InvalidBodyException) return FetchOutcome.transientFailure("invalid_body");
+        // the same bytes would come back on every poll; wait for the long interval instead
+        if (e instanceof UndecodableBodyException) return FetchOutcome.permanentFailure("undecodable_body");
+        if (e instanceof HttpTimeoutException) return FetchOutcome.transientFailure("timeout");
+        if (e instanceof IOException) return FetchOutcome.transientFailure("io_error");
+        return FetchOutcome.transientFailure(e.getClass().getSimpleName());
     }
 
-    public String fetchScheduleJson(String subjectType, String ruzId) {
-        try {
-            String url = "teacher".equals(subjectType)
-                    ? baseUrl + "/teachers/" + ruzId + "/scheduler"
-                    : baseUrl + "/scheduler/" + ruzId;
-            ResponseEntity<String> res = http.getForEntity(url, String.class);
-            return res.getBody();
-        } catch (Exception e) {
-            return "{\"error\":\"fetch_failed\"}";
+    /** A 200 carrying an HTML maintenance page or a truncated body must not become a snapshot. */
+    private static boolean looksLikeJson(String body) {
+        for (int i = 0; i < body.length(); i++) {
+            char c = body.charAt(i);
+            if (!Character.isWhitespace(c)) return c == '{' || c == '[';
         }
+        return false;
     }
 
     // ---- helpers ----
-    private String pickFirstId(String url) {
+
+    /**
+     * Blocks the caller until a probe found the id or all have answered. The probes and their
+     * retries complete on the HTTP client's and the delayed executor's threads, never on the
+     * caller's pool, so a fetch thread waiting here cannot starve them. The fetch path only
+     * comes here for a subject whose RUZ id is still unknown (it is resolved when subscribing
+     * and cached by RuzIdResolver), and the wait is bounded by the timeouts and retries.
+     */
+    private String firstId(String... urls) {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        List<CompletableFuture<String>> probes = new ArrayList<>();
+        for (String u : urls) {
+            CompletableFuture<String> probe = exchange("search", request(u).build())
+                    .thenApply(res -> pickFirstId(body(res)))
+                    .handle((id, e) -> {
+                        Throwable cause = unwrap(e);
+                        // a 4xx is an answer too: this variant does not know the term
+                        if (cause == null || cause instanceof HttpStatusException h && h.status < 500) return id;
+                        throw new CompletionException(cause);
+                    });
+            probe.thenAccept(id -> { if (id != null) first.complete(id); });
+            probes.add(probe);
+        }
+        CompletableFuture.allOf(probes.toArray(CompletableFuture[]::new)).whenComplete((v, e) -> {
+            if (e == null || probes.stream().anyMatch(p -> !p.isCompletedExceptionally())) first.complete(null);
+            else first.completeExceptionally(unwrap(e));
+        });
+        return first.join();
+    }
+
+    private String pickFirstId(String body) {
         try {
-            String body = http.getForObject(url, String.class);
             JsonNode node = om.readTree(body);
             if (node.isArray() && node.size() > 0) {
                 JsonNode first = node.get(0);
                 if (first.has("id")) return first.get("id").asText();
                 if (first.has("Id")) return first.get("Id").asText();
             }
-        } catch (Exception ignore) {}
+        } catch (IOException ignore) {}
         return null;
     }
 
+    private HttpRequest.Builder request(String url) {
+        return HttpRequest.newBuilder(URI.create(url))
+                .timeout(Duration.ofMillis(readTimeoutMs))
+                .header("Accept", "application/json")
+                .header("Accept-Encoding", "gzip")
+                .GET();
+    }
+
+    /**
+     * Runs the request through rate limit, circuit breaker and retries. Completes with the
+     * response for 2xx / 304 and fails for everything else.
+     */
+    private CompletableFuture<HttpResponse<byte[]>> exchange(String endpoint, HttpRequest req) {
+        return afterToken(endpoint).thenCompose(v -> {
+            CircuitBreaker breaker = breaker(endpoint);
+            if (!breaker.tryAcquire()) throw rejected(endpoint, "circuit_open");
+            return attempt(endpoint, breaker, req, 1);
+        });
+    }
+
+    private CompletableFuture<HttpResponse<byte[]>> attempt(String endpoint, CircuitBreaker breaker,
+                                                            HttpRequest req, int attempt) {
+        return send(req).handle((res, err) -> {
+            Throwable failure = err != null ? unwrap(err) : null;
+            if (failure == null && !retryable(res.statusCode())) {
+                breaker.onSuccess();   // RUZ answered; a 4xx means the request itself was wrong (e.g. unknown id)
+                return res.statusCode() < 300 || res.statusCode() == 304
+                        ? CompletableFuture.completedFuture(res)
+                        : CompletableFuture.<HttpResponse<byte[]>>failedFuture(new HttpStatusException(res.statusCode()));
+            }
+            if (failure != null && !(failure instanceof IOException)) {
+                breaker.onFailure();
+                return CompletableFuture.<HttpResponse<byte[]>>failedFuture(failure);
+            }
+            Throwable last = failure != null ? failure : new HttpStatusException(res.statusCode());
+            if (attempt >= maxAttempts) {
+                breaker.onFailure();
+                return CompletableFuture.<HttpResponse<byte[]>>failedFuture(last);
+            }
+            metrics.counter("ruz.retries", "endpoint", endpoint).increment();
+            long cap = Math.min(maxBackoffMs, backoffMs << Math.min(attempt - 1, 20));
+            long jitter = ThreadLocalRandom.current().nextLong(cap + 1);
+            return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(jitter, TimeUnit.MILLISECONDS))
+                    .thenCompose(v -> afterToken(endpoint).whenComplete((r, e) -> {
+                        // gave up waiting for a token: throttled here, which says nothing about RUZ
+                        if (e != null) breaker.release();
+                    }))
+                    .thenCompose(v -> attempt(endpoint, breaker, req, attempt + 1));
+        }).thenCompose(Function.identity());
+    }
+
+    private CompletableFuture<HttpResponse<byte[]>> send(HttpRequest req) {
+        AsyncPermits permits = hostPermits.computeIfAbsent(req.uri().getHost() == null ? "" : req.uri().getHost(),
+                h -> new AsyncPermits(maxConcurrentPerHost));
+        return permits.acquire()
+                .thenCompose(v -> http.sendAsync(req, HttpResponse.BodyHandlers.ofByteArray()))
+                .whenComplete((res, err) -> permits.release());
+    }
+
+    /** Completes once a rate-limit token is due; fails right away if that would exceed max-wait. */
+    private CompletableFuture<Void> afterToken(String endpoint) {
+        long waitNanos = rateLimiter.reserve(TimeUnit.MILLISECONDS.toNanos(rateLimitMaxWaitMs));
+        if (waitNanos < 0) return CompletableFuture.failedFuture(rejected(endpoint, "rate_limited"));
+        if (waitNanos == 0) return CompletableFuture.completedFuture(null);
+        return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS));
+    }
+
+    private static boolean retryable(int status) {
+        return status >= 500 || status == 429;
+    }
+
+    private RuzUnavailableException rejected(String endpoint, String reason) {
+        metrics.counter("ruz.calls.rejected", "endpoint", endpoint, "reason", reason).increment();
+        return new RuzUnavailableException(endpoint, reason);
+    }
+
+    private CircuitBreaker breaker(String endpoint) {
+        return breakers.computeIfAbsent(endpoint, e -> {
+            CircuitBreaker b = new CircuitBreaker(failureThreshold, openMs, (from, to) ->
+                    metrics.counter("ruz.circuit.transitions", "endpoint", e, "to", to.name().toLowerCase()).increment());
+            Gauge.builder("ruz.circuit.state", b, cb -> cb.state().ordinal())
+                    .description("0 = closed, 1 = half-open, 2 = open")
+                    .tag("endpoint", e)
+                    .register(metrics);
+            return b;
+        });
+    }
+
+    /** Current breaker state of an endpoint ("schedule", "teacher-schedule", "search"). */
+    CircuitBreaker.State circuitState(String endpoint) {
+        return breaker(endpoint).state();
+    }
+
+    /** Response body as text, gunzipped when RUZ honoured Accept-Encoding: gzip. */
+    private static String body(HttpResponse<byte[]> res) {
+        byte[] bytes = res.body();
+        if (res.headers().firstValue("Content-Encoding").filter("gzip"::equalsIgnoreCase).isPresent()) {
+            try (GZIPInputStream gz = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+                bytes = gz.readAllBytes();
+            } catch (IOException e) {
+                throw new CompletionException(new UndecodableBodyException(e));
+            }
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        while (e instanceof CompletionException && e.getCause() != null) e = e.getCause();
+        return e;
+    }
+
+    /** Validators are part of the key: a 304 only answers callers that sent the same ones. */
+    private record ScheduleKey(String endpoint, String ruzId, String etag, String lastModified) {}
+
+    /** Non-2xx / 304 answer from RUZ. */
+    private static final class HttpStatusException extends IOException {
+        final int status;
+
+        HttpStatusException(int status) {
+            super("HTTP " + status);
+            this.status = status;
+        }
+    }
+
+    /** 2xx whose body is not a JSON document. */
+    private static final class InvalidBodyException extends IOException {
+        InvalidBodyException() {
+            super("response body is not JSON");
+        }
+    }
+
+    /** Body declared as gzip that does not decompress, e.g. corrupt or not gzip at all. */
+    private static final class UndecodableBodyException extends IOException {
+        UndecodableBodyException(IOException cause) {
+            super("gzip body could not be decoded", cause);
+        }
+    }
+
+    private double notModifiedRatio() {
+        double hits = notModifiedCount.count();
+        double total = hits + modifiedCount.count();
+        return total == 0 ? 0.0 : hits / total;
+    }
+
     private String url(String s) {
         return URLEncoder.encode(s == null ? "" : s, StandardCharsets.UTF_8);
     }
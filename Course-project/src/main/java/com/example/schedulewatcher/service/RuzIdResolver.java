@@ -0,0 +1,91 @@
+package com.example.schedulewatcher.service;
+
+import com.example.schedulewatcher.model.Subject;
+import com.example.schedulewatcher.model.SubjectType;
+import com.example.schedulewatcher.repository.SubjectRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Turns what a user typed (group code, course name, "T-123") into the RUZ id the schedule
+ * is fetched by. The id is resolved once, at subscribe time, and stored on the Subject;
+ * subjects created before that (or while RUZ was down) get it on their next poll.
+ *
+ * Lookups are cached in memory: found ids for ruz.resolve.ttl, codes RUZ does not know for
+ * the shorter ruz.resolve.negative-ttl, so a typo does not cost three searches per poll.
+ * Failed lookups (RUZ unreachable) are not cached.
+ */
+@Service
+public class RuzIdResolver {
+
+    private static final Logger log = LoggerFactory.getLogger(RuzIdResolver.class);
+    private static final int MAX_ENTRIES = 10_000;
+
+    private final RuzClient ruz;
+    private final SubjectRepository subjects;
+    private final long ttlMs;
+    private final long negativeTtlMs;
+    private final LongSupplier clock;
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    @Autowired
+    public RuzIdResolver(RuzClient ruz,
+                         SubjectRepository subjects,
+                         @Value("${ruz.resolve.ttl:86400000}") long ttlMs,
+                         @Value("${ruz.resolve.negative-ttl:600000}") long negativeTtlMs) {
+        this(ruz, subjects, ttlMs, negativeTtlMs, System::currentTimeMillis);
+    }
+
+    RuzIdResolver(RuzClient ruz, SubjectRepository subjects, long ttlMs, long negativeTtlMs, LongSupplier clock) {
+        this.ruz = ruz;
+        this.subjects = subjects;
+        this.ttlMs = ttlMs;
+        this.negativeTtlMs = negativeTtlMs;
+        this.clock = clock;
+    }
+
+    /** RUZ id for the code, or null if RUZ does not know it or could not be asked. */
+    public String resolve(SubjectType type, String code) {
+        String key = type + ":" + code;
+        long now = clock.getAsLong();
+        Entry cached = cache.get(key);
+        if (cached != null && cached.expiresAt > now) return cached.ruzId;
+
+        String id;
+        try {
+            id = type == SubjectType.TEACHER ? ruz.resolveTeacherIdByTCode(code) : ruz.resolveGroupIdByCode(code);
+        } catch (RuntimeException e) {
+            log.debug("Could not resolve {} {}: {}", type, code, e.toString());
+            return null;
+        }
+        if (cache.size() >= MAX_ENTRIES) {
+            cache.values().removeIf(en -> en.expiresAt <= now);
+            if (cache.size() >= MAX_ENTRIES) cache.clear();
+        }
+        cache.put(key, new Entry(id, now + (id != null ? ttlMs : negativeTtlMs)));
+        return id;
+    }
+
+    /**
+     * The subject's RUZ id, resolving and storing it first if it is still missing.
+     * Null means there is nothing to fetch for this subject (yet).
+     */
+    public String ruzIdOf(Subject subject) {
+        if (subject.getRuzId() != null) return subject.getRuzId();
+        String id = resolve(subject.getType(), subject.getRuzKey());
+        if (id != null) {
+            subjects.updateRuzId(subject.getId(), id);
+            subject.setRuzId(id);
+        }
+        return id;
+    }
+
+    private record Entry(String ruzId, long expiresAt) {}
+}
@@ -0,0 +1,17 @@
+package com.example.schedulewatcher.service;
+
+/**
+ * Thrown by RuzClient when a call is not even attempted: the endpoint's circuit breaker
+ * is open or the rate limiter has no token in time. The subject is simply polled later.
+ */
+public class RuzUnavailableException extends RuntimeException {
+
+    private final String reason;
+
+    public RuzUnavailableException(String endpoint, String reason) {
+        super("RUZ " + endpoint + " unavailable: " + reason);
+        this.reason = reason;
+    }
+
+    public String getReason() { return reason; }
+}
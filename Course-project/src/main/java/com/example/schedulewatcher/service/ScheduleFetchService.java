@@ -2,69 +2,412 @@ package com.example.schedulewatcher.service;
 
 import com.example.schedulewatcher.model.*;
 import com.example.schedulewatcher.repository.*;
+import com.example.schedulewatcher.util.CanonicalJson;
+import com.example.schedulewatcher.util.LessonDiff;
+import com.example.schedulewatcher.util.ScheduleDiff;
 import com.example.schedulewatcher.util.ScheduleDiffUtil;
+import com.example.schedulewatcher.util.ScheduleHashTree;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
 import java.time.OffsetDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
 public class ScheduleFetchService {
 
+    private static final Logger log = LoggerFactory.getLogger(ScheduleFetchService.class);
+
     private final SubscriptionRepository subs;
+    private final SubjectRepository subjects;
     private final SnapshotRepository snaps;
     private final EventRepository events;
     private final NotificationService notifier;
     private final RuzClient ruz;
+    private final RuzIdResolver ruzIds;
+    private final FetchStateRepository states;
+    private final SnapshotPayloadStore payloads;
+    private final CanonicalJson canonical;
+    private final PollScheduler scheduler;
+    private final LeaseService leases;
+    private final DiffTextRenderer texts;
+    private final ExecutorService fetchExecutor;
+    private final TransactionTemplate tx;
+    private final Timer cycleTimer;
+    private final Timer subjectTimer;
+    /** Subjects a cycle on this node is polling right now; leases only keep other nodes out. */
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
 
-    public ScheduleFetchService(SubscriptionRepository subs, SnapshotRepository snaps, EventRepository events,
-                                NotificationService notifier, RuzClient ruz) {
+    public ScheduleFetchService(SubscriptionRepository subs, SubjectRepository subjects, SnapshotRepository snaps,
+                                EventRepository events, NotificationService notifier, RuzClient ruz,
+                                RuzIdResolver ruzIds, FetchStateRepository states,
+                                SnapshotPayloadStore payloads, CanonicalJson canonical,
+                                PollScheduler scheduler, LeaseService leases, DiffTextRenderer texts,
+                                @Qualifier("fetchExecutor") ExecutorService fetchExecutor, PlatformTransactionManager txManager,
+                                MeterRegistry metrics) {
         this.subs = subs;
+        this.subjects = subjects;
         this.snaps = snaps;
         this.events = events;
         this.notifier = notifier;
         this.ruz = ruz;
+        this.ruzIds = ruzIds;
+        this.states = states;
+        this.payloads = payloads;
+        this.canonical = canonical;
+        this.scheduler = scheduler;
+        this.leases = leases;
+        this.texts = texts;
+        this.fetchExecutor = fetchExecutor;
+        this.tx = new TransactionTemplate(txManager);
+        this.cycleTimer = Timer.builder("fetcher.cycle")
+                .description("Wall time of one fetch cycle")
+                .register(metrics);
+        this.subjectTimer = Timer.builder("fetcher.subject.latency")
+                .description("Fetch + hash + diff time of a single subject")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(metrics);
+    }
+
+    /**
+     * Polls the subjects whose adaptive interval has elapsed (see PollScheduler) and
+     * that this node could lease (see LeaseService).
+     * Runs every fetcher.tick; most ticks find nothing due and cost a single query.
+     */
+    @Scheduled(fixedDelayString = "${fetcher.tick:5000}")
+    public void pollDue() {
+        Map<Long, Boolean> watched = new HashMap<>();
+        for (SubscriptionRepository.WatchedSubject w : subs.findWatchedSubjects()) {
+            watched.put(w.getSubjectId(), w.getImportantCount() != null && w.getImportantCount() > 0);
+        }
+        if (watched.isEmpty()) return;
+
+        long now = System.currentTimeMillis();
+        List<Long> fresh = scheduler.unscheduled(watched.keySet());
+        if (!fresh.isEmpty()) {
+            Map<Long, FetchState> known = states.findAllById(fresh).stream()
+                    .collect(Collectors.toMap(FetchState::getSubjectId, Function.identity()));
+            for (Long id : fresh) scheduler.admit(id, known.get(id), now);
+        }
+
+        List<Long> due = scheduler.takeDue(watched.keySet(), now);
+        if (due.isEmpty()) return;
+
+        LeaseService.Claim claim = leases.claim(due, now);
+        claim.notBefore().forEach(scheduler::requeue);
+        if (claim.acquired().isEmpty()) return;
+        runExclusive(claim.acquired(), watched);
     }
 
-    @Scheduled(fixedDelayString = "${fetcher.fixedDelay:60000}")
-    @Transactional
+    /** Polls every subscribed subject once, regardless of its schedule. */
     public void fetchAll() {
         // Gather subjects from subscriptions
-        List<Subscription> all = subs.findAll();
-        Map<Subject, List<Subscription>> bySubject = all.stream().collect(Collectors.groupingBy(Subscription::getSubject));
-
-        for (Map.Entry<Subject, List<Subscription>> entry : bySubject.entrySet()) {
-            Subject subject = entry.getKey();
-            List<Subscription> sSubs = subs.findAllBySubjectIdFetchUser(subject.getId());
-            String json = ruz.fetchScheduleJson(subject.getType().name(), subject.getRuzKey());
-            String hash = ScheduleDiffUtil.sha256(json);
-            String oldRaw = snaps.findTopBySubjectOrderBySnapshotAtDesc(subject)
-                    .map(Snapshot::getRaw).orElse(null);
-
-            if (oldRaw == null || !hash.equals(ScheduleDiffUtil.sha256(oldRaw))) {
-                // Changed
-                String diff = ScheduleDiffUtil.diff(oldRaw, json);
-                Event evt = new Event();
-                evt.setSubject(subject);
-                evt.setEventTime(OffsetDateTime.now());
-                evt.setDiff(diff);
-                evt.setHash(hash);
-                events.insertIgnore(java.time.OffsetDateTime.now(), diff, evt.getEventTime(), hash, subject.getId());
-
-                // Save snapshot
-                Snapshot snap = new Snapshot();
-                snap.setSubject(subject);
-                snap.setSnapshotAt(OffsetDateTime.now());
-                snap.setPayloadHash(hash);
-                snap.setRaw(json);
-                snaps.save(snap);
-
-                // Notify email
-                notifier.notifyByEmail(sSubs, evt);
+        Map<Long, Boolean> important = new LinkedHashMap<>();
+        for (SubscriptionRepository.WatchedSubject w : subs.findWatchedSubjects()) {
+            important.put(w.getSubjectId(), w.getImportantCount() != null && w.getImportantCount() > 0);
+        }
+        if (important.isEmpty()) return;
+        runExclusive(important.keySet(), important);
+    }
+
+    /**
+     * Polls one subject right now, e.g. when an admin asks for it, whether it is due or not.
+     * Returns false if it is being polled at the moment, by a cycle here or by another node
+     * holding its lease. A RUZ response for the same schedule finished a moment ago is
+     * shared instead of asking RUZ again (see RuzClient).
+     */
+    public boolean refresh(Long subjectId) {
+        Subject subject = subjects.findById(subjectId).orElse(null);
+        if (subject == null) return false;
+        if (!inFlight.add(subjectId)) return false;
+        try {
+            if (!leases.claimNow(subjectId, System.currentTimeMillis())) return false;
+            runCycle(List.of(subject), Map.of(subjectId, subs.existsBySubject_IdAndImportantTrue(subjectId)));
+            return true;
+        } finally {
+            inFlight.remove(subjectId);
+        }
+    }
+
+    /**
+     * Runs a cycle over the subjects that no other cycle on this node is polling. The ones
+     * left out need nothing else: the cycle polling them re-queues them when it is done.
+     */
+    private void runExclusive(Collection<Long> ids, Map<Long, Boolean> important) {
+        List<Long> mine = new ArrayList<>();
+        for (Long id : ids) if (inFlight.add(id)) mine.add(id);
+        if (mine.isEmpty()) return;
+        try {
+            runCycle(subjects.findAllById(mine), important);
+        } finally {
+            inFlight.removeAll(mine);
+        }
+    }
+
+    /**
+     * No transaction is held across a cycle: fetches run on the pool without one, every
+     * subject's writes commit in their own short transaction, together with the mails they
+     * queue in the outbox, which NotificationOutboxWorker sends in the background. A slow
+     * RUZ response or SMTP server therefore never pins a pooled connection or holds up the
+     * cycle, and a failing subject only loses its own writes.
+     */
+    private void runCycle(Collection<Subject> batch, Map<Long, Boolean> important) {
+        long started = System.nanoTime();
+
+        // Hashing and diffing run on the fetch pool, the RUZ calls in between are async and
+        // hold no pool thread while waiting for the response ...
+        Map<Subject, CompletableFuture<FetchResult>> pending = new LinkedHashMap<>();
+        for (Subject subject : batch) {
+            pending.put(subject, fetchOne(subject));
+        }
+
+        // ... while writes are applied here, one subject at a time, each subject's event,
+        // snapshot and queued notifications in one transaction.
+        int changed = 0, failed = 0, skipped = 0;
+        for (Map.Entry<Subject, CompletableFuture<FetchResult>> e : pending.entrySet()) {
+            FetchResult r;
+            try {
+                r = e.getValue().get();
+            } catch (ExecutionException ex) {
+                // not a RUZ failure (those arrive as outcomes) but a bug or a database error while hashing
+                long retryAt = scheduler.retryLater(e.getKey().getId(), System.currentTimeMillis());
+                leases.release(e.getKey().getId(), retryAt);
+                failed++;
+                log.warn("Fetch failed for subject {}: {}", e.getKey().getId(), ex.getCause().toString());
+                continue;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                pending.values().forEach(p -> p.cancel(true));
+                return;
+            }
+
+            if (r.failure != null) {
+                // nothing is written for a failed fetch: the last good snapshot stays current
+                Long id = r.subject.getId();
+                if (r.failure.getStatus() == FetchOutcome.Status.TRANSIENT_FAILURE) {
+                    skipped++;   // RUZ is down, slow or we are over the rate limit; counted, not logged per subject
+                    leases.release(id, scheduler.retryLater(id, System.currentTimeMillis()));
+                } else {
+                    failed++;
+                    log.warn("Fetch failed for subject {}: {}", id, r.failure.getFailure());
+                    // retrying soon will not help; come back at the subject's normal pace
+                    Long interval = r.state.getPollIntervalMs();
+                    long nowMs = System.currentTimeMillis();
+                    long retryAt = interval != null ? nowMs + interval : scheduler.retryLater(id, nowMs);
+                    scheduler.requeue(id, retryAt);
+                    leases.release(id, retryAt);
+                }
+                continue;
+            }
+
+            boolean isChanged = r.diff != null;
+            OffsetDateTime now = OffsetDateTime.now();
+            boolean dirty = scheduler.reschedule(r.state, important.getOrDefault(r.subject.getId(), false),
+                    isChanged, now);
+            try {
+                tx.executeWithoutResult(status -> {
+                    if (isChanged) apply(r);
+                    if (r.stateDirty || dirty || isChanged) {
+                        states.save(r.state);
+                    }
+                });
+            } catch (RuntimeException ex) {
+                failed++;
+                long retryAt = scheduler.retryLater(r.subject.getId(), System.currentTimeMillis());
+                leases.release(r.subject.getId(), retryAt);
+                log.warn("Saving changes failed for subject {}: {}", r.subject.getId(), ex.toString());
+                continue;
             }
+            if (isChanged) changed++;
+            leases.release(r.subject.getId(), now.toInstant().toEpochMilli() + r.state.getPollIntervalMs());
+        }
+
+        long elapsed = System.nanoTime() - started;
+        cycleTimer.record(elapsed, TimeUnit.NANOSECONDS);
+        log.info("Fetch cycle: {} subjects, {} changed, {} failed, {} skipped in {} ms",
+                pending.size(), changed, failed, skipped, TimeUnit.NANOSECONDS.toMillis(elapsed));
+    }
+
+    private CompletableFuture<FetchResult> fetchOne(Subject subject) {
+        long t0 = System.nanoTime();
+        return CompletableFuture
+                .supplyAsync(() -> {
+                    ruzIds.ruzIdOf(subject);   // normally already set at subscribe time
+                    return states.findById(subject.getId()).orElseGet(() -> new FetchState(subject.getId()));
+                }, fetchExecutor)
+                .thenCompose(state -> {
+                    if (subject.getRuzId() == null) {
+                        // RUZ does not know this code (yet); asked again, mostly from cache, on later polls
+                        return CompletableFuture.completedFuture(FetchResult.unchanged(subject, state, false));
+                    }
+                    return ruz.fetchScheduleAsync(subject.getType().name(), subject.getRuzId(),
+                                    state.getEtag(), state.getLastModified())
+                            .thenApplyAsync(outcome -> process(subject, state, outcome), fetchExecutor);
+                })
+                .whenComplete((r, e) -> subjectTimer.record(System.nanoTime() - t0, TimeUnit.NANOSECONDS));
+    }
+
+    private FetchResult process(Subject subject, FetchState state, FetchOutcome outcome) {
+        if (outcome.isFailure()) {
+            return FetchResult.failed(subject, state, outcome);
+        }
+        if (outcome.isNotModified()) {
+            return FetchResult.unchanged(subject, state, false);
+        }
+
+        // remember the new validators, but only write them when RUZ actually changed them
+        boolean validatorsChanged = false;
+        if (!Objects.equals(state.getEtag(), outcome.getEtag())
+                || !Objects.equals(state.getLastModified(), outcome.getLastModified())) {
+            state.setEtag(outcome.getEtag());
+            state.setLastModified(outcome.getLastModified());
+            state.setCheckedAt(OffsetDateTime.now());
+            validatorsChanged = true;
+        }
+
+        String json = outcome.getBody();
+        String hash = canonical.sha256(json);
+        // the state row, read for the validators anyway, holds the hash of the latest snapshot
+        if (hash.equals(state.getPayloadHash())) {
+            return FetchResult.unchanged(subject, state, validatorsChanged);
+        }
+
+        // hashes differ (or nothing stored yet): only now read the previous payload, for the diff
+        Snapshot previous = snaps.findTopBySubjectOrderBySnapshotAtDesc(subject).orElse(null);
+        if (previous != null && hash.equals(previous.getPayloadHash())) {
+            // the state was behind, e.g. it has no hash yet for a snapshot stored before
+            state.setPayloadHash(previous.getPayloadHash());
+            state.setSnapshotId(previous.getId());
+            return FetchResult.unchanged(subject, state, true);
+        }
+
+        List<LessonDiff.Day> positions = new ArrayList<>();
+        List<LessonDiff.Lesson> lessons = lessonsOf(json, null, positions);
+        ScheduleHashTree tree = lessons != null ? ScheduleHashTree.of(lessons, positions) : null;
+        String treeJson = tree != null ? tree.toJson() : null;
+        ScheduleHashTree oldTree = tree != null && previous != null ? ScheduleHashTree.fromJson(previous.getHashTree()) : null;
+        if (oldTree != null) {
+            // walk the two trees: only days whose hashes differ are diffed, only those days are
+            // cut out of the old payload and parsed, and when no lesson changed at all (only data
+            // around the lessons) the old payload is not even loaded
+            Set<String> days = tree.changedDays(oldTree);
+            List<LessonDiff.Lesson> before = List.of();
+            if (!days.isEmpty()) {
+                String oldRaw = payloads.rawOf(previous);
+                String oldDays = oldRaw != null ? oldTree.slice(oldRaw, days) : null;
+                before = oldDays != null ? lessonsOf(oldDays, days, null) : null;
+                if (before == null || !oldTree.covers(before, days)) before = lessonsOf(oldRaw, days, null);
+            }
+            if (before != null) {
+                List<LessonDiff.Lesson> after = new ArrayList<>();
+                for (LessonDiff.Lesson l : lessons) if (days.contains(String.valueOf(l.date()))) after.add(l);
+                return new FetchResult(subject, json, hash, ScheduleDiffUtil.compare(before, after), treeJson, state,
+                        validatorsChanged);
+            }
+        }
+
+        String oldRaw = previous != null ? payloads.rawOf(previous) : null;
+        if (oldRaw != null && hash.equals(canonical.sha256(oldRaw))) {
+            // same content, only serialized differently (or hashed before canonical hashing existed)
+            state.setPayloadHash(hash);
+            state.setSnapshotId(previous.getId());
+            return FetchResult.unchanged(subject, state, true);
+        }
+        return new FetchResult(subject, json, hash, ScheduleDiffUtil.compare(oldRaw, json), treeJson, state,
+                validatorsChanged);
+    }
+
+    /** Lessons of a schedule payload (on the given dates only, unless null); null when it is no schedule. */
+    private static List<LessonDiff.Lesson> lessonsOf(String json, Set<String> dates, List<LessonDiff.Day> positions) {
+        if (json == null) return null;
+        try {
+            return LessonDiff.parse(json, dates, positions);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Writes the event and snapshot of a changed subject and queues its subscribers' mails. */
+    private void apply(FetchResult r) {
+        Subject subject = r.subject;
+        List<SubscriptionRepository.Recipient> recipients = subs.findRecipientsBySubjectId(subject.getId());
+
+        Event evt = new Event();
+        evt.setSubject(subject);
+        evt.setEventTime(OffsetDateTime.now());
+        evt.setScheduleDiff(r.diff);
+        evt.setHash(r.hash);
+        texts.render(evt);
+        events.insertIgnore(OffsetDateTime.now(), evt.getDiff(), evt.getDiffTextEn(), evt.getDiffTextZh(),
+                evt.getEventTime(), r.hash, subject.getId());
+
+        // Save snapshot
+        Snapshot snap = new Snapshot();
+        snap.setSubject(subject);
+        snap.setSnapshotAt(OffsetDateTime.now());
+        snap.setPayloadHash(r.hash);
+        snap.setHashTree(r.hashTree);
+        payloads.put(r.hash, r.json);
+        snaps.save(snap);
+        r.state.setPayloadHash(r.hash);
+        r.state.setSnapshotId(snap.getId());
+
+        notifier.enqueue(recipients, evt);
+    }
+
+    /**
+     * Outcome of the concurrent stage for one subject; diff is null when nothing changed,
+     * stateDirty is set when the stored validators have to be rewritten, failure is set
+     * when RUZ gave no usable schedule.
+     */
+    private static final class FetchResult {
+        final Subject subject;
+        final String json;
+        final String hash;
+        final ScheduleDiff diff;
+        final String hashTree;
+        final FetchState state;
+        final boolean stateDirty;
+        final FetchOutcome failure;
+
+        FetchResult(Subject subject, String json, String hash, ScheduleDiff diff, String hashTree, FetchState state,
+                    boolean stateDirty) {
+            this(subject, json, hash, diff, hashTree, state, stateDirty, null);
+        }
+
+        private FetchResult(Subject subject, String json, String hash, ScheduleDiff diff, String hashTree, FetchState state,
+                            boolean stateDirty, FetchOutcome failure) {
+            this.subject = subject;
+            this.json = json;
+            this.hash = hash;
+            this.diff = diff;
+            this.hashTree = hashTree;
+            this.state = state;
+            this.stateDirty = stateDirty;
+            this.failure = failure;
+        }
+
+        static FetchResult unchanged(Subject subject, FetchState state, boolean stateDirty) {
+            return new FetchResult(subject, null, null, null, null, state, stateDirty);
+        }
+
+        static FetchResult failed(Subject subject, FetchState state, FetchOutcome failure) {
+            return new FetchResult(subject, null, null, null, null, state, false, failure);
         }
     }
 }
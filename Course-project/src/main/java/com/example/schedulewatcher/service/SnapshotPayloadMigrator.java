@@ -0,0 +1,60 @@
+package com.example.schedulewatcher.service;
+
+import com.example.schedulewatcher.model.Snapshot;
+import com.example.schedulewatcher.repository.SnapshotRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Moves payloads of old snapshots from snapshots.raw into snapshot_payloads, a batch per
+ * transaction, and clears the inline copy. Once nothing is left each run is one indexed query.
+ */
+@Component
+public class SnapshotPayloadMigrator {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotPayloadMigrator.class);
+
+    private final SnapshotRepository snaps;
+    private final SnapshotPayloadStore store;
+    private final TransactionTemplate tx;
+    private final int batchSize;
+
+    public SnapshotPayloadMigrator(SnapshotRepository snaps,
+                                   SnapshotPayloadStore store,
+                                   PlatformTransactionManager txManager,
+                                   @Value("${snapshots.migration.batch-size:500}") int batchSize) {
+        this.snaps = snaps;
+        this.store = store;
+        this.tx = new TransactionTemplate(txManager);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Scheduled(fixedDelayString = "${snapshots.migration.delay:60000}")
+    public void migrate() {
+        int moved = 0, n;
+        do {
+            n = migrateBatch();
+            moved += n;
+        } while (n == batchSize);
+        if (moved > 0) log.info("Moved {} snapshot payloads to snapshot_payloads", moved);
+    }
+
+    /** @return number of snapshots migrated */
+    public int migrateBatch() {
+        Integer n = tx.execute(status -> {
+            List<Snapshot> batch = snaps.findWithInlineRaw(PageRequest.of(0, batchSize));
+            for (Snapshot s : batch) store.put(s.getPayloadHash(), s.getRaw());
+            if (!batch.isEmpty()) snaps.clearRaw(batch.stream().map(Snapshot::getId).toList());
+            return batch.size();
+        });
+        return n == null ? 0 : n;
+    }
+}
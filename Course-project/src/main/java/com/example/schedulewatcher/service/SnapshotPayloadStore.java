@@ -0,0 +1,71 @@
+package com.example.schedulewatcher.service;
+
+import com.example.schedulewatcher.model.Snapshot;
+import com.example.schedulewatcher.repository.SnapshotPayloadRepository;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content-addressed storage of schedule payloads. A payload is gzipped and written once
+ * under its hash; snapshots with the same content (subjects often flip back and forth
+ * between two versions) share that row instead of each carrying its own jsonb copy.
+ *
+ * Snapshots written before this existed still have their payload inline in snapshots.raw;
+ * {@link #rawOf} reads both, and SnapshotPayloadMigrator moves the old ones over.
+ */
+@Service
+public class SnapshotPayloadStore {
+
+    private final SnapshotPayloadRepository payloads;
+
+    public SnapshotPayloadStore(SnapshotPayloadRepository payloads) {
+        this.payloads = payloads;
+    }
+
+    /**
+     * Stores the payload under its hash. When that content is stored already, the row is
+     * locked instead, so the retention sweep cannot delete it before the snapshot that
+     * refers to it is committed; if the sweep got there first it is stored again.
+     */
+    public void put(String hash, String raw) {
+        byte[] bytes = raw.getBytes(StandardCharsets.UTF_8);
+        byte[] body = gzip(bytes);
+        if (payloads.insertIfAbsent(hash, body, bytes.length, OffsetDateTime.now()) == 0 && payloads.touch(hash) == 0) {
+            payloads.insertIfAbsent(hash, body, bytes.length, OffsetDateTime.now());
+        }
+    }
+
+    /** The snapshot's payload, from the shared store or, for old rows, inline. */
+    public String rawOf(Snapshot snapshot) {
+        if (snapshot.getRaw() != null) return snapshot.getRaw();
+        return payloads.findById(snapshot.getPayloadHash())
+                .map(p -> new String(gunzip(p.getBody()), StandardCharsets.UTF_8))
+                .orElse(null);
+    }
+
+    static byte[] gzip(byte[] bytes) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, bytes.length / 4));
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] gunzip(byte[] bytes) {
+        try (GZIPInputStream gz = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return gz.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -8,7 +8,9 @@ import com.example.schedulewatcher.repository.SubjectRepository;
 import com.example.schedulewatcher.repository.SubscriptionRepository;
 import com.example.schedulewatcher.repository.UserRepository;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDate;
 import java.time.LocalTime;
@@ -24,13 +26,19 @@ public class SubscriptionService {
     private final SubscriptionRepository subs;
     private final SubjectRepository subjects;
     private final UserRepository users;
+    private final RuzIdResolver resolver;
+    private final TransactionTemplate tx;
 
     public SubscriptionService(SubscriptionRepository subs,
                                SubjectRepository subjects,
-                               UserRepository users) {
+                               UserRepository users,
+                               RuzIdResolver resolver,
+                               PlatformTransactionManager txManager) {
         this.subs = subs;
         this.subjects = subjects;
         this.users = users;
+        this.resolver = resolver;
+        this.tx = new TransactionTemplate(txManager);
     }
 
     private ParsedInput parse(String raw) {
@@ -113,7 +121,11 @@ public class SubscriptionService {
         return v.replace("\\", "\\\\").replace("\"", "\\\"");
     }
 
-    @Transactional
+    /**
+     * Subscribes the user to the subject named by code, creating the subject on first use.
+     * The RUZ id is looked up before the transaction starts, so a slow RUZ search does not
+     * hold a connection; if it cannot be found now, the fetcher retries on later polls.
+     */
     public Optional<Subscription> addByInput(Long userId, String code) {
         if (code == null || code.isBlank())
             throw new IllegalArgumentException("empty code");
@@ -122,30 +134,40 @@ public class SubscriptionService {
         if (pi == null)
             throw new IllegalArgumentException("Unknown code: " + code.trim());
 
-        Subject subject = subjects.findByRuzKey(pi.ruzKey)
-                .orElseGet(() -> {
-                    Subject s = new Subject();
-                    s.setName(pi.name);
-                    s.setRuzKey(pi.ruzKey);
-                    s.setType(pi.type);
-                    return subjects.save(s);
-                });
-
-        if (subs.existsByUser_IdAndSubject_Id(userId, subject.getId())) {
-            return Optional.empty();
-        }
-
-        User user = users.findById(userId).orElseThrow();
-
-        Subscription s = new Subscription();
-        s.setUser(user);
-        s.setSubject(subject);
-        s.setImportant(false);
-        s.setCreatedAt(OffsetDateTime.now());
-        s.setChannels("[\"web\",\"email\"]");
-        s.setFilters(pi.filtersJson != null ? pi.filtersJson : "{}");
-
-        return Optional.of(subs.save(s));
+        String knownId = subjects.findByRuzKey(pi.ruzKey).map(Subject::getRuzId).orElse(null);
+        String ruzId = knownId != null ? knownId : resolver.resolve(pi.type, pi.ruzKey);
+
+        return tx.execute(status -> {
+            Subject subject = subjects.findByRuzKey(pi.ruzKey)
+                    .orElseGet(() -> {
+                        Subject s = new Subject();
+                        s.setName(pi.name);
+                        s.setRuzKey(pi.ruzKey);
+                        s.setRuzId(ruzId);
+                        s.setType(pi.type);
+                        return subjects.save(s);
+                    });
+            if (subject.getRuzId() == null && ruzId != null) {
+                subject.setRuzId(ruzId);
+                subjects.save(subject);
+            }
+
+            if (subs.existsByUser_IdAndSubject_Id(userId, subject.getId())) {
+                return Optional.<Subscription>empty();
+            }
+
+            User user = users.findById(userId).orElseThrow();
+
+            Subscription s = new Subscription();
+            s.setUser(user);
+            s.setSubject(subject);
+            s.setImportant(false);
+            s.setCreatedAt(OffsetDateTime.now());
+            s.setChannels("[\"web\",\"email\"]");
+            s.setFilters(pi.filtersJson != null ? pi.filtersJson : "{}");
+
+            return Optional.of(subs.save(s));
+        });
     }
 
     @Transactional
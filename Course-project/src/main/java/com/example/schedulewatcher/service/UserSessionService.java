@@ -6,6 +6,7 @@ import jakarta.servlet.http.HttpSession;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Locale;
 import java.util.Optional;
 
 @Service
@@ -37,8 +38,9 @@ public class UserSessionService {
         return u;
     }
 
+    /** Sets the email, and the language mails are written in to the one the user sees the site in. */
     @Transactional
-    public void updateEmail(HttpSession session, String email) {
+    public void updateEmail(HttpSession session, String email, Locale locale) {
         User me = current(session);
 
         Optional<User> existed = users.findByEmail(email);
@@ -48,6 +50,16 @@ public class UserSessionService {
         }
 
         me.setEmail(email);
+        me.setLocale(locale.getLanguage());
+        users.save(me);
+    }
+
+    /** Sets the digest window in minutes (at most a day); 0 or less mails every change right away. */
+    @Transactional
+    public void updateDigest(HttpSession session, int minutes, Locale locale) {
+        User me = current(session);
+        me.setDigestMinutes(minutes > 0 ? Math.min(minutes, 1440) : null);
+        me.setLocale(locale.getLanguage());
         users.save(me);
     }
 }
@@ -0,0 +1,45 @@
+package com.example.schedulewatcher.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking counterpart of a Semaphore: acquire() returns a future that completes
+ * once a permit is free, so waiting for a permit does not park a thread.
+ * Waiters are served in FIFO order.
+ */
+public final class AsyncPermits {
+
+    private final Deque<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+    private int available;
+
+    public AsyncPermits(int permits) {
+        this.available = Math.max(1, permits);
+    }
+
+    public CompletableFuture<Void> acquire() {
+        synchronized (this) {
+            if (available > 0) {
+                available--;
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> waiter = new CompletableFuture<>();
+            waiters.add(waiter);
+            return waiter;
+        }
+    }
+
+    public void release() {
+        CompletableFuture<Void> next;
+        synchronized (this) {
+            next = waiters.poll();
+            if (next == null) {
+                available++;
+                return;
+            }
+        }
+        // hand the permit over outside the lock; the waiter's continuation runs right here
+        next.complete(null);
+    }
+}
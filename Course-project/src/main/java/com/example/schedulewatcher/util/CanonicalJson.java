@@ -0,0 +1,212 @@
+package com.example.schedulewatcher.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Content hash of a JSON document that ignores how RUZ happened to serialize it.
+ *
+ * The document is read once with the streaming parser and re-encoded canonically (object
+ * keys sorted, no whitespace, fields in ignoredFields dropped at any depth) as UTF-8 bytes
+ * that go straight into SHA-256. Only object members are buffered, since they have to be
+ * sorted; arrays and scalars are written through.
+ *
+ * Two payloads hash equal exactly when they differ only in key order, whitespace, escaping
+ * or ignored fields. Text that is not JSON is hashed as its UTF-8 bytes.
+ */
+public final class CanonicalJson {
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final Set<String> ignoredFields;
+
+    public CanonicalJson(Collection<String> ignoredFields) {
+        this.ignoredFields = Set.copyOf(ignoredFields);
+    }
+
+    /** Hex SHA-256 of the canonical form. */
+    public String sha256(String json) {
+        MessageDigest md = sha256();
+        try (JsonParser p = JSON.createParser(json)) {
+            DigestSink out = new DigestSink(md);
+            if (p.nextToken() != null) writeValue(p, out);
+            if (p.nextToken() != null) throw new IOException("trailing content");
+            out.flush();
+        } catch (IOException notJson) {
+            md.reset();
+            md.update(json.getBytes(StandardCharsets.UTF_8));
+        }
+        return HexFormat.of().formatHex(md.digest());
+    }
+
+    /** Canonical UTF-8 encoding, for tests and debugging. */
+    byte[] canonicalBytes(String json) throws IOException {
+        try (JsonParser p = JSON.createParser(json)) {
+            Buffer out = new Buffer();
+            if (p.nextToken() != null) writeValue(p, out);
+            return Arrays.copyOf(out.bytes, out.length);
+        }
+    }
+
+    private void writeValue(JsonParser p, Sink out) throws IOException {
+        switch (p.currentToken()) {
+            case START_OBJECT -> writeObject(p, out);
+            case START_ARRAY -> {
+                out.write('[');
+                boolean first = true;
+                while (p.nextToken() != JsonToken.END_ARRAY) {
+                    if (!first) out.write(',');
+                    writeValue(p, out);
+                    first = false;
+                }
+                out.write(']');
+            }
+            case VALUE_STRING -> writeString(p.getTextCharacters(), p.getTextOffset(), p.getTextLength(), out);
+            case VALUE_NUMBER_INT -> writeAscii(p.getNumberType() == JsonParser.NumberType.BIG_INTEGER
+                    ? p.getBigIntegerValue().toString() : Long.toString(p.getLongValue()), out);
+            // 1.50, 1.5 and 15e-1 are the same number
+            case VALUE_NUMBER_FLOAT -> writeAscii(p.getDecimalValue().stripTrailingZeros().toPlainString(), out);
+            case VALUE_TRUE -> writeAscii("true", out);
+            case VALUE_FALSE -> writeAscii("false", out);
+            case VALUE_NULL -> writeAscii("null", out);
+            default -> throw new IOException("unexpected " + p.currentToken());
+        }
+    }
+
+    private void writeObject(JsonParser p, Sink out) throws IOException {
+        List<Member> members = new ArrayList<>();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            p.nextToken();
+            if (ignoredFields.contains(name)) {
+                p.skipChildren();
+                continue;
+            }
+            Buffer value = new Buffer();
+            writeValue(p, value);
+            members.add(new Member(name, value));
+        }
+        members.sort(Comparator.comparing(Member::name));
+
+        out.write('{');
+        for (int i = 0; i < members.size(); i++) {
+            if (i > 0) out.write(',');
+            Member m = members.get(i);
+            writeString(m.name.toCharArray(), 0, m.name.length(), out);
+            out.write(':');
+            out.write(m.value.bytes, 0, m.value.length);
+        }
+        out.write('}');
+    }
+
+    /** JSON string with minimal escaping, encoded as UTF-8. */
+    private static void writeString(char[] chars, int off, int len, Sink out) {
+        out.write('"');
+        for (int i = off, end = off + len; i < end; i++) {
+            char c = chars[i];
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write('\\');
+                out.write('u');
+                out.write('0');
+                out.write('0');
+                out.write(HEX[c >> 4]);
+                out.write(HEX[c & 0xF]);
+            } else if (c < 0x80) {
+                out.write(c);
+            } else if (c < 0x800) {
+                out.write(0xC0 | (c >> 6));
+                out.write(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(chars[i + 1])) {
+                int cp = Character.toCodePoint(c, chars[++i]);
+                out.write(0xF0 | (cp >> 18));
+                out.write(0x80 | ((cp >> 12) & 0x3F));
+                out.write(0x80 | ((cp >> 6) & 0x3F));
+                out.write(0x80 | (cp & 0x3F));
+            } else {
+                out.write(0xE0 | (c >> 12));
+                out.write(0x80 | ((c >> 6) & 0x3F));
+                out.write(0x80 | (c & 0x3F));
+            }
+        }
+        out.write('"');
+    }
+
+    private static void writeAscii(String s, Sink out) {
+        for (int i = 0; i < s.length(); i++) out.write(s.charAt(i));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private record Member(String name, Buffer value) {}
+
+    private interface Sink {
+        void write(int b);
+
+        void write(byte[] b, int off, int len);
+    }
+
+    /** Feeds the digest in chunks rather than byte by byte. */
+    private static final class DigestSink implements Sink {
+        private final MessageDigest md;
+        private final byte[] chunk = new byte[8192];
+        private int length;
+
+        DigestSink(MessageDigest md) {
+            this.md = md;
+        }
+
+        public void write(int b) {
+            if (length == chunk.length) flush();
+            chunk[length++] = (byte) b;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            flush();
+            md.update(b, off, len);
+        }
+
+        void flush() {
+            md.update(chunk, 0, length);
+            length = 0;
+        }
+    }
+
+    private static final class Buffer implements Sink {
+        byte[] bytes = new byte[64];
+        int length;
+
+        public void write(int b) {
+            if (length == bytes.length) bytes = Arrays.copyOf(bytes, length * 2);
+            bytes[length++] = (byte) b;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            if (length + len > bytes.length) bytes = Arrays.copyOf(bytes, Math.max(length * 2, length + len));
+            System.arraycopy(b, off, bytes, length, len);
+            length += len;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.schedulewatcher.util;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Minimal circuit breaker. After failureThreshold consecutive failures it opens and
+ * rejects calls for openMs; then a single trial call is let through (half-open), whose
+ * outcome closes the breaker again or re-opens it.
+ */
+public final class CircuitBreaker {
+
+    public enum State { CLOSED, HALF_OPEN, OPEN }
+
+    /** Notified on every state change, e.g. to count transitions. */
+    public interface Listener {
+        void onTransition(State from, State to);
+    }
+
+    private final int failureThreshold;
+    private final long openMs;
+    private final LongSupplier clockMs;
+    private final Listener listener;
+
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    public CircuitBreaker(int failureThreshold, long openMs, Listener listener) {
+        this(failureThreshold, openMs, System::currentTimeMillis, listener);
+    }
+
+    public CircuitBreaker(int failureThreshold, long openMs, LongSupplier clockMs, Listener listener) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMs = openMs;
+        this.clockMs = clockMs;
+        this.listener = listener;
+    }
+
+    /** @return false when the call must be skipped because the breaker is open */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (clockMs.getAsLong() - openedAt < openMs) return false;
+            moveTo(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialInFlight) return false;
+            trialInFlight = true;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        failures = 0;
+        trialInFlight = false;
+        if (state != State.CLOSED) moveTo(State.CLOSED);
+    }
+
+    public synchronized void onFailure() {
+        trialInFlight = false;
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+            openedAt = clockMs.getAsLong();
+            moveTo(State.OPEN);
+        }
+    }
+
+    /** The acquired call ended without reaching the endpoint: frees a half-open trial, counts nothing. */
+    public synchronized void release() {
+        trialInFlight = false;
+    }
+
+    public synchronized State state() {
+        return state;
+    }
+
+    private void moveTo(State next) {
+        State previous = state;
+        state = next;
+        if (listener != null) listener.onTransition(previous, next);
+    }
+}
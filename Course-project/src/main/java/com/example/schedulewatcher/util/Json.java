@@ -0,0 +1,19 @@
+package com.example.schedulewatcher.util;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+
+/**
+ * The one ObjectMapper for diffs, filters and other small JSON documents. A mapper is
+ * expensive to build and thread-safe once configured, so it is built here once and never
+ * reconfigured; do not create new ones per call.
+ */
+public final class Json {
+
+    public static final ObjectMapper MAPPER = JsonMapper.builder()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+            .build();
+
+    private Json() {}
+}
@@ -0,0 +1,321 @@
+package com.example.schedulewatcher.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Lesson-level comparison of two RUZ schedules.
+ *
+ * A schedule ({"days":[{"date":..,"lessons":[..]}]}, or a plain array of lessons) is
+ * streamed into flat Lesson records. Old and new lessons are then paired in a few passes,
+ * each one a hash lookup per lesson: identical lessons first, then the same subject in
+ * the same slot (room, teacher or end time changed), the same subject on the same day
+ * (moved to another time) and finally whatever else occupies the same slot (replaced).
+ * Pairs become modifications with their field changes; the rest are added or removed.
+ */
+public final class LessonDiff {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    public static final List<String> FIELDS = List.of("date", "start", "end", "subject", "kind", "room", "teacher");
+
+    private LessonDiff() {}
+
+    public record Lesson(String date, String start, String end, String subject, String kind, String room,
+                         String teacher) {
+
+        public String field(String name) {
+            return switch (name) {
+                case "date" -> date;
+                case "start" -> start;
+                case "end" -> end;
+                case "subject" -> subject;
+                case "kind" -> kind;
+                case "room" -> room;
+                case "teacher" -> teacher;
+                default -> throw new IllegalArgumentException(name);
+            };
+        }
+    }
+
+    public record Change(String from, String to) {}
+
+    /** A lesson that is still there but changed; changes is keyed by field name, in FIELDS order. */
+    public record Modified(Lesson before, Lesson after, Map<String, Change> changes) {}
+
+    public record Result(List<Lesson> added, List<Lesson> removed, List<Modified> modified) {
+        public boolean isEmpty() {
+            return added.isEmpty() && removed.isEmpty() && modified.isEmpty();
+        }
+    }
+
+    /** Where a day's object ({"date":..,"lessons":[..]}) sits in the payload, as char offsets [from, to). */
+    public record Day(String date, int from, int to) {}
+
+    /**
+     * All lessons of a schedule in document order, or null when the JSON is not a schedule.
+     * Read with the streaming parser, so no tree of the whole payload is ever built; a
+     * lesson without a date of its own takes its day's.
+     */
+    public static List<Lesson> parse(String json) throws IOException {
+        return parse(json, null);
+    }
+
+    /**
+     * Like {@link #parse(String)} but keeps only lessons on the given dates. Days that are
+     * not wanted are skipped without building their lessons, as long as the day's date
+     * comes before its lessons (as it does in RUZ payloads).
+     */
+    public static List<Lesson> parse(String json, Set<String> dates) throws IOException {
+        return parse(json, dates, null);
+    }
+
+    /** Like {@link #parse(String, Set)}, and adds the position of every day of a "days" payload to days. */
+    public static List<Lesson> parse(String json, Set<String> dates, List<Day> days) throws IOException {
+        List<Lesson> all = read(json, dates, days);
+        if (all == null || dates == null) return all;
+        List<Lesson> out = new ArrayList<>();
+        for (Lesson l : all) if (dates.contains(String.valueOf(l.date))) out.add(l);
+        return out;
+    }
+
+    private static List<Lesson> read(String json, Set<String> dates, List<Day> days) throws IOException {
+        try (JsonParser p = JSON.createParser(json)) {
+            JsonToken t = p.nextToken();
+            List<Lesson> out = new ArrayList<>();
+            if (t == JsonToken.START_ARRAY) {
+                readLessons(p, out);
+                return out;
+            }
+            if (t != JsonToken.START_OBJECT) return null;
+            boolean schedule = false;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.currentName();
+                t = p.nextToken();
+                if ("days".equals(name) && t == JsonToken.START_ARRAY) {
+                    schedule = true;
+                    while ((t = p.nextToken()) != JsonToken.END_ARRAY) {
+                        if (t != JsonToken.START_OBJECT) {
+                            p.skipChildren();
+                            continue;
+                        }
+                        int from = (int) p.currentTokenLocation().getCharOffset();
+                        String date = readDay(p, dates, out);
+                        if (days != null && date != null) {
+                            days.add(new Day(date, from, (int) p.currentLocation().getCharOffset()));
+                        }
+                    }
+                } else if ("lessons".equals(name) && t == JsonToken.START_ARRAY) {
+                    schedule = true;
+                    readLessons(p, out);
+                } else {
+                    p.skipChildren();
+                }
+            }
+            return schedule ? out : null;
+        }
+    }
+
+    public static Result diff(List<Lesson> before, List<Lesson> after) {
+        // identical lessons cancel out; a multiset, since a lesson can legitimately appear twice
+        Map<Lesson, Integer> unchanged = new HashMap<>(before.size() * 2);
+        for (Lesson l : before) unchanged.merge(l, 1, Integer::sum);
+        List<Lesson> newOnly = new ArrayList<>();
+        for (Lesson l : after) {
+            Integer n = unchanged.get(l);
+            if (n == null) {
+                newOnly.add(l);
+            } else if (n == 1) {
+                unchanged.remove(l);
+            } else {
+                unchanged.put(l, n - 1);
+            }
+        }
+        List<Lesson> oldOnly = new ArrayList<>();
+        for (Lesson l : before) {
+            Integer n = unchanged.get(l);
+            if (n == null) continue;
+            oldOnly.add(l);
+            if (n == 1) unchanged.remove(l);
+            else unchanged.put(l, n - 1);
+        }
+        if (oldOnly.isEmpty() && newOnly.isEmpty()) {
+            return new Result(List.of(), List.of(), List.of());
+        }
+
+        List<Modified> modified = new ArrayList<>();
+        pair(oldOnly, newOnly, l -> l.date + '|' + l.start + '|' + l.subject, modified);
+        pair(oldOnly, newOnly, l -> l.date + '|' + l.subject, modified);
+        pair(oldOnly, newOnly, l -> l.date + '|' + l.start, modified);
+        return new Result(List.copyOf(newOnly), List.copyOf(oldOnly), Collections.unmodifiableList(modified));
+    }
+
+    /** Pairs old and new lessons with the same key, in document order, and removes them from both lists. */
+    private static void pair(List<Lesson> oldOnly, List<Lesson> newOnly, Function<Lesson, String> key,
+                             List<Modified> out) {
+        if (oldOnly.isEmpty() || newOnly.isEmpty()) return;
+        Map<String, Deque<Integer>> byKey = new HashMap<>(oldOnly.size() * 2);
+        for (int i = 0; i < oldOnly.size(); i++) {
+            byKey.computeIfAbsent(key.apply(oldOnly.get(i)), k -> new ArrayDeque<>()).add(i);
+        }
+
+        boolean[] taken = new boolean[oldOnly.size()];
+        List<Lesson> newLeft = new ArrayList<>();
+        for (Lesson after : newOnly) {
+            Deque<Integer> candidates = byKey.get(key.apply(after));
+            Integer i = candidates == null ? null : candidates.poll();
+            if (i == null) {
+                newLeft.add(after);
+                continue;
+            }
+            taken[i] = true;
+            out.add(new Modified(oldOnly.get(i), after, changes(oldOnly.get(i), after)));
+        }
+        if (newLeft.size() == newOnly.size()) return;
+
+        List<Lesson> oldLeft = new ArrayList<>();
+        for (int i = 0; i < oldOnly.size(); i++) if (!taken[i]) oldLeft.add(oldOnly.get(i));
+        oldOnly.clear();
+        oldOnly.addAll(oldLeft);
+        newOnly.clear();
+        newOnly.addAll(newLeft);
+    }
+
+    private static Map<String, Change> changes(Lesson before, Lesson after) {
+        Map<String, Change> out = new LinkedHashMap<>();
+        for (String f : FIELDS) {
+            String from = before.field(f);
+            String to = after.field(f);
+            if (!Objects.equals(from, to)) out.put(f, new Change(from, to));
+        }
+        return Collections.unmodifiableMap(out);
+    }
+
+    /** Reads one day's lessons and returns the day's date (or weekday). */
+    private static String readDay(JsonParser p, Set<String> dates, List<Lesson> out) throws IOException {
+        int first = out.size();
+        String date = null, weekday = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            JsonToken t = p.nextToken();
+            if ("lessons".equals(name) && t == JsonToken.START_ARRAY) {
+                if (dates != null && date != null && !dates.contains(date)) p.skipChildren();
+                else readLessons(p, out);
+            } else if ("date".equals(name) && t.isScalarValue()) date = scalar(p, t);
+            else if ("weekday".equals(name) && t.isScalarValue()) weekday = scalar(p, t);
+            else p.skipChildren();
+        }
+        // the day's date may come after its lessons
+        String dayDate = date != null ? date : weekday;
+        if (dayDate == null) return null;
+        for (int i = first; i < out.size(); i++) {
+            Lesson l = out.get(i);
+            if (l.date == null) {
+                out.set(i, new Lesson(dayDate, l.start, l.end, l.subject, l.kind, l.room, l.teacher));
+            }
+        }
+        return dayDate;
+    }
+
+    private static void readLessons(JsonParser p, List<Lesson> out) throws IOException {
+        JsonToken t;
+        while ((t = p.nextToken()) != JsonToken.END_ARRAY) {
+            if (t == JsonToken.START_OBJECT) out.add(readLesson(p));
+            else p.skipChildren();
+        }
+    }
+
+    /**
+     * RUZ nests the kind ({"typeObj":{"name":..}}), rooms ({"auditories":[{"name":..,"building":{"name":..}}]})
+     * and teachers ({"teachers":[{"full_name":..}]}); flatter payloads carry plain strings.
+     * Several rooms or teachers are sorted so their order does not matter.
+     */
+    private static Lesson readLesson(JsonParser p) throws IOException {
+        Map<String, String> fields = new HashMap<>();
+        String kind = null;
+        List<String> rooms = null, teachers = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            JsonToken t = p.nextToken();
+            if (t.isScalarValue()) {
+                String v = scalar(p, t);
+                if (v != null) fields.put(name, v);
+            } else if ("typeObj".equals(name) && t == JsonToken.START_OBJECT) {
+                kind = readName(p);
+            } else if ("auditories".equals(name) && t == JsonToken.START_ARRAY) {
+                rooms = readNames(p);
+            } else if ("teachers".equals(name) && t == JsonToken.START_ARRAY) {
+                teachers = readNames(p);
+            } else {
+                p.skipChildren();
+            }
+        }
+        return new Lesson(
+                fields.get("date"),
+                first(fields, "time_start", "start", "beginLesson"),
+                first(fields, "time_end", "end", "endLesson"),
+                first(fields, "subject", "discipline", "name"),
+                kind != null ? kind : first(fields, "kind", "kindOfWork"),
+                rooms != null ? join(rooms) : first(fields, "room", "auditory", "auditorium"),
+                teachers != null ? join(teachers) : first(fields, "teacher", "lecturer"));
+    }
+
+    private static List<String> readNames(JsonParser p) throws IOException {
+        List<String> names = new ArrayList<>(2);
+        JsonToken t;
+        while ((t = p.nextToken()) != JsonToken.END_ARRAY) {
+            String name = t == JsonToken.START_OBJECT ? readName(p) : t.isScalarValue() ? scalar(p, t) : null;
+            if (t == JsonToken.START_ARRAY) p.skipChildren();
+            if (name != null) names.add(name);
+        }
+        return names;
+    }
+
+    /** "full_name" or "name" of an object, prefixed with its building's name if it has one. */
+    private static String readName(JsonParser p) throws IOException {
+        String fullName = null, name = null, building = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            JsonToken t = p.nextToken();
+            if ("full_name".equals(field) && t.isScalarValue()) fullName = scalar(p, t);
+            else if ("name".equals(field) && t.isScalarValue()) name = scalar(p, t);
+            else if ("building".equals(field) && t == JsonToken.START_OBJECT) building = readName(p);
+            else p.skipChildren();
+        }
+        String own = fullName != null ? fullName : name;
+        return own != null && building != null ? building + ", " + own : own;
+    }
+
+    private static String join(List<String> names) {
+        if (names.isEmpty()) return null;
+        if (names.size() == 1) return names.get(0);
+        Collections.sort(names);
+        return String.join("; ", names);
+    }
+
+    private static String first(Map<String, String> fields, String... names) {
+        for (String n : names) {
+            String v = fields.get(n);
+            if (v != null) return v;
+        }
+        return null;
+    }
+
+    private static String scalar(JsonParser p, JsonToken t) throws IOException {
+        return t == JsonToken.VALUE_NULL ? null : p.getText();
+    }
+}
@@ -0,0 +1,226 @@
+package com.example.schedulewatcher.util;
+
+import com.example.schedulewatcher.util.LessonDiff.Change;
+import com.example.schedulewatcher.util.LessonDiff.Lesson;
+import com.example.schedulewatcher.util.LessonDiff.Modified;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One change of a subject's schedule, as it goes from the fetcher through notification
+ * into the events table. Immutable; serialized once, when it is made, and parsed once
+ * when an event is read back ({@link #parse}).
+ *
+ * Lesson-level diffs are {"type":"changed","added":[..],"removed":[..],"modified":[..]},
+ * admin edits {"type":"manual","changes":{"room":{"from":..,"to":..}}}. Anything else
+ * (initial snapshots, field diffs of payloads that are no schedule, unreadable documents)
+ * keeps its JSON, with only the type and the number of changed fields read out.
+ */
+public final class ScheduleDiff {
+
+    private static final ScheduleDiff INITIAL = of(Json.MAPPER.createObjectNode().put("type", "initial"));
+
+    private final String type;
+    private final boolean readable;
+    private final boolean lessonLevel;
+    private final List<Lesson> added;
+    private final List<Lesson> removed;
+    private final List<Modified> modified;
+    private final Map<String, Change> changes;
+    private final boolean hasChanges;
+    private final Integer changedFields;
+    private final String json;
+
+    private ScheduleDiff(String type, boolean readable, boolean lessonLevel, List<Lesson> added, List<Lesson> removed,
+                         List<Modified> modified, Map<String, Change> changes, boolean hasChanges,
+                         Integer changedFields, String json) {
+        this.type = type;
+        this.readable = readable;
+        this.lessonLevel = lessonLevel;
+        this.added = List.copyOf(added);
+        this.removed = List.copyOf(removed);
+        this.modified = List.copyOf(modified);
+        this.changes = Collections.unmodifiableMap(new LinkedHashMap<>(changes));
+        this.hasChanges = hasChanges;
+        this.changedFields = changedFields;
+        this.json = json;
+    }
+
+    /** The first snapshot of a subject: nothing to compare with, nobody is notified. */
+    public static ScheduleDiff initial() {
+        return INITIAL;
+    }
+
+    /** A lesson-level diff; modified lessons are written as they are now, with the changed fields. */
+    public static ScheduleDiff of(LessonDiff.Result r) {
+        ObjectNode out = Json.MAPPER.createObjectNode();
+        out.put("type", "changed");
+        ArrayNode added = out.putArray("added");
+        for (Lesson l : r.added()) added.add(lessonNode(l));
+        ArrayNode removed = out.putArray("removed");
+        for (Lesson l : r.removed()) removed.add(lessonNode(l));
+        ArrayNode modified = out.putArray("modified");
+        for (Modified m : r.modified()) {
+            ObjectNode item = modified.addObject();
+            item.set("lesson", lessonNode(m.after()));
+            ObjectNode changes = item.putObject("changes");
+            m.changes().forEach((field, c) -> changes.putObject(field).put("from", c.from()).put("to", c.to()));
+        }
+        return new ScheduleDiff("changed", true, true, r.added(), r.removed(), r.modified(), Map.of(), false, null,
+                out.toString());
+    }
+
+    /** An admin edit of a subscription's filters, keyed by filter name. */
+    public static ScheduleDiff manual(Map<String, Change> changes) {
+        ObjectNode out = Json.MAPPER.createObjectNode();
+        out.put("type", "manual");
+        ObjectNode ch = out.putObject("changes");
+        changes.forEach((k, c) -> ch.putObject(k).put("from", c.from()).put("to", c.to()));
+        return new ScheduleDiff("manual", true, false, List.of(), List.of(), List.of(), changes, !changes.isEmpty(),
+                null, out.toString());
+    }
+
+    /** A diff document built elsewhere, e.g. a field diff of a payload that is no schedule. */
+    public static ScheduleDiff of(JsonNode root) {
+        return read(root, root.toString());
+    }
+
+    /** The diff stored as json; never null, unreadable documents are kept as they are. */
+    public static ScheduleDiff parse(String json) {
+        if (json == null || json.isBlank()) {
+            return new ScheduleDiff(null, true, false, List.of(), List.of(), List.of(), Map.of(), false, null,
+                    json == null ? "" : json);
+        }
+        try {
+            return read(Json.MAPPER.readTree(json), json);
+        } catch (Exception e) {
+            return new ScheduleDiff(null, false, false, List.of(), List.of(), List.of(), Map.of(), false, null, json);
+        }
+    }
+
+    private static ScheduleDiff read(JsonNode root, String json) {
+        String type = root.hasNonNull("type") ? root.get("type").asText("") : null;
+        Integer changedFields = root.has("changedFields") ? root.get("changedFields").asInt(0) : null;
+
+        JsonNode ch = root.path("changes");
+        boolean hasChanges = !ch.isMissingNode() && !(ch.isContainerNode() && ch.size() == 0)
+                && !(ch.isTextual() && ch.asText().isBlank());
+        Map<String, Change> changes = ch.isObject() ? changesOf(ch) : Map.of();
+
+        boolean lessonLevel = root.has("added") || root.has("removed") || root.has("modified");
+        List<Lesson> added = new ArrayList<>();
+        List<Lesson> removed = new ArrayList<>();
+        List<Modified> modified = new ArrayList<>();
+        if (lessonLevel) {
+            for (JsonNode l : root.path("added")) added.add(lessonOf(l, Map.of()));
+            for (JsonNode l : root.path("removed")) removed.add(lessonOf(l, Map.of()));
+            for (JsonNode m : root.path("modified")) {
+                Map<String, Change> fields = changesOf(m.path("changes"));
+                modified.add(new Modified(lessonOf(m.path("lesson"), fields), lessonOf(m.path("lesson"), Map.of()), fields));
+            }
+        }
+        return new ScheduleDiff(type, true, lessonLevel, added, removed, modified, changes, hasChanges, changedFields, json);
+    }
+
+    public String type() {
+        return type;
+    }
+
+    /** True when the diff lists added, removed and modified lessons. */
+    public boolean isLessonLevel() {
+        return lessonLevel;
+    }
+
+    public List<Lesson> added() {
+        return added;
+    }
+
+    public List<Lesson> removed() {
+        return removed;
+    }
+
+    public List<Modified> modified() {
+        return modified;
+    }
+
+    /** Field changes of a manual edit, in document order; empty for other diffs. */
+    public Map<String, Change> changes() {
+        return changes;
+    }
+
+    /**
+     * Whether anybody should hear about it: not for initial snapshots, empty lesson diffs or
+     * diffs without changes; always for documents that cannot be read.
+     */
+    public boolean isMeaningful() {
+        if (!readable) return true;
+        if (type == null && json.isBlank()) return false;
+        if ("initial".equalsIgnoreCase(type)) return false;
+        if (lessonLevel) return !added.isEmpty() || !removed.isEmpty() || !modified.isEmpty();
+        if (!hasChanges) return false;
+        return changedFields == null || changedFields != 0;
+    }
+
+    /**
+     * Lessons the diff touches: added and removed ones, and modified ones both as they are now
+     * and as they were. Null when the diff has no lessons to go by.
+     */
+    public List<Lesson> touchedLessons() {
+        if (!lessonLevel) return null;
+        List<Lesson> out = new ArrayList<>(added.size() + removed.size() + 2 * modified.size());
+        out.addAll(added);
+        out.addAll(removed);
+        for (Modified m : modified) {
+            out.add(m.after());
+            if (!m.changes().isEmpty()) out.add(m.before());
+        }
+        return out;
+    }
+
+    /** The JSON written to events.diff, as made or as read. */
+    public String toJson() {
+        return json;
+    }
+
+    @Override
+    public String toString() {
+        return json;
+    }
+
+    private static Map<String, Change> changesOf(JsonNode ch) {
+        Map<String, Change> out = new LinkedHashMap<>();
+        ch.fields().forEachRemaining(e -> out.put(e.getKey(), new Change(text(e.getValue(), "from"), text(e.getValue(), "to"))));
+        return out;
+    }
+
+    /** The lesson as written, or with the "from" side of the given changes, i.e. as it was. */
+    private static Lesson lessonOf(JsonNode l, Map<String, Change> undo) {
+        String[] v = new String[LessonDiff.FIELDS.size()];
+        for (int i = 0; i < v.length; i++) {
+            String f = LessonDiff.FIELDS.get(i);
+            v[i] = undo.containsKey(f) ? undo.get(f).from() : text(l, f);
+        }
+        return new Lesson(v[0], v[1], v[2], v[3], v[4], v[5], v[6]);
+    }
+
+    private static String text(JsonNode n, String field) {
+        JsonNode v = n.get(field);
+        return v == null || v.isNull() || v.isContainerNode() ? null : v.asText();
+    }
+
+    private static ObjectNode lessonNode(Lesson l) {
+        ObjectNode n = Json.MAPPER.createObjectNode();
+        for (String f : LessonDiff.FIELDS) {
+            String v = l.field(f);
+            if (v != null) n.put(f, v);
+        }
+        return n;
+    }
+}
@@ -3,18 +3,19 @@ package com.example.schedulewatcher.util;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 public class ScheduleDiffUtil {
-    private static final ObjectMapper om = new ObjectMapper();
+    private static final ObjectMapper om = Json.MAPPER;
 
     public static String sha256(String s) {
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] hash = md.digest(s.getBytes());
+            byte[] hash = md.digest(s.getBytes(StandardCharsets.UTF_8));
             StringBuilder sb = new StringBuilder();
             for (byte b: hash) sb.append(String.format("%02x", b));
             return sb.toString();
@@ -24,12 +25,32 @@ public class ScheduleDiffUtil {
     }
 
     public static String diff(String oldJson, String newJson) {
+        return compare(oldJson, newJson).toJson();
+    }
+
+    /**
+     * {"type":"changed","added":[lesson..],"removed":[lesson..],
+     *  "modified":[{"lesson":lesson,"changes":{"room":{"from":..,"to":..}}}]}
+     * where modified lessons are shown as they are now.
+     */
+    public static String diff(List<LessonDiff.Lesson> before, List<LessonDiff.Lesson> after) {
+        return compare(before, after).toJson();
+    }
+
+    /** The typed change between two payloads: lesson-level for schedules, a field diff otherwise. */
+    public static ScheduleDiff compare(String oldJson, String newJson) {
         try {
+            if (oldJson != null && !oldJson.isBlank()) {
+                List<LessonDiff.Lesson> before = LessonDiff.parse(oldJson);
+                List<LessonDiff.Lesson> after = before == null ? null : LessonDiff.parse(newJson);
+                if (after != null) return compare(before, after);
+            }
+
             JsonNode oldNode = (oldJson == null || oldJson.isBlank()) ? null : om.readTree(oldJson);
             JsonNode newNode = om.readTree(newJson);
 
             if (oldNode == null) {
-                return om.createObjectNode().put("type","initial").toString();
+                return ScheduleDiff.initial();
             }
 
             var out = om.createObjectNode();
@@ -55,12 +76,16 @@ public class ScheduleDiffUtil {
                     }
                 }
                 out.put("changedFields", changed);
-                return out.toString();
+                return ScheduleDiff.of(out);
             }
 
-            return om.createObjectNode().put("type","changed").toString();
+            return ScheduleDiff.of(out);
         } catch (Exception e) {
-            return "{\"type\":\"changed\"}";
+            return ScheduleDiff.parse("{\"type\":\"changed\"}");
         }
     }
+
+    public static ScheduleDiff compare(List<LessonDiff.Lesson> before, List<LessonDiff.Lesson> after) {
+        return ScheduleDiff.of(LessonDiff.diff(before, after));
+    }
 }
@@ -0,0 +1,276 @@
+package com.example.schedulewatcher.util;
+
+import com.example.schedulewatcher.util.LessonDiff.Lesson;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.IsoFields;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Merkle-style hash tree of a schedule: root -> ISO week -> day -> lesson.
+ *
+ * A lesson hashes its fields, a day the sorted hashes of its lessons, a week the sorted
+ * (date, day hash) pairs and the root the (week, week hash) pairs, so lesson order within
+ * a day does not matter, like in LessonDiff. Two schedules with equal roots have the same
+ * lessons; otherwise {@link #changedDays} walks down only into weeks whose hashes differ.
+ *
+ * Only the root, week and day levels are stored (as JSON next to the snapshot), together
+ * with where each day sits in the payload, so {@link #slice} can cut the changed days out
+ * of the old payload without parsing the rest. Lesson hashes are 64-bit FNV-1a, day and
+ * week hashes SHA-256 cut to 64 bits: plenty to tell two versions of one subject's day
+ * apart, and the root is a full SHA-256.
+ */
+public final class ScheduleHashTree {
+
+    private static final ObjectMapper M = Json.MAPPER;
+    private static final HexFormat HEX = HexFormat.of();
+    private static final int NODE_BYTES = 8;
+    private static final List<DateTimeFormatter> DATES = List.of(
+            DateTimeFormatter.ISO_LOCAL_DATE,
+            DateTimeFormatter.ofPattern("yyyy.MM.dd"),
+            DateTimeFormatter.ofPattern("dd.MM.yyyy"));
+    /** Week of days whose date cannot be read, e.g. a plain weekday number. */
+    static final String NO_WEEK = "-";
+
+    private final String root;
+    private final Map<String, Week> weeks;
+
+    private record Week(String hash, Map<String, DayNode> days) {}
+
+    /** from and to are the day's char offsets in the payload, -1 when unknown. */
+    private record DayNode(String hash, int from, int to) {}
+
+    private ScheduleHashTree(String root, Map<String, Week> weeks) {
+        this.root = root;
+        this.weeks = weeks;
+    }
+
+    public static ScheduleHashTree of(List<Lesson> lessons) {
+        return of(lessons, List.of());
+    }
+
+    /** Tree of the lessons, remembering the day positions LessonDiff.parse reported. */
+    public static ScheduleHashTree of(List<Lesson> lessons, List<LessonDiff.Day> positions) {
+        MessageDigest md = sha256();
+
+        // a date that occurs twice in the payload has no single position to cut out
+        Map<String, LessonDiff.Day> at = new HashMap<>();
+        for (LessonDiff.Day d : positions) at.merge(d.date(), d, (a, b) -> new LessonDiff.Day(a.date(), -1, -1));
+
+        Map<String, Map<String, DayNode>> daysByWeek = new TreeMap<>();
+        dayHashes(lessons, md).forEach((date, hash) -> {
+            LessonDiff.Day pos = at.get(date);
+            daysByWeek.computeIfAbsent(weekOf(date), w -> new TreeMap<>())
+                    .put(date, new DayNode(hash, pos != null ? pos.from() : -1, pos != null ? pos.to() : -1));
+        });
+
+        Map<String, Week> weeks = new TreeMap<>();
+        for (Map.Entry<String, Map<String, DayNode>> week : daysByWeek.entrySet()) {
+            week.getValue().forEach((date, day) -> {
+                update(md, date);
+                update(md, day.hash);
+            });
+            weeks.put(week.getKey(), new Week(node(md), week.getValue()));
+        }
+        weeks.forEach((key, week) -> {
+            update(md, key);
+            update(md, week.hash);
+        });
+        return new ScheduleHashTree(HEX.formatHex(md.digest()), weeks);
+    }
+
+    public String root() {
+        return root;
+    }
+
+    /**
+     * Dates whose lessons differ between this tree and the older one, including days that
+     * only exist in one of them. Weeks with equal hashes are not looked into.
+     */
+    public Set<String> changedDays(ScheduleHashTree older) {
+        Set<String> out = new HashSet<>();
+        if (root.equals(older.root)) return out;
+        Set<String> weekKeys = new HashSet<>(weeks.keySet());
+        weekKeys.addAll(older.weeks.keySet());
+        for (String key : weekKeys) {
+            Week mine = weeks.get(key);
+            Week theirs = older.weeks.get(key);
+            if (mine != null && theirs != null && mine.hash.equals(theirs.hash)) continue;
+            Map<String, DayNode> a = mine != null ? mine.days : Map.of();
+            Map<String, DayNode> b = theirs != null ? theirs.days : Map.of();
+            a.forEach((date, day) -> {
+                DayNode other = b.get(date);
+                if (other == null || !day.hash.equals(other.hash)) out.add(date);
+            });
+            b.keySet().forEach(date -> {
+                if (!a.containsKey(date)) out.add(date);
+            });
+        }
+        return out;
+    }
+
+    /**
+     * The given days of the payload this tree was built from, as a {"days":[..]} document,
+     * without parsing anything else. Null when a day's position is not known (payloads
+     * that are plain lesson arrays, or trees without positions) or does not fit the payload.
+     */
+    public String slice(String payload, Set<String> dates) {
+        StringBuilder out = new StringBuilder("{\"days\":[");
+        boolean first = true;
+        for (String date : dates) {
+            Week week = weeks.get(weekOf(date));
+            DayNode day = week != null ? week.days.get(date) : null;
+            if (day == null) continue;   // not in this schedule, nothing to cut out
+            if (day.from < 0 || day.to > payload.length() || day.from >= day.to
+                    || payload.charAt(day.from) != '{' || payload.charAt(day.to - 1) != '}') {
+                return null;
+            }
+            if (!first) out.append(',');
+            out.append(payload, day.from, day.to);
+            first = false;
+        }
+        return out.append("]}").toString();
+    }
+
+    /**
+     * True when the lessons are exactly this tree's lessons on the given dates, e.g. to
+     * check a slice against a payload that may have been stored by another serialization.
+     */
+    public boolean covers(List<Lesson> lessons, Set<String> dates) {
+        Map<String, String> hashes = dayHashes(lessons, sha256());
+        for (String date : dates) {
+            Week week = weeks.get(weekOf(date));
+            DayNode day = week != null ? week.days.get(date) : null;
+            String hash = hashes.get(date);
+            if (day == null ? hash != null : !day.hash.equals(hash)) return false;
+        }
+        return true;
+    }
+
+    /** {"root":..,"weeks":{"2025-W36":{"hash":..,"days":{"2025-09-01":{"hash":..,"from":..,"to":..}}}}} */
+    public String toJson() {
+        ObjectNode n = M.createObjectNode();
+        n.put("root", root);
+        ObjectNode ws = n.putObject("weeks");
+        weeks.forEach((key, week) -> {
+            ObjectNode w = ws.putObject(key);
+            w.put("hash", week.hash);
+            ObjectNode days = w.putObject("days");
+            week.days.forEach((date, day) -> {
+                ObjectNode d = days.putObject(date);
+                d.put("hash", day.hash);
+                if (day.from >= 0) d.put("from", day.from).put("to", day.to);
+            });
+        });
+        return n.toString();
+    }
+
+    /** The stored tree, or null when there is none (snapshots from before hash trees) or it is unreadable. */
+    public static ScheduleHashTree fromJson(String json) {
+        if (json == null || json.isBlank()) return null;
+        try {
+            JsonNode n = M.readTree(json);
+            if (!n.path("root").isTextual() || !n.path("weeks").isObject()) return null;
+            Map<String, Week> weeks = new TreeMap<>();
+            var it = n.get("weeks").fields();
+            while (it.hasNext()) {
+                var w = it.next();
+                Map<String, DayNode> days = new TreeMap<>();
+                w.getValue().path("days").fields().forEachRemaining(d -> days.put(d.getKey(), new DayNode(
+                        d.getValue().path("hash").asText(),
+                        d.getValue().path("from").asInt(-1),
+                        d.getValue().path("to").asInt(-1))));
+                weeks.put(w.getKey(), new Week(w.getValue().path("hash").asText(), days));
+            }
+            return new ScheduleHashTree(n.get("root").asText(), weeks);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static Map<String, String> dayHashes(List<Lesson> lessons, MessageDigest md) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Lesson l : lessons) counts.merge(String.valueOf(l.date()), 1, Integer::sum);
+        Map<String, long[]> byDay = new TreeMap<>();
+        Map<String, Integer> filled = new HashMap<>();
+        for (Lesson l : lessons) {
+            String date = String.valueOf(l.date());
+            long[] hashes = byDay.computeIfAbsent(date, d -> new long[counts.get(d)]);
+            hashes[filled.merge(date, 1, Integer::sum) - 1] = lessonHash(l);
+        }
+
+        Map<String, String> out = new TreeMap<>();
+        byDay.forEach((date, hashes) -> {
+            Arrays.sort(hashes);
+            for (long h : hashes) update(md, h);
+            out.put(date, node(md));
+        });
+        return out;
+    }
+
+    static String weekOf(String date) {
+        for (DateTimeFormatter f : DATES) {
+            try {
+                LocalDate d = LocalDate.parse(date, f);
+                return String.format("%d-W%02d", d.get(IsoFields.WEEK_BASED_YEAR), d.get(IsoFields.WEEK_OF_WEEK_BASED_YEAR));
+            } catch (DateTimeParseException ignore) {
+                // next pattern
+            }
+        }
+        return NO_WEEK;
+    }
+
+    /** 64-bit FNV-1a over the fields, each prefixed with its length; null differs from "". */
+    static long lessonHash(Lesson l) {
+        long h = 0xcbf29ce484222325L;
+        for (String f : LessonDiff.FIELDS) {
+            String v = l.field(f);
+            h = (h ^ (v == null ? -1 : v.length())) * 0x100000001b3L;
+            if (v == null) continue;
+            for (int i = 0; i < v.length(); i++) h = (h ^ v.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    private static void update(MessageDigest md, long v) {
+        for (int shift = 56; shift >= 0; shift -= 8) md.update((byte) (v >>> shift));
+    }
+
+    /** Length-prefixed, so ("ab","c") and ("a","bc") differ. */
+    private static void update(MessageDigest md, String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        md.update((byte) (b.length >>> 24));
+        md.update((byte) (b.length >>> 16));
+        md.update((byte) (b.length >>> 8));
+        md.update((byte) b.length);
+        md.update(b);
+    }
+
+    private static String node(MessageDigest md) {
+        byte[] full = md.digest();
+        return HEX.formatHex(full, 0, NODE_BYTES);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.schedulewatcher.util;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Request coalescing: concurrent calls for the same key share one in-flight call and its
+ * result, and a successful result is handed out again for ttlMs after it arrived.
+ * Failures are shared with the callers already waiting but are not cached.
+ */
+public final class SingleFlight<K, V> {
+
+    private static final int SWEEP_AT = 1024;
+
+    private final long ttlMs;
+    private final LongSupplier clockMs;
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Map<K, Done<V>> recent = new ConcurrentHashMap<>();
+
+    public SingleFlight(long ttlMs) {
+        this(ttlMs, System::currentTimeMillis);
+    }
+
+    public SingleFlight(long ttlMs, LongSupplier clockMs) {
+        this.ttlMs = ttlMs;
+        this.clockMs = clockMs;
+    }
+
+    public CompletableFuture<V> run(K key, Supplier<CompletableFuture<V>> call) {
+        long now = clockMs.getAsLong();
+        Done<V> done = recent.get(key);
+        if (done != null) {
+            if (done.expiresAt > now) return CompletableFuture.completedFuture(done.value);
+            recent.remove(key, done);
+        }
+
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> shared = inFlight.putIfAbsent(key, mine);
+        if (shared != null) return shared.thenApply(v -> v);   // a copy, so a caller cannot complete the shared future
+
+        CompletableFuture<V> started;
+        try {
+            started = call.get();
+        } catch (RuntimeException e) {
+            started = CompletableFuture.failedFuture(e);
+        }
+        started.whenComplete((v, e) -> {
+            if (e == null && ttlMs > 0) remember(key, v);
+            inFlight.remove(key, mine);
+            if (e == null) mine.complete(v);
+            else mine.completeExceptionally(e);
+        });
+        return mine.thenApply(v -> v);
+    }
+
+    private void remember(K key, V value) {
+        long now = clockMs.getAsLong();
+        if (recent.size() >= SWEEP_AT) recent.values().removeIf(d -> d.expiresAt <= now);
+        recent.put(key, new Done<>(value, now + ttlMs));
+    }
+
+    /** Keys with a call in flight right now. */
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    private record Done<V>(V value, long expiresAt) {}
+}
@@ -0,0 +1,58 @@
+package com.example.schedulewatcher.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token-bucket rate limiter: refills at ratePerSecond up to burst tokens. A caller that
+ * finds the bucket empty reserves the next token and sleeps until it is due, unless
+ * that would take longer than it is willing to wait.
+ */
+public final class TokenBucket {
+
+    private final double tokensPerNano;
+    private final double capacity;
+    private final LongSupplier clockNanos;
+
+    private double tokens;
+    private long refilledAt;
+
+    public TokenBucket(double ratePerSecond, int burst) {
+        this(ratePerSecond, burst, System::nanoTime);
+    }
+
+    public TokenBucket(double ratePerSecond, int burst, LongSupplier clockNanos) {
+        this.tokensPerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = Math.max(1, burst);
+        this.clockNanos = clockNanos;
+        this.tokens = capacity;
+        this.refilledAt = clockNanos.getAsLong();
+    }
+
+    /**
+     * Takes a token, waiting at most maxWaitMs for it.
+     *
+     * @return false if no token becomes available in time (nothing is taken then)
+     */
+    public boolean tryAcquire(long maxWaitMs) throws InterruptedException {
+        long waitNanos = reserve(TimeUnit.MILLISECONDS.toNanos(maxWaitMs));
+        if (waitNanos < 0) return false;
+        if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+        return true;
+    }
+
+    /**
+     * Reserves a token without sleeping, for callers that wait asynchronously.
+     *
+     * @return nanos until the reserved token is due, or -1 if that exceeds maxWaitNanos
+     */
+    public synchronized long reserve(long maxWaitNanos) {
+        long now = clockNanos.getAsLong();
+        tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+        long wait = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+        if (wait > maxWaitNanos) return -1;
+        tokens -= 1;
+        return wait;
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.schedulewatcher.controller;
 
+import com.example.schedulewatcher.util.ScheduleDiff;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Test;
@@ -16,7 +17,7 @@ class AdminSubscriptionControllerManualDiffTest {
         Method m = AdminSubscriptionController.class
                 .getDeclaredMethod("buildManualDiff", String.class, String.class);
         m.setAccessible(true);
-        return (String) m.invoke(null, oldJson, newJson);
+        return ((ScheduleDiff) m.invoke(null, oldJson, newJson)).toJson();
     }
 
     @Test
@@ -12,6 +12,8 @@ import org.springframework.ui.ExtendedModelMap;
 import org.springframework.ui.Model;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import java.util.Locale;
+
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
@@ -47,13 +49,24 @@ class WebControllerTest {
         HttpSession session = mock(HttpSession.class);
         RedirectAttributes ra = mock(RedirectAttributes.class);
 
-        String view = controller.saveEmail(session, "new@example.com", ra);
+        String view = controller.saveEmail(session, "new@example.com", Locale.CHINESE, ra);
 
         assertEquals("redirect:/subscriptions", view);
-        verify(userSession).updateEmail(session, "new@example.com");
+        verify(userSession).updateEmail(session, "new@example.com", Locale.CHINESE);
         verify(ra).addFlashAttribute(eq("ok"), any());
     }
 
+    @Test
+    void saveDigest_updatesAndRedirects() {
+        HttpSession session = mock(HttpSession.class);
+        RedirectAttributes ra = mock(RedirectAttributes.class);
+
+        String view = controller.saveDigest(session, 60, Locale.ENGLISH, ra);
+
+        assertEquals("redirect:/subscriptions", view);
+        verify(userSession).updateDigest(session, 60, Locale.ENGLISH);
+    }
+
     @Test
     void login_returnsLoginView() {
         assertEquals("login", controller.login());
@@ -0,0 +1,93 @@
+package com.example.schedulewatcher.integration;
+
+import com.example.schedulewatcher.model.Subject;
+import com.example.schedulewatcher.model.SubjectType;
+import com.example.schedulewatcher.repository.EventRepository;
+import com.example.schedulewatcher.repository.SubjectRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.OffsetDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class EventDeduplicationIntegrationTest {
+
+    @Autowired SubjectRepository subjects;
+    @Autowired EventRepository events;
+    @Autowired PlatformTransactionManager txManager;
+
+    @AfterEach
+    void cleanUp() {
+        events.deleteAll();
+        subjects.deleteAll();
+    }
+
+    @Test
+    void insertIgnore_storesTheSameChangeOnce_perSubject() {
+        Subject a = subjects.save(subject("G-DEDUP-A"));
+        Subject b = subjects.save(subject("G-DEDUP-B"));
+        String diff = "{\"type\":\"manual\",\"changes\":{\"room\":{\"from\":\"101\",\"to\":\"303\"}}}";
+
+        // the same change seen by a poll and by a refresh a moment later
+        assertEquals(1, events.insertIgnore(OffsetDateTime.now(), diff, "room: 101 -> 303", null,
+                OffsetDateTime.now(), "hash-1", a.getId()));
+        assertEquals(0, events.insertIgnore(OffsetDateTime.now(), diff, "room: 101 -> 303", null,
+                OffsetDateTime.now().plusSeconds(5), "hash-1", a.getId()));
+        // another subject with the same content is another change
+        assertEquals(1, events.insertIgnore(OffsetDateTime.now(), diff, "room: 101 -> 303", null,
+                OffsetDateTime.now(), "hash-1", b.getId()));
+
+        assertEquals(2, events.count());
+    }
+
+    @Test
+    void insertIgnore_waitsForAnotherWriterOfTheSubject_andThenSeesItsEvent() throws Exception {
+        Subject a = subjects.save(subject("G-DEDUP-RACE"));
+        String diff = "{\"type\":\"manual\",\"changes\":{\"room\":{\"from\":\"101\",\"to\":\"303\"}}}";
+        TransactionTemplate tx = new TransactionTemplate(txManager);
+        CountDownLatch inserted = new CountDownLatch(1);
+        CountDownLatch commit = new CountDownLatch(1);
+
+        // a poll that has inserted the event but not committed yet
+        CompletableFuture<Integer> first = CompletableFuture.supplyAsync(() -> tx.execute(st -> {
+            int n = events.insertIgnore(OffsetDateTime.now(), diff, null, null, OffsetDateTime.now(), "hash-1", a.getId());
+            inserted.countDown();
+            try {
+                commit.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return n;
+        }));
+        assertTrue(inserted.await(5, TimeUnit.SECONDS));
+        // a second writer of the same change, e.g. another instance without leasing
+        CompletableFuture<Integer> second = CompletableFuture.supplyAsync(() ->
+                events.insertIgnore(OffsetDateTime.now(), diff, null, null, OffsetDateTime.now(), "hash-1", a.getId()));
+        Thread.sleep(200);
+        assertFalse(second.isDone(), "second writer waits for the first");
+        commit.countDown();
+
+        assertEquals(1, first.get(5, TimeUnit.SECONDS));
+        assertEquals(0, second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, events.count());
+    }
+
+    private static Subject subject(String key) {
+        Subject s = new Subject();
+        s.setName(key);
+        s.setRuzKey(key);
+        s.setType(SubjectType.COURSE);
+        return s;
+    }
+}
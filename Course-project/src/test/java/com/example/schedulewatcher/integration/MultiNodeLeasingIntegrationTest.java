@@ -0,0 +1,170 @@
+package com.example.schedulewatcher.integration;
+
+import com.example.schedulewatcher.model.*;
+import com.example.schedulewatcher.repository.*;
+import com.example.schedulewatcher.service.*;
+import com.example.schedulewatcher.util.CanonicalJson;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Two fetcher "instances" (own scheduler, lease node id and fetch pool each) polling
+ * the same database at the same time must split the subjects between them without
+ * fetching, snapshotting or notifying any subject twice.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class MultiNodeLeasingIntegrationTest {
+
+    private static final int SUBJECTS = 20;
+
+    @Autowired UserRepository users;
+    @Autowired SubjectRepository subjects;
+    @Autowired SubscriptionRepository subs;
+    @Autowired SnapshotRepository snaps;
+    @Autowired EventRepository events;
+    @Autowired FetchStateRepository states;
+    @Autowired SubjectLeaseRepository leases;
+    @Autowired PlatformTransactionManager txManager;
+    @Autowired SnapshotPayloadStore payloadStore;
+    @Autowired SnapshotPayloadRepository payloads;
+    @Autowired RuzIdResolver ruzIds;
+    @Autowired CanonicalJson canonical;
+    @Autowired DiffTextRenderer texts;
+    @Autowired NotificationOutboxRepository outbox;
+
+    @MockBean RuzClient ruz;
+    @SpyBean NotificationService notifier;
+
+    private final List<ExecutorService> pools = new ArrayList<>();
+
+    @AfterEach
+    void cleanUp() {
+        pools.forEach(ExecutorService::shutdownNow);
+        events.deleteAll();
+        snaps.deleteAll();
+        payloads.deleteAll();
+        subs.deleteAll();
+        leases.deleteAll();
+        outbox.deleteAll();
+        states.deleteAll();
+        subjects.deleteAll();
+        users.deleteAll();
+    }
+
+    @Test
+    void twoNodes_splitSubjects_withoutDuplicateFetchesEventsOrNotifications() throws Exception {
+        User u = new User();
+        u.setEmail("lease@example.com");
+        u = users.save(u);
+        for (int i = 0; i < SUBJECTS; i++) {
+            Subject s = new Subject();
+            s.setName("Group " + i);
+            s.setRuzKey("G-LEASE-" + i);
+            s.setRuzId("G-LEASE-" + i);
+            s.setType(SubjectType.COURSE);
+            s = subjects.save(s);
+
+            // an older snapshot, so the first poll is a real change that notifies
+            Snapshot old = new Snapshot();
+            old.setSubject(s);
+            old.setSnapshotAt(OffsetDateTime.now().minusDays(1));
+            old.setRaw("{\"v\":0}");
+            old.setPayloadHash("old-" + i);
+            snaps.save(old);
+
+            Subscription sub = new Subscription();
+            sub.setUser(u);
+            sub.setSubject(s);
+            subs.save(sub);
+        }
+
+        Map<String, AtomicInteger> fetchesByKey = new ConcurrentHashMap<>();
+        when(ruz.fetchScheduleAsync(anyString(), anyString(), any(), any())).thenAnswer(inv -> {
+            fetchesByKey.computeIfAbsent(inv.getArgument(1), k -> new AtomicInteger()).incrementAndGet();
+            Thread.sleep(20);
+            return completedFuture(FetchOutcome.modified("{\"v\":1}", null, null));
+        });
+
+        ScheduleFetchService nodeA = node("node-a");
+        ScheduleFetchService nodeB = node("node-b");
+
+        ExecutorService runner = Executors.newFixedThreadPool(2);
+        pools.add(runner);
+        // a few ticks of both nodes running side by side; claims not granted in one tick are retried a second later
+        for (int tick = 0; tick < 6 && fetchesByKey.size() < SUBJECTS; tick++) {
+            CyclicBarrier together = new CyclicBarrier(2);
+            Future<?> a = runner.submit(() -> { together.await(); nodeA.pollDue(); return null; });
+            Future<?> b = runner.submit(() -> { together.await(); nodeB.pollDue(); return null; });
+            a.get(30, TimeUnit.SECONDS);
+            b.get(30, TimeUnit.SECONDS);
+            Thread.sleep(1100);
+        }
+        // and one more tick each: nothing is due any more, nobody may fetch again
+        nodeA.pollDue();
+        nodeB.pollDue();
+
+        assertEquals(SUBJECTS, fetchesByKey.size(), "every subject fetched");
+        fetchesByKey.forEach((key, n) -> assertEquals(1, n.get(), key + " fetched more than once"));
+        assertEquals(SUBJECTS, events.count(), "one event per subject");
+        assertEquals(2L * SUBJECTS, snaps.count(), "one new snapshot per subject");
+        verify(notifier, times(SUBJECTS)).enqueue(anyList(), any(Event.class));
+
+        long ownedByA = leases.findAll().stream().filter(l -> "node-a".equals(l.getOwner())).count();
+        long ownedByB = leases.findAll().stream().filter(l -> "node-b".equals(l.getOwner())).count();
+        assertEquals(SUBJECTS, ownedByA + ownedByB);
+        assertTrue(ownedByA > 0 && ownedByB > 0, "work split between nodes: a=" + ownedByA + " b=" + ownedByB);
+    }
+
+    @Test
+    void refresh_pollsASubjectThatIsNotDue_unlessAnotherNodeHoldsItsLease() {
+        Subject s = new Subject();
+        s.setName("Refreshed");
+        s.setRuzKey("G-LEASE-R");
+        s.setRuzId("G-LEASE-R");
+        s.setType(SubjectType.COURSE);
+        Long id = subjects.save(s).getId();
+        when(ruz.fetchScheduleAsync(anyString(), anyString(), any(), any()))
+                .thenReturn(completedFuture(FetchOutcome.modified("{\"v\":1}", null, null)));
+        ScheduleFetchService nodeA = node("node-a");
+
+        assertTrue(nodeA.refresh(id));
+        // polled just now, so not due for another interval; an admin refresh goes ahead anyway
+        assertTrue(leases.findById(id).orElseThrow().getNextDueAt().isAfter(OffsetDateTime.now()));
+        assertTrue(nodeA.refresh(id));
+
+        // node b is polling it
+        assertTrue(new LeaseService(leases, txManager, true, "node-b", 60_000, 5).claimNow(id, System.currentTimeMillis()));
+        assertFalse(nodeA.refresh(id));
+        verify(ruz, times(2)).fetchScheduleAsync(anyString(), anyString(), any(), any());
+    }
+
+    private ScheduleFetchService node(String nodeId) {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        pools.add(pool);
+        LeaseService lease = new LeaseService(leases, txManager, true, nodeId, 60_000, 5);
+        PollScheduler scheduler = new PollScheduler(60_000, 15_000, 21_600_000, 86_400_000);
+        return new ScheduleFetchService(subs, subjects, snaps, events, notifier, ruz, ruzIds, states,
+                payloadStore, canonical, scheduler, lease,
+                texts, pool, txManager, new SimpleMeterRegistry());
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.schedulewatcher.integration;
+
+import com.example.schedulewatcher.model.NotificationOutbox;
+import com.example.schedulewatcher.model.AuditLog;
+import com.example.schedulewatcher.repository.AuditLogRepository;
+import com.example.schedulewatcher.repository.NotificationOutboxRepository;
+import com.example.schedulewatcher.service.AuditAppender;
+import com.example.schedulewatcher.service.NotificationOutboxWorker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Mails queued in the outbox survive the node that queued or claimed them: rows left
+ * leased by a node that died mid-send are sent once the lease runs out, rows leased by a
+ * live node are left alone, and a failed send stays queued for a later attempt.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+class NotificationOutboxIntegrationTest {
+
+    @Autowired NotificationOutboxRepository outbox;
+    @Autowired NotificationOutboxWorker worker;
+    @Autowired PlatformTransactionManager txManager;
+    @Autowired AuditAppender audit;
+    @Autowired AuditLogRepository auditLog;
+
+    @MockBean JavaMailSenderImpl mail;   // the concrete type, which the mail health check looks for
+
+    @AfterEach
+    void cleanUp() {
+        outbox.deleteAll();
+        auditLog.deleteAll();
+    }
+
+    private NotificationOutbox queue(String recipient) {
+        NotificationOutbox n = new NotificationOutbox();
+        n.setRecipient(recipient);
+        n.setMailSubject("[Schedule Change] Algorithms");
+        n.setBody("Schedule changed for Algorithms\nroom: 101 -> 303");
+        return outbox.save(n);
+    }
+
+    private void leasedBy(NotificationOutbox n, String node, OffsetDateTime until) {
+        new TransactionTemplate(txManager).executeWithoutResult(s -> outbox.claim(List.of(n.getId()), node, until));
+    }
+
+    @Test
+    void queuedMails_areSentAfterACrash_butNotWhileAnotherNodeHoldsThem() {
+        NotificationOutbox fresh = queue("fresh@example.com");
+        NotificationOutbox orphaned = queue("orphaned@example.com");
+        NotificationOutbox busy = queue("busy@example.com");
+        NotificationOutbox failing = queue("failing@example.com");
+        leasedBy(orphaned, "crashed-node", OffsetDateTime.now().minusMinutes(1));
+        leasedBy(busy, "live-node", OffsetDateTime.now().plusMinutes(5));
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        doAnswer(inv -> {
+            Map<Object, Exception> rejected = new LinkedHashMap<>();
+            for (Object m : inv.getRawArguments()) {
+                for (SimpleMailMessage msg : (SimpleMailMessage[]) m) {
+                    if (msg.getTo()[0].startsWith("failing")) rejected.put(msg, new RuntimeException("mailbox unavailable"));
+                    else delivered.add(msg.getTo()[0]);
+                }
+            }
+            if (!rejected.isEmpty()) throw new MailSendException(rejected);
+            return null;
+        }).when(mail).send(any(SimpleMailMessage[].class));
+
+        worker.drain();
+
+        assertEquals(List.of("fresh@example.com", "orphaned@example.com"), delivered.stream().sorted().toList());
+        assertEquals(NotificationOutbox.Status.SENT, outbox.findById(fresh.getId()).orElseThrow().getStatus());
+        assertEquals(NotificationOutbox.Status.SENT, outbox.findById(orphaned.getId()).orElseThrow().getStatus());
+        NotificationOutbox held = outbox.findById(busy.getId()).orElseThrow();
+        assertEquals(NotificationOutbox.Status.PENDING, held.getStatus());
+        assertEquals("live-node", held.getOwner());
+        NotificationOutbox retry = outbox.findById(failing.getId()).orElseThrow();
+        assertEquals(NotificationOutbox.Status.PENDING, retry.getStatus());
+        assertEquals(1, retry.getAttempts());
+        assertTrue(retry.getNextAttemptAt().isAfter(OffsetDateTime.now()), "retried later, not right away");
+        assertTrue(retry.getLastError().contains("mailbox unavailable"));
+        assertEquals(2, outbox.countByStatus(NotificationOutbox.Status.SENT));
+
+        // audited in the background, one row per delivered mail
+        assertEquals(0, auditLog.count());
+        audit.flush();
+        assertEquals(List.of("NOTIFY_SENT", "NOTIFY_SENT"), auditLog.findAll().stream().map(AuditLog::getAction).toList());
+        assertTrue(auditLog.findAll().stream().anyMatch(a -> a.getMeta().contains("\"email\":\"fresh@example.com\"")));
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.schedulewatcher.integration;
+
+import com.example.schedulewatcher.model.NotificationOutbox;
+import com.example.schedulewatcher.repository.NotificationOutboxRepository;
+import com.example.schedulewatcher.service.RetentionService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.OffsetDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** The outbox purge of RetentionService against the table, not a mocked JdbcTemplate. */
+@SpringBootTest
+@ActiveProfiles("test")
+class OutboxPurgeIntegrationTest {
+
+    @Autowired NotificationOutboxRepository outbox;
+    @Autowired RetentionService retention;
+
+    @AfterEach
+    void cleanUp() {
+        outbox.deleteAll();
+    }
+
+    private NotificationOutbox queued(NotificationOutbox.Status status, OffsetDateTime createdAt, OffsetDateTime sentAt) {
+        NotificationOutbox n = new NotificationOutbox();
+        n.setRecipient("u@example.com");
+        n.setMailSubject("[Schedule Change] Algorithms");
+        n.setBody("Schedule changed for Algorithms\nroom: 101 -> 303");
+        n.setStatus(status);
+        n.setCreatedAt(createdAt);
+        n.setSentAt(sentAt);
+        return outbox.save(n);
+    }
+
+    @Test
+    void purge_deletesOldSentAndDeadMails_andKeepsPendingOnes() {
+        OffsetDateTime now = OffsetDateTime.now();
+        NotificationOutbox oldSent = queued(NotificationOutbox.Status.SENT, now.minusDays(30), now.minusDays(30));
+        NotificationOutbox recentSent = queued(NotificationOutbox.Status.SENT, now.minusDays(30), now.minusDays(2));
+        NotificationOutbox oldPending = queued(NotificationOutbox.Status.PENDING, now.minusDays(200), null);
+        NotificationOutbox deadForAMonth = queued(NotificationOutbox.Status.DEAD, now.minusDays(30), null);
+        NotificationOutbox deadForAYear = queued(NotificationOutbox.Status.DEAD, now.minusDays(365), null);
+
+        assertEquals(2, retention.purgeOutbox(now));
+
+        assertFalse(outbox.existsById(oldSent.getId()));
+        assertFalse(outbox.existsById(deadForAYear.getId()));
+        assertTrue(outbox.existsById(recentSent.getId()));
+        assertTrue(outbox.existsById(oldPending.getId()));
+        assertTrue(outbox.existsById(deadForAMonth.getId()));
+    }
+}
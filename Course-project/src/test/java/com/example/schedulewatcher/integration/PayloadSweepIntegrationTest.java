@@ -0,0 +1,105 @@
+package com.example.schedulewatcher.integration;
+
+import com.example.schedulewatcher.model.Snapshot;
+import com.example.schedulewatcher.model.Subject;
+import com.example.schedulewatcher.model.SubjectType;
+import com.example.schedulewatcher.repository.SnapshotPayloadRepository;
+import com.example.schedulewatcher.repository.SnapshotRepository;
+import com.example.schedulewatcher.repository.SubjectRepository;
+import com.example.schedulewatcher.service.RetentionService;
+import com.example.schedulewatcher.service.SnapshotPayloadStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.OffsetDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** The payload sweep of RetentionService against the tables, not a mocked JdbcTemplate. */
+@SpringBootTest
+@ActiveProfiles("test")
+class PayloadSweepIntegrationTest {
+
+    @Autowired SubjectRepository subjects;
+    @Autowired SnapshotRepository snaps;
+    @Autowired SnapshotPayloadRepository payloads;
+    @Autowired SnapshotPayloadStore store;
+    @Autowired RetentionService retention;
+    @Autowired PlatformTransactionManager txManager;
+
+    @AfterEach
+    void cleanUp() {
+        snaps.deleteAll();
+        payloads.deleteAll();
+        subjects.deleteAll();
+    }
+
+    @Test
+    void sweep_deletesOnlyPayloadsNoSnapshotRefersTo() {
+        Subject s = subjects.save(subject());
+        TransactionTemplate tx = new TransactionTemplate(txManager);
+        tx.executeWithoutResult(st -> {
+            store.put("hash-kept", "{\"room\":\"101\"}");
+            store.put("hash-orphan", "{\"room\":\"202\"}");
+        });
+        snaps.save(snapshot(s, "hash-kept"));
+
+        assertEquals(1, retention.sweepPayloads());
+
+        assertTrue(payloads.existsById("hash-kept"));
+        assertFalse(payloads.existsById("hash-orphan"));
+    }
+
+    @Test
+    void sweep_leavesAPayloadAlone_thatAFetchIsStoringASnapshotFor() throws Exception {
+        Subject s = subjects.save(subject());
+        TransactionTemplate tx = new TransactionTemplate(txManager);
+        tx.executeWithoutResult(st -> store.put("hash-back", "{\"room\":\"101\"}"));   // unreferenced so far
+
+        CountDownLatch stored = new CountDownLatch(1);
+        CountDownLatch swept = new CountDownLatch(1);
+        CompletableFuture<Void> fetch = CompletableFuture.runAsync(() -> tx.executeWithoutResult(st -> {
+            // the schedule flipped back to this content: ScheduleFetchService.apply
+            store.put("hash-back", "{\"room\":\"101\"}");
+            snaps.save(snapshot(s, "hash-back"));
+            stored.countDown();
+            try {
+                swept.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        assertTrue(stored.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Integer> sweep = CompletableFuture.supplyAsync(retention::sweepPayloads);
+        Thread.sleep(200);
+        swept.countDown();
+        fetch.get(10, TimeUnit.SECONDS);
+
+        assertEquals(0, sweep.get(10, TimeUnit.SECONDS));
+        assertTrue(payloads.existsById("hash-back"));
+    }
+
+    private static Subject subject() {
+        Subject s = new Subject();
+        s.setName("Swept");
+        s.setRuzKey("G-SWEEP");
+        s.setType(SubjectType.COURSE);
+        return s;
+    }
+
+    private static Snapshot snapshot(Subject s, String hash) {
+        Snapshot snap = new Snapshot();
+        snap.setSubject(s);
+        snap.setSnapshotAt(OffsetDateTime.now());
+        snap.setPayloadHash(hash);
+        return snap;
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.schedulewatcher.integration;
+
+import com.example.schedulewatcher.model.*;
+import com.example.schedulewatcher.repository.*;
+import com.example.schedulewatcher.service.NotificationService;
+import com.example.schedulewatcher.util.LessonDiff.Change;
+import com.example.schedulewatcher.util.ScheduleDiff;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Notifying the subscribers of a subject costs one query for all of them, whatever their
+ * number: no user or subject is loaded per subscription.
+ */
+@SpringBootTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@ActiveProfiles("test")
+class RecipientQueryCountIntegrationTest {
+
+    private static final int SUBSCRIBERS = 1_000;
+
+    @Autowired UserRepository users;
+    @Autowired SubjectRepository subjects;
+    @Autowired SubscriptionRepository subs;
+    @Autowired NotificationOutboxRepository outbox;
+    @Autowired NotificationService notifier;
+    @Autowired EntityManagerFactory emf;
+    @Autowired PlatformTransactionManager txManager;
+
+    @AfterEach
+    void cleanUp() {
+        outbox.deleteAll();
+        subs.deleteAll();
+        subjects.deleteAll();
+        users.deleteAll();
+    }
+
+    @Test
+    void thousandSubscribers_areResolvedInOneQuery() {
+        Subject subject = new Subject();
+        subject.setName("Algorithms");
+        subject.setRuzKey("G-FANOUT");
+        subject.setType(SubjectType.COURSE);
+        subject = subjects.save(subject);
+        List<User> people = new ArrayList<>();
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            User u = new User();
+            u.setEmail("fanout" + i + "@example.com");
+            people.add(u);
+        }
+        people = users.saveAll(people);
+        List<Subscription> rows = new ArrayList<>();
+        for (User u : people) {
+            Subscription s = new Subscription();
+            s.setUser(u);
+            s.setSubject(subject);
+            rows.add(s);
+        }
+        subs.saveAll(rows);
+
+        Event evt = new Event();
+        evt.setSubject(subject);
+        evt.setScheduleDiff(ScheduleDiff.manual(Map.of("room", new Change("101", "303"))));
+        Statistics stats = emf.unwrap(SessionFactory.class).getStatistics();
+        Long subjectId = subject.getId();
+
+        stats.clear();
+        new TransactionTemplate(txManager).executeWithoutResult(tx ->
+                notifier.enqueue(subs.findRecipientsBySubjectId(subjectId), evt));
+
+        assertEquals(1, stats.getQueryExecutionCount(), "queries");
+        assertEquals(0, stats.getEntityLoadCount(), "entities loaded");
+        assertEquals(0, stats.getEntityFetchCount(), "lazy fetches");
+        // the one select, and the queued mails
+        assertEquals(1 + SUBSCRIBERS, stats.getPrepareStatementCount(), "statements");
+        assertEquals(SUBSCRIBERS, outbox.count());
+    }
+}
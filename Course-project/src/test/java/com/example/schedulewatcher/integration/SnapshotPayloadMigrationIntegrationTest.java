@@ -0,0 +1,71 @@
+package com.example.schedulewatcher.integration;
+
+import com.example.schedulewatcher.model.Snapshot;
+import com.example.schedulewatcher.model.Subject;
+import com.example.schedulewatcher.model.SubjectType;
+import com.example.schedulewatcher.repository.SnapshotPayloadRepository;
+import com.example.schedulewatcher.repository.SnapshotRepository;
+import com.example.schedulewatcher.repository.SubjectRepository;
+import com.example.schedulewatcher.service.SnapshotPayloadMigrator;
+import com.example.schedulewatcher.service.SnapshotPayloadStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.OffsetDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+@ActiveProfiles("test")
+class SnapshotPayloadMigrationIntegrationTest {
+
+    @Autowired SubjectRepository subjects;
+    @Autowired SnapshotRepository snaps;
+    @Autowired SnapshotPayloadRepository payloads;
+    @Autowired SnapshotPayloadStore store;
+    @Autowired SnapshotPayloadMigrator migrator;
+
+    @AfterEach
+    void cleanUp() {
+        snaps.deleteAll();
+        payloads.deleteAll();
+        subjects.deleteAll();
+    }
+
+    @Test
+    void migrate_movesInlinePayloads_storingEachContentOnce() {
+        Subject s = new Subject();
+        s.setName("Migrated");
+        s.setRuzKey("G-MIGRATE");
+        s.setType(SubjectType.COURSE);
+        s = subjects.save(s);
+
+        // the schedule flipped A -> B -> A
+        Snapshot a1 = snaps.save(legacy(s, "hash-a", "{\"room\":\"101\"}", 3));
+        Snapshot b = snaps.save(legacy(s, "hash-b", "{\"room\":\"202\"}", 2));
+        Snapshot a2 = snaps.save(legacy(s, "hash-a", "{\"room\":\"101\"}", 1));
+
+        migrator.migrate();
+
+        assertEquals(2, payloads.count());
+        for (Snapshot migrated : snaps.findAll()) {
+            assertNull(migrated.getRaw(), "inline payload cleared");
+        }
+        assertEquals("{\"room\":\"101\"}", store.rawOf(snaps.findById(a1.getId()).orElseThrow()));
+        assertEquals("{\"room\":\"202\"}", store.rawOf(snaps.findById(b.getId()).orElseThrow()));
+        assertEquals("{\"room\":\"101\"}", store.rawOf(snaps.findById(a2.getId()).orElseThrow()));
+        assertEquals(0, migrator.migrateBatch(), "nothing left to move");
+    }
+
+    private static Snapshot legacy(Subject s, String hash, String raw, int daysAgo) {
+        Snapshot snap = new Snapshot();
+        snap.setSubject(s);
+        snap.setSnapshotAt(OffsetDateTime.now().minusDays(daysAgo));
+        snap.setPayloadHash(hash);
+        snap.setRaw(raw);
+        return snap;
+    }
+}
@@ -80,6 +80,7 @@ class SubscriptionAndEventsIntegrationTest {
         e1.setEventTime(OffsetDateTime.now().minusHours(1));
         e1.setHash("algo-hash");
         e1.setDiff("{\"room\":[\"A101\",\"B202\"]}");
+        e1.setDiffTextEn("room: A101 -> B202");
         eventRepository.save(e1);
 
         Event e2 = new Event();
@@ -100,6 +101,7 @@ class SubscriptionAndEventsIntegrationTest {
                 .andExpect(model().attributeExists("events"))
                 // 页面里应该出现 Algorithms，但不应该出现 Chemistry
                 .andExpect(content().string(containsString("Algorithms")))
+                .andExpect(content().string(containsString("room: A101 -&gt; B202")))
                 .andExpect(content().string(not(containsString("Chemistry"))));
     }
 
@@ -0,0 +1,154 @@
+package com.example.schedulewatcher.load;
+
+import com.example.schedulewatcher.model.Event;
+import com.example.schedulewatcher.model.Subject;
+import com.example.schedulewatcher.repository.AuditLogRepository;
+import com.example.schedulewatcher.repository.NotificationOutboxRepository;
+import com.example.schedulewatcher.repository.SubscriptionRepository.Recipient;
+import com.example.schedulewatcher.service.AuditAppender;
+import com.example.schedulewatcher.service.DiffTextRenderer;
+import com.example.schedulewatcher.service.MailComposer;
+import com.example.schedulewatcher.service.NotificationFilterIndex;
+import com.example.schedulewatcher.service.NotificationService;
+import com.example.schedulewatcher.util.LessonDiff.Lesson;
+import com.example.schedulewatcher.util.ScheduleDiff;
+import com.example.schedulewatcher.util.ScheduleDiffUtil;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.support.ResourceBundleMessageSource;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSender;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Bytes allocated per change event (a day of 30 lessons with a few changes, mailed to
+ * 100 subscribers and shown on 50 event page views), for the old way - the diff JSON
+ * parsed by a new ObjectMapper to decide whether to mail, again per subscriber for the
+ * text and again per page view - against the typed diff that is formatted once for all
+ * subscribers and parsed once per page view with the shared mapper.
+ */
+class DiffAllocationTest {
+
+    private static final int SUBSCRIBERS = 100;
+    private static final int PAGE_VIEWS = 50;
+    private static final int WARMUP = 20;
+    private static final int RUNS = 30;
+
+    private final JavaMailSender mail = mock(JavaMailSender.class, withSettings().stubOnly());
+    private final AuditLogRepository audit = mock(AuditLogRepository.class, withSettings().stubOnly());
+    private final NotificationService service = new NotificationService(mail, mock(AuditAppender.class, withSettings().stubOnly()),
+            new NotificationFilterIndex(), new DiffTextRenderer(messages()),
+            new MailComposer(messages(), new DiffTextRenderer(messages())),
+            mock(NotificationOutboxRepository.class, withSettings().stubOnly()));
+
+    @Test
+    void typedDiff_allocatesAFractionOfRepeatedReparsing_whenNotifying() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        ScheduleDiff diff = ScheduleDiffUtil.compare(day(false), day(true));
+        String json = diff.toJson();
+        Subject subject = new Subject();
+        subject.setName("Algorithms");
+        List<Recipient> subs = new ArrayList<>();
+        for (int i = 0; i < SUBSCRIBERS; i++) {
+            subs.add(new Recipient((long) i, "u" + i + "@example.com", "Algorithms", false, null, "[\"web\",\"email\"]", null, null));
+        }
+
+        long[][] old = new long[2][RUNS];
+        long[][] typed = new long[2][RUNS];
+        for (int i = 0; i < WARMUP + RUNS; i++) {
+            long t0 = threads.getCurrentThreadAllocatedBytes();
+            notifyReparsing(json, subs);
+            long t1 = threads.getCurrentThreadAllocatedBytes();
+            for (int v = 0; v < PAGE_VIEWS; v++) text(new ObjectMapper().readTree(json));
+            long t2 = threads.getCurrentThreadAllocatedBytes();
+            Event evt = new Event();
+            evt.setSubject(subject);
+            evt.setScheduleDiff(diff);
+            service.enqueue(subs, evt);
+            long t3 = threads.getCurrentThreadAllocatedBytes();
+            for (int v = 0; v < PAGE_VIEWS; v++) {
+                Event loaded = new Event();
+                loaded.setDiff(json);
+                service.formatDiffPlain(loaded.getScheduleDiff());
+            }
+            long t4 = threads.getCurrentThreadAllocatedBytes();
+            if (i >= WARMUP) {
+                old[0][i - WARMUP] = t1 - t0;
+                old[1][i - WARMUP] = t2 - t1;
+                typed[0][i - WARMUP] = t3 - t2;
+                typed[1][i - WARMUP] = t4 - t3;
+            }
+        }
+
+        long oldNotify = median(old[0]), oldViews = median(old[1]);
+        long typedNotify = median(typed[0]), typedViews = median(typed[1]);
+        System.out.printf("Allocated per change event (%d subscribers, %d page views, %d byte diff):%n",
+                SUBSCRIBERS, PAGE_VIEWS, json.length());
+        System.out.printf("  notify, reparsed per use:  %,d bytes%n", oldNotify);
+        System.out.printf("  notify, typed diff:        %,d bytes%n", typedNotify);
+        System.out.printf("  page views, new mapper:    %,d bytes%n", oldViews);
+        System.out.printf("  page views, shared mapper: %,d bytes%n", typedViews);
+        System.out.printf("  total: %,d -> %,d bytes%n", oldNotify + oldViews, typedNotify + typedViews);
+        assertTrue(typedNotify * 3 < oldNotify, "notify: typed " + typedNotify + " bytes, reparsed " + oldNotify + " bytes");
+        assertTrue(typedNotify + typedViews < oldNotify + oldViews);
+    }
+
+    /** What notifying cost before: the JSON was read by a new mapper to decide, and again per subscriber. */
+    private void notifyReparsing(String json, List<Recipient> subs) throws Exception {
+        JsonNode meaningful = new ObjectMapper().readTree(json);
+        if (meaningful.path("added").size() + meaningful.path("removed").size() + meaningful.path("modified").size() == 0) {
+            return;
+        }
+        for (Recipient s : subs) {
+            SimpleMailMessage msg = new SimpleMailMessage();
+            msg.setTo(s.email());
+            msg.setSubject("[Schedule Change] Algorithms");
+            msg.setText("Schedule changed for Algorithms\n" + text(new ObjectMapper().readTree(json)));
+            mail.send(msg);
+            audit.save(new com.example.schedulewatcher.model.AuditLog());
+        }
+    }
+
+    private static String text(JsonNode root) {
+        StringBuilder sb = new StringBuilder();
+        for (JsonNode l : root.path("added")) sb.append("+ ").append(l.path("subject").asText("")).append('\n');
+        for (JsonNode l : root.path("removed")) sb.append("- ").append(l.path("subject").asText("")).append('\n');
+        for (JsonNode m : root.path("modified")) sb.append("~ ").append(m.path("lesson").path("subject").asText("")).append('\n');
+        return sb.toString();
+    }
+
+    /** 30 lessons; the changed version re-rooms three, moves two, cancels one and adds one. */
+    private static List<Lesson> day(boolean changed) {
+        List<Lesson> out = new ArrayList<>();
+        for (int l = 0; l < 30; l++) {
+            if (changed && l == 7) continue;
+            String start = changed && (l == 3 || l == 4) ? "20:0" + l : String.format("%02d:%02d", 8 + l / 3, (l % 3) * 20);
+            String room = changed && l % 10 == 0 ? "Main, 999" : "Main, " + (100 + l);
+            out.add(new Lesson("2025-09-01", start, null, "Subject " + l, "Seminar", room, "Teacher " + l % 7));
+        }
+        if (changed) out.add(new Lesson("2025-09-01", "21:00", null, "Extra", "Seminar", "Main, 500", "Teacher 0"));
+        return out;
+    }
+
+    private static ResourceBundleMessageSource messages() {
+        ResourceBundleMessageSource m = new ResourceBundleMessageSource();
+        m.setBasename("messages");
+        m.setDefaultEncoding("UTF-8");
+        return m;
+    }
+
+    private static long median(long[] bytes) {
+        long[] sorted = bytes.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
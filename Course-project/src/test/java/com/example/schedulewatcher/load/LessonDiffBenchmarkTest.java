@@ -0,0 +1,145 @@
+package com.example.schedulewatcher.load;
+
+import com.example.schedulewatcher.util.LessonDiff;
+import com.example.schedulewatcher.util.ScheduleDiffUtil;
+import com.example.schedulewatcher.util.ScheduleHashTree;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Diff time for a semester-sized schedule of 120 days x 30 lessons: a new version that
+ * moves, re-rooms, adds and cancels a few percent, and one that changes a single day.
+ * The timings are only checked in the benchmark group, which the default build leaves out.
+ */
+class LessonDiffBenchmarkTest {
+
+    private static final int DAYS = 120;
+    private static final int LESSONS_PER_DAY = 30;
+    private static final int WARMUP = 30;
+    private static final int RUNS = 50;
+
+    private final ObjectMapper om = new ObjectMapper();
+
+    @Test
+    @Tag("benchmark")
+    void diffsThousandsOfLessons_inAFewMilliseconds() throws Exception {
+        String before = schedule(false);
+        String after = schedule(true);
+        List<LessonDiff.Lesson> oldLessons = LessonDiff.parse(before);
+        List<LessonDiff.Lesson> newLessons = LessonDiff.parse(after);
+
+        LessonDiff.Result r = LessonDiff.diff(oldLessons, newLessons);
+        assertEquals(DAYS, r.added().size());
+        assertEquals(DAYS, r.removed().size());
+        assertEquals(2 * DAYS, r.modified().size());
+
+        long[] match = new long[RUNS];
+        long[] full = new long[RUNS];
+        for (int i = 0; i < WARMUP + RUNS; i++) {
+            long t0 = System.nanoTime();
+            LessonDiff.diff(oldLessons, newLessons);
+            long t1 = System.nanoTime();
+            String diff = ScheduleDiffUtil.diff(before, after);
+            long t2 = System.nanoTime();
+            JsonNode out = om.readTree(diff);
+            assertEquals(DAYS, out.get("added").size());
+            if (i >= WARMUP) {
+                match[i - WARMUP] = t1 - t0;
+                full[i - WARMUP] = t2 - t1;
+            }
+        }
+
+        double matchMs = median(match);
+        double fullMs = median(full);
+        System.out.printf("Lesson diff, %d lessons per version, median of %d runs:%n", oldLessons.size(), RUNS);
+        System.out.printf("  matching:                    %.2f ms%n", matchMs);
+        System.out.printf("  parse + match + JSON output: %.2f ms (%d bytes in)%n", fullMs, after.length());
+        // generous bounds, the build machine may be slow and busy
+        assertTrue(matchMs < 10, "matching took " + matchMs + " ms");
+        assertTrue(fullMs < 150, "full diff took " + fullMs + " ms");
+    }
+
+    @Test
+    @Tag("benchmark")
+    void hashTreeDiff_costsLessThanAFullDiff_whenOneDayChanged() throws Exception {
+        String before = schedule(false);
+        String after = before.replaceFirst("\"name\":\"105\"", "\"name\":\"999\"");   // one room on the first day
+        List<LessonDiff.Day> positions = new ArrayList<>();
+        ScheduleHashTree stored = ScheduleHashTree.of(LessonDiff.parse(before, null, positions), positions);
+
+        long[] full = new long[RUNS];
+        long[] tree = new long[RUNS];
+        for (int i = 0; i < WARMUP + RUNS; i++) {
+            long t0 = System.nanoTime();
+            String fullDiff = ScheduleDiffUtil.diff(before, after);
+            long t1 = System.nanoTime();
+            // what the fetcher does: the new payload is parsed and hashed anyway, of the old
+            // one only the days whose hashes differ are cut out and parsed
+            List<LessonDiff.Lesson> lessons = LessonDiff.parse(after);
+            Set<String> days = ScheduleHashTree.of(lessons).changedDays(stored);
+            List<LessonDiff.Lesson> newOnDays = lessons.stream().filter(l -> days.contains(l.date())).toList();
+            List<LessonDiff.Lesson> oldOnDays = LessonDiff.parse(stored.slice(before, days), days);
+            assertTrue(stored.covers(oldOnDays, days));
+            String treeDiff = ScheduleDiffUtil.diff(oldOnDays, newOnDays);
+            long t2 = System.nanoTime();
+            assertEquals(fullDiff, treeDiff);
+            assertEquals(Set.of("2025-09-01"), days);
+            if (i >= WARMUP) {
+                full[i - WARMUP] = t1 - t0;
+                tree[i - WARMUP] = t2 - t1;
+            }
+        }
+
+        double fullMs = median(full);
+        double treeMs = median(tree);
+        System.out.printf("One changed day of %d, median of %d runs:%n", DAYS, RUNS);
+        System.out.printf("  full diff:      %.2f ms%n", fullMs);
+        System.out.printf("  hash tree walk: %.2f ms (incl. parsing and hashing the new payload)%n", treeMs);
+        assertTrue(treeMs < fullMs, "tree walk " + treeMs + " ms, full diff " + fullMs + " ms");
+    }
+
+    /** Every day: lesson 0 changes room, lesson 1 moves to the evening, lesson 2 is cancelled, one lesson is new. */
+    private static String schedule(boolean changed) {
+        StringBuilder sb = new StringBuilder("{\"days\":[");
+        for (int d = 0; d < DAYS; d++) {
+            if (d > 0) sb.append(',');
+            sb.append("{\"date\":\"2025-").append(String.format("%02d-%02d", 9 + d / 28, 1 + d % 28)).append("\",\"lessons\":[");
+            boolean first = true;
+            for (int l = 0; l < LESSONS_PER_DAY; l++) {
+                if (changed && l == 2) continue;
+                String start = l == 1 && changed ? "20:00" : String.format("%02d:%02d", 8 + l / 3, (l % 3) * 20);
+                String room = l == 0 && changed ? "999" : String.valueOf(100 + l);
+                first = lesson(sb, first, "Subject " + l, start, room, "Teacher " + l % 7);
+            }
+            if (changed) lesson(sb, first, "Extra", "21:00", "500", "Teacher 0");
+            sb.append("]}");
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static boolean lesson(StringBuilder sb, boolean first, String subject, String start, String room, String teacher) {
+        if (!first) sb.append(',');
+        sb.append("{\"subject\":\"").append(subject).append("\",\"time_start\":\"").append(start)
+                .append("\",\"time_end\":\"").append(start).append("\",\"typeObj\":{\"name\":\"Seminar\"},")
+                .append("\"teachers\":[{\"full_name\":\"").append(teacher).append("\"}],")
+                .append("\"auditories\":[{\"name\":\"").append(room).append("\",\"building\":{\"name\":\"Main\"}}]}");
+        return false;
+    }
+
+    private static double median(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
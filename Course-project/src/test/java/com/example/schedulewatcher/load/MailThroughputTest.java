@@ -0,0 +1,177 @@
+package com.example.schedulewatcher.load;
+
+import com.example.schedulewatcher.model.NotificationOutbox;
+import com.example.schedulewatcher.repository.NotificationOutboxRepository;
+import com.example.schedulewatcher.service.AuditAppender;
+import com.example.schedulewatcher.service.DiffTextRenderer;
+import com.example.schedulewatcher.service.MailComposer;
+import com.example.schedulewatcher.service.NotificationFilterIndex;
+import com.example.schedulewatcher.service.NotificationOutboxWorker;
+import com.example.schedulewatcher.service.NotificationService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.support.StaticMessageSource;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Mails per second from NotificationOutboxWorker through the real JavaMailSenderImpl to a
+ * local SMTP stub that, like a real relay, takes a while to greet a new connection:
+ * one message per connection, first on a single thread as notifyByEmail used to send,
+ * then on the worker pool, against batches over one connection per worker.
+ * The timed comparison is in the benchmark group, which the default build leaves out.
+ */
+class MailThroughputTest {
+
+    private static final int MAILS = 200;
+    private static final int WORKERS = 4;          // notifications.outbox.workers
+    private static final int SEND_BATCH = 25;      // notifications.outbox.send-batch
+    private static final long GREETING_MS = 40;    // TCP + greeting of a remote relay
+
+    ServerSocket smtp;
+    ExecutorService stubPool;
+    final AtomicInteger connections = new AtomicInteger();
+    final AtomicInteger received = new AtomicInteger();
+
+    @BeforeEach
+    void startStub() throws IOException {
+        smtp = new ServerSocket(0);
+        stubPool = Executors.newCachedThreadPool();
+        stubPool.submit(() -> {
+            while (!smtp.isClosed()) {
+                try {
+                    Socket s = smtp.accept();
+                    connections.incrementAndGet();
+                    stubPool.submit(() -> session(s));
+                } catch (IOException closed) {
+                    return;
+                }
+            }
+        });
+    }
+
+    @AfterEach
+    void stopStub() throws IOException {
+        smtp.close();
+        stubPool.shutdownNow();
+    }
+
+    /** Just enough SMTP for JavaMail: every command accepted, DATA read up to the lone dot. */
+    private void session(Socket s) {
+        try (s; BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII))) {
+            OutputStream out = s.getOutputStream();
+            Thread.sleep(GREETING_MS);
+            reply(out, "220 stub ESMTP");
+            String line;
+            while ((line = in.readLine()) != null) {
+                String cmd = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+                switch (cmd) {
+                    case "EHLO", "HELO" -> reply(out, "250 stub");
+                    case "DATA" -> {
+                        reply(out, "354 go ahead");
+                        while ((line = in.readLine()) != null && !line.equals(".")) { }
+                        received.incrementAndGet();
+                        reply(out, "250 queued");
+                    }
+                    case "QUIT" -> {
+                        reply(out, "221 bye");
+                        return;
+                    }
+                    default -> reply(out, "250 ok");
+                }
+            }
+        } catch (IOException | InterruptedException ignore) {
+        }
+    }
+
+    private static void reply(OutputStream out, String line) throws IOException {
+        out.write((line + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    @Test
+    void batchedSending_opensOneConnectionPerBatch() {
+        run(WORKERS, SEND_BATCH);
+
+        assertEquals(MAILS, received.get(), "every mail reached the stub");
+        assertEquals(MAILS / SEND_BATCH, connections.get());
+    }
+
+    @Test
+    @Tag("benchmark")
+    void batchedSending_deliversSeveralTimesMoreMailsPerSecond() {
+        double serial = run(1, 1);
+        int serialConnections = connections.getAndSet(0);
+        double pooled = run(WORKERS, 1);
+        int pooledConnections = connections.getAndSet(0);
+        double batched = run(WORKERS, SEND_BATCH);
+        int batchedConnections = connections.getAndSet(0);
+
+        System.out.printf("%d mails, SMTP stub greeting after %d ms:%n", MAILS, GREETING_MS);
+        System.out.printf("  one per connection, 1 thread:   %6.0f mails/s (%d connections)%n", serial, serialConnections);
+        System.out.printf("  one per connection, %d threads:  %6.0f mails/s (%d connections)%n", WORKERS, pooled, pooledConnections);
+        System.out.printf("  batches of %d, %d threads:      %6.0f mails/s (%d connections)%n", SEND_BATCH, WORKERS, batched, batchedConnections);
+        assertEquals(3 * MAILS, received.get(), "every mail reached the stub");
+        assertEquals(MAILS / SEND_BATCH, batchedConnections);
+        assertTrue(batched > 3 * pooled, "batched " + batched + " mails/s vs " + pooled + " one per connection");
+    }
+
+    /** Mails per second for one worker drain of MAILS queued rows. */
+    private double run(int workers, int sendBatch) {
+        JavaMailSenderImpl sender = new JavaMailSenderImpl();
+        sender.setHost("127.0.0.1");
+        sender.setPort(smtp.getLocalPort());
+        NotificationService notifier = new NotificationService(sender, mock(AuditAppender.class), new NotificationFilterIndex(),
+                new DiffTextRenderer(new StaticMessageSource()), mock(MailComposer.class), mock(NotificationOutboxRepository.class));
+
+        NotificationOutboxRepository outbox = mock(NotificationOutboxRepository.class);
+        List<NotificationOutbox> rows = new ArrayList<>();
+        List<Number> ids = new ArrayList<>();
+        for (long i = 0; i < MAILS; i++) {
+            NotificationOutbox n = new NotificationOutbox();
+            n.setId(i);
+            n.setRecipient("u" + i + "@example.com");
+            n.setMailSubject("[Schedule Change] Algorithms");
+            n.setBody("Schedule changed for Algorithms\n~ 2025-09-01 10:00-11:40 Algebra: room 101 -> 303\n");
+            rows.add(n);
+            ids.add(i);
+        }
+        when(outbox.lockDue(any(), anyInt())).thenReturn(ids);
+        when(outbox.findAllById(anyList())).thenReturn(rows);
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        try {
+            NotificationOutboxWorker worker = new NotificationOutboxWorker(outbox, notifier, pool,
+                    mock(PlatformTransactionManager.class), "bench", MAILS, sendBatch, 8, 30_000, 3_600_000,
+                    300_000, new SimpleMeterRegistry());
+            long t0 = System.nanoTime();
+            worker.drainBatch();
+            double seconds = (System.nanoTime() - t0) / 1e9;
+            verify(outbox, times(MAILS)).markSent(anyLong(), eq("bench"), any());
+            return MAILS / seconds;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
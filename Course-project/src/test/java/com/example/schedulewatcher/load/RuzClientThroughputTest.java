@@ -0,0 +1,146 @@
+package com.example.schedulewatcher.load;
+
+import com.example.schedulewatcher.service.FetchOutcome;
+import com.example.schedulewatcher.service.RuzClient;
+import com.example.schedulewatcher.util.TokenBucket;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Schedule downloads per second against a local RUZ stub that answers after 100 ms:
+ * the former transport (RestTemplate over HttpURLConnection, one blocking fetch worker
+ * per request, no compression) versus RuzClient on the pooled async HttpClient.
+ */
+class RuzClientThroughputTest {
+
+    private static final int REQUESTS = 240;
+    private static final int WORKERS = 8;          // fetcher.parallelism
+    private static final long LATENCY_MS = 100;
+
+    static {
+        // the stub writes headers and body separately; without this Nagle + delayed ACK adds ~40 ms per response
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    HttpServer stub;
+    ExecutorService stubPool;
+    String base;
+    String schedule;
+    final AtomicLong bytesSent = new AtomicLong();
+
+    @BeforeEach
+    void startStub() throws IOException {
+        StringBuilder sb = new StringBuilder("{\"days\":[");
+        for (int d = 0; d < 6; d++) {
+            if (d > 0) sb.append(',');
+            sb.append("{\"weekday\":").append(d + 1).append(",\"lessons\":[");
+            for (int l = 0; l < 40; l++) {
+                if (l > 0) sb.append(',');
+                sb.append("{\"subject\":\"Discrete mathematics\",\"time_start\":\"10:00\",\"time_end\":\"11:40\",")
+                        .append("\"teacher\":\"Ivanov I. I.\",\"auditory\":\"").append(100 + l).append("\"}");
+            }
+            sb.append("]}");
+        }
+        schedule = sb.append("]}").toString();
+        byte[] plain = schedule.getBytes(StandardCharsets.UTF_8);
+        byte[] gzipped = gzip(plain);
+
+        stubPool = Executors.newFixedThreadPool(128);
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 512);
+        stub.setExecutor(stubPool);
+        stub.createContext("/", ex -> {
+            try {
+                Thread.sleep(LATENCY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            String accept = ex.getRequestHeaders().getFirst("Accept-Encoding");
+            byte[] body = accept != null && accept.contains("gzip") ? gzipped : plain;
+            if (body == gzipped) ex.getResponseHeaders().add("Content-Encoding", "gzip");
+            ex.getResponseHeaders().add("Content-Type", "application/json");
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(body);
+            }
+            bytesSent.addAndGet(body.length);
+        });
+        stub.start();
+        base = "http://127.0.0.1:" + stub.getAddress().getPort() + "/api";
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.stop(0);
+        stubPool.shutdownNow();
+    }
+
+    @Test
+    void scheduleFetch_throughput_blockingVsAsync() throws Exception {
+        // before: every request occupies a fetch worker until its response is read
+        RestTemplate rest = new RestTemplate();
+        ExecutorService workers = Executors.newFixedThreadPool(WORKERS);
+        bytesSent.set(0);
+        long t0 = System.nanoTime();
+        List<Future<String>> blocking = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            String url = base + "/scheduler/" + i;
+            blocking.add(workers.submit(() -> rest.getForObject(url, String.class)));
+        }
+        for (Future<String> f : blocking) assertEquals(schedule, f.get(60, TimeUnit.SECONDS));
+        double beforeRps = rps(REQUESTS, System.nanoTime() - t0);
+        long beforeBytes = bytesSent.get();
+        workers.shutdown();
+
+        // after: requests wait for RUZ without a thread, bounded only by the per-host cap
+        RuzClient client = new RuzClient(HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).build(),
+                new TokenBucket(100_000, 100_000), new SimpleMeterRegistry(), 0);
+        ReflectionTestUtils.setField(client, "baseUrl", base);
+        ReflectionTestUtils.setField(client, "maxConcurrentPerHost", 64);
+        bytesSent.set(0);
+        t0 = System.nanoTime();
+        List<CompletableFuture<FetchOutcome>> async = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            async.add(client.fetchScheduleAsync("COURSE", String.valueOf(i), null, null));
+        }
+        for (CompletableFuture<FetchOutcome> f : async) assertEquals(schedule, f.get(60, TimeUnit.SECONDS).getBody());
+        double afterRps = rps(REQUESTS, System.nanoTime() - t0);
+        long afterBytes = bytesSent.get();
+
+        System.out.printf("RUZ fetch, %d requests, %d ms stub latency:%n", REQUESTS, LATENCY_MS);
+        System.out.printf("  blocking RestTemplate, %d workers: %.0f req/s, %d bytes/response%n",
+                WORKERS, beforeRps, beforeBytes / REQUESTS);
+        System.out.printf("  async HttpClient + gzip:         %.0f req/s, %d bytes/response%n",
+                afterRps, afterBytes / REQUESTS);
+    }
+
+    private static double rps(int requests, long nanos) {
+        return requests / (nanos / 1e9);
+    }
+
+    private static byte[] gzip(byte[] raw) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(bytes)) {
+            gz.write(raw);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.schedulewatcher.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class AuditAppenderTest {
+
+    private final JdbcTemplate jdbc = mock(JdbcTemplate.class);
+    private final SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+    private final AuditAppender audit = new AuditAppender(jdbc, 4, 3, metrics);
+    private final List<List<AuditAppender.Entry>> written = new ArrayList<>();
+
+    private void recordWrites() {
+        when(jdbc.batchUpdate(anyString(), entries(), anyInt(), setter()))
+                .thenAnswer(inv -> {
+                    Collection<AuditAppender.Entry> batch = inv.getArgument(1);
+                    written.add(new ArrayList<>(batch));
+                    return new int[0][];
+                });
+    }
+
+    private void failWrites() {
+        when(jdbc.batchUpdate(anyString(), entries(), anyInt(), setter()))
+                .thenThrow(new DataAccessResourceFailureException("connection refused"));
+    }
+
+    private static Collection<AuditAppender.Entry> entries() {
+        return anyCollection();
+    }
+
+    private static ParameterizedPreparedStatementSetter<AuditAppender.Entry> setter() {
+        return any();
+    }
+
+    @Test
+    void appendOnlyBuffers_andFlushWritesInBatches() {
+        recordWrites();
+        for (int i = 0; i < 4; i++) audit.append("system", "NOTIFY_SENT", null, Map.of("email", "u" + i + "@example.com"));
+
+        verifyNoInteractions(jdbc);
+        audit.flush();
+
+        assertEquals(List.of(3, 1), written.stream().map(List::size).toList());
+        assertEquals("{\"email\":\"u0@example.com\"}", written.get(0).get(0).meta());
+        assertEquals(0, audit.buffered());
+    }
+
+    @Test
+    void fullBuffer_isWrittenByTheCaller_nothingDropped() {
+        recordWrites();
+        for (int i = 0; i < 5; i++) audit.append("system", "NOTIFY_SENT", null, Map.of("n", i));
+
+        // the fifth append found 4 buffered and wrote 2 of them plus itself
+        assertEquals(1, written.size());
+        assertEquals(3, written.get(0).size());
+        assertEquals("{\"n\":4}", written.get(0).get(2).meta());
+        assertEquals(2, audit.buffered());
+        assertEquals(1.0, metrics.counter("audit.overflow").count());
+    }
+
+    @Test
+    void failedFlush_keepsTheEntriesForTheNextOne() {
+        audit.append("system", "NOTIFY_SENT", null, Map.of("email", "a\"b@example.com"));
+        failWrites();
+
+        audit.flush();
+
+        assertEquals(1, audit.buffered());
+        reset(jdbc);
+        recordWrites();
+        audit.flush();
+        // meta is real JSON now, quotes and all
+        assertEquals("{\"email\":\"a\\\"b@example.com\"}", written.get(0).get(0).meta());
+    }
+
+    @Test
+    void failedCallerWrite_doesNotThrow_andCountsWhatNoLongerFits() {
+        for (int i = 0; i < 4; i++) audit.append("system", "NOTIFY_SENT", null, Map.of("n", i));
+        failWrites();
+
+        assertDoesNotThrow(() -> audit.append("system", "NOTIFY_SENT", null, Map.of("n", 4)));
+
+        // 2 drained plus the new entry failed; 2 were still buffered, so 2 fit back in
+        assertEquals(4, audit.buffered());
+        assertEquals(1.0, metrics.counter("audit.dropped").count());
+    }
+}
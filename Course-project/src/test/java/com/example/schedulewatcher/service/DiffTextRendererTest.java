@@ -0,0 +1,64 @@
+package com.example.schedulewatcher.service;
+
+import com.example.schedulewatcher.model.Event;
+import com.example.schedulewatcher.util.LessonDiff.Change;
+import com.example.schedulewatcher.util.ScheduleDiff;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.MessageSource;
+import org.springframework.context.support.ResourceBundleMessageSource;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiffTextRendererTest {
+
+    private final DiffTextRenderer renderer = new DiffTextRenderer(messages());
+
+    static MessageSource messages() {
+        ResourceBundleMessageSource m = new ResourceBundleMessageSource();
+        m.setBasename("messages");
+        m.setDefaultEncoding("UTF-8");
+        m.setFallbackToSystemLocale(false);
+        return m;
+    }
+
+    @Test
+    void render_storesTheTextForEverySupportedLocale() {
+        Event evt = new Event();
+        evt.setDiff("{\"type\":\"changed\",\"added\":[{\"date\":\"2025-09-01\",\"start\":\"16:00\",\"subject\":\"History\"}],"
+                + "\"removed\":[],\"modified\":[{\"lesson\":{\"date\":\"2025-09-01\",\"start\":\"10:00\",\"end\":\"11:40\","
+                + "\"subject\":\"Algebra\",\"room\":\"303\"},\"changes\":{\"room\":{\"from\":\"101\",\"to\":\"303\"}}}]}");
+
+        renderer.render(evt);
+
+        assertEquals("Type: changed\n"
+                + "+ 2025-09-01 16:00 History\n"
+                + "~ 2025-09-01 10:00-11:40 Algebra, 303: room 101 -> 303", evt.getDiffTextEn());
+        assertEquals("类型: 课表变更\n"
+                + "+ 2025-09-01 16:00 History\n"
+                + "~ 2025-09-01 10:00-11:40 Algebra, 303: 教室 101 -> 303", evt.getDiffTextZh());
+    }
+
+    @Test
+    void manualEdits_listTheirFieldChanges() {
+        Event evt = new Event();
+        evt.setScheduleDiff(ScheduleDiff.manual(Map.of("room", new Change("101", "303"))));
+
+        renderer.render(evt);
+
+        assertEquals("Type: manual\nroom: 101 -> 303", evt.getDiffTextEn());
+        assertEquals("类型: 手动修改\n教室: 101 -> 303", evt.getDiffTextZh());
+    }
+
+    @Test
+    void unreadableDiffs_areShownAsStored() {
+        Event evt = new Event();
+        evt.setDiff("not json");
+
+        renderer.render(evt);
+
+        assertEquals("not json", evt.getDiffTextEn());
+        assertEquals("not json", evt.getDiffTextZh());
+    }
+}
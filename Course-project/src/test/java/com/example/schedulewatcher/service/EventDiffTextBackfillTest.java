@@ -0,0 +1,50 @@
+package com.example.schedulewatcher.service;
+
+import com.example.schedulewatcher.model.Event;
+import com.example.schedulewatcher.repository.EventRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class EventDiffTextBackfillTest {
+
+    private final EventRepository events = mock(EventRepository.class);
+    private final EventDiffTextBackfill backfill = new EventDiffTextBackfill(events,
+            new DiffTextRenderer(DiffTextRendererTest.messages()), mock(PlatformTransactionManager.class), 2);
+
+    private static Event event(long id, String diff) {
+        Event e = new Event();
+        e.setId(id);
+        e.setDiff(diff);
+        return e;
+    }
+
+    @Test
+    void rendersOldEventsInBatches_untilNoneAreLeft() {
+        List<Event> left = new ArrayList<>(List.of(
+                event(1, "{\"type\":\"manual\",\"changes\":{\"room\":{\"from\":\"101\",\"to\":\"303\"}}}"),
+                event(2, "{\"type\":\"initial\"}"),
+                event(3, "{\"type\":\"manual\",\"changes\":{\"date\":{\"from\":\"\",\"to\":\"2025-09-01\"}}}")));
+        when(events.findWithoutDiffText(any(Pageable.class))).thenAnswer(inv -> {
+            List<Event> batch = new ArrayList<>(left.subList(0, Math.min(2, left.size())));
+            left.removeAll(batch);
+            return batch;
+        });
+
+        backfill.backfill();
+
+        verify(events, times(2)).findWithoutDiffText(any(Pageable.class));
+        verify(events).setDiffText(1L, "Type: manual\nroom: 101 -> 303", "类型: 手动修改\n教室: 101 -> 303");
+        verify(events).setDiffText(2L, "Type: initial", "类型: 首次获取");
+        verify(events).setDiffText(eq(3L), eq("Type: manual\ndate:  -> 2025-09-01"), any());
+        verify(events, times(3)).setDiffText(anyLong(), any(), any());
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.schedulewatcher.service;
+
+import com.example.schedulewatcher.service.MailComposer.Template;
+import com.example.schedulewatcher.util.ScheduleDiff;
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MailComposerTest {
+
+    private static final String ROOM_CHANGE = "{\"type\":\"changed\",\"added\":[],\"removed\":[],\"modified\":[{\"lesson\":"
+            + "{\"date\":\"2025-09-01\",\"start\":\"10:00\",\"end\":\"11:40\",\"subject\":\"Algebra\",\"room\":\"303\"},"
+            + "\"changes\":{\"room\":{\"from\":\"101\",\"to\":\"303\"}}}]}";
+
+    private final MailComposer composer = new MailComposer(DiffTextRendererTest.messages(),
+            new DiffTextRenderer(DiffTextRendererTest.messages()));
+
+    @Test
+    void mails_areRenderedOncePerVariant_inTheRecipientsLanguage() {
+        MailComposer.Composition mails = composer.compose(ScheduleDiff.parse(ROOM_CHANGE));
+
+        MailComposer.Mail en = mails.mail(Locale.ENGLISH, false, "Algebra");
+        MailComposer.Mail important = mails.mail(Locale.ENGLISH, true, "Algebra");
+        MailComposer.Mail zh = mails.mail(Locale.CHINESE, false, "Algebra");
+
+        assertSame(en, mails.mail(Locale.ENGLISH, false, "Algebra"));
+        assertEquals("[Schedule Change] Algebra", en.subject());
+        assertEquals("Schedule changed for Algebra\n~ 2025-09-01 10:00-11:40 Algebra, 303: room 101 -> 303\n", en.body());
+        assertEquals("[Important] [Schedule Change] Algebra", important.subject());
+        assertEquals(en.body(), important.body());
+        assertEquals("[课表变更] Algebra", zh.subject());
+        assertEquals("Algebra 的课表有变更\n~ 2025-09-01 10:00-11:40 Algebra, 303: 教室 101 -> 303\n", zh.body());
+        assertEquals("[Schedule Change] 3 changes", composer.digestSubject(Locale.ENGLISH, 3));
+    }
+
+    @Test
+    void localeOf_mapsStoredTagsToSupportedLocales() {
+        assertEquals(Locale.CHINESE, MailComposer.localeOf("zh"));
+        assertEquals(Locale.CHINESE, MailComposer.localeOf("zh-CN"));
+        assertEquals(Locale.ENGLISH, MailComposer.localeOf("fr"));
+        assertEquals(Locale.ENGLISH, MailComposer.localeOf(null));
+    }
+
+    @Test
+    void templates_fillInPlaceholdersInAnyOrder_andLeaveOtherBracesAlone() {
+        assertEquals("b, a {x}", Template.compile("{1}, {0} {x}").apply("a", "b"));
+        assertEquals("no args", Template.compile("no args").apply());
+        assertEquals("{2}!", Template.compile("{2}!").apply("a"));
+        assertEquals("{ open", Template.compile("{ open").apply());
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.schedulewatcher.service;
+
+import com.example.schedulewatcher.repository.SubscriptionRepository.Recipient;
+import com.example.schedulewatcher.util.ScheduleDiff;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NotificationFilterIndexTest {
+
+    private final NotificationFilterIndex index = new NotificationFilterIndex();
+
+    private static Recipient sub(long id, String filters) {
+        return new Recipient(id, "u" + id + "@example.com", "Algebra", false, filters, "[\"web\",\"email\"]", null, null);
+    }
+
+    private static final String ROOM_CHANGE = "{\"type\":\"changed\",\"added\":[],\"removed\":[],\"modified\":[{\"lesson\":"
+            + "{\"date\":\"2025-09-01\",\"start\":\"10:00\",\"end\":\"11:40\",\"subject\":\"Algebra\",\"room\":\"Main, 303\","
+            + "\"teacher\":\"Ivanov I.\"},\"changes\":{\"room\":{\"from\":\"Main, 101\",\"to\":\"Main, 303\"}}}]}";
+
+    @Test
+    void matchesRoomDateTimeAndTeacher_ofTheChangedLessonBeforeAndAfter() {
+        Recipient all = sub(1, "{}");
+        Recipient newRoom = sub(2, "{\"room\":\"303\"}");
+        Recipient oldRoom = sub(3, "{\"room\":\"101\"}");
+        Recipient otherRoom = sub(4, "{\"room\":\"205\"}");
+        Recipient sameDayMorning = sub(5, "{\"date\":\"2025-09-01\",\"from\":\"09:00\",\"to\":\"10:30\"}");
+        Recipient sameDayEvening = sub(6, "{\"date\":\"2025-09-01\",\"from\":\"18:00\"}");
+        Recipient otherDay = sub(7, "{\"date\":\"2025-09-02\"}");
+        Recipient teacher = sub(8, "{\"teacher\":\"ivanov\"}");
+        Recipient otherTeacher = sub(9, "{\"teacher\":\"Petrov\"}");
+
+        List<Recipient> out = index.matching(List.of(all, newRoom, oldRoom, otherRoom, sameDayMorning,
+                sameDayEvening, otherDay, teacher, otherTeacher), ScheduleDiff.parse(ROOM_CHANGE));
+
+        assertEquals(List.of(all, newRoom, oldRoom, sameDayMorning, teacher), out);
+    }
+
+    @Test
+    void addedAndRemovedLessons_matchOnTheirOwnDay() {
+        String diff = "{\"type\":\"changed\",\"added\":[{\"date\":\"2025-09-03\",\"start\":\"16:00\",\"subject\":\"History\"}],"
+                + "\"removed\":[{\"date\":\"2025-09-04\",\"start\":\"08:00\",\"subject\":\"Physics\"}],\"modified\":[]}";
+        Recipient wed = sub(1, "{\"date\":\"2025-09-03\"}");
+        Recipient thu = sub(2, "{\"date\":\"2025-09-04\",\"to\":\"09:00\"}");
+        Recipient fri = sub(3, "{\"date\":\"2025-09-05\"}");
+
+        assertEquals(List.of(wed, thu), index.matching(List.of(wed, thu, fri), ScheduleDiff.parse(diff)));
+    }
+
+    @Test
+    void lessonWithoutARoom_matchesEveryRoomFilter() {
+        String diff = "{\"type\":\"changed\",\"added\":[{\"date\":\"2025-09-03\",\"start\":\"16:00\",\"subject\":\"History\","
+                + "\"teacher\":\"Petrov P.\"}],\"removed\":[],\"modified\":[]}";
+        Recipient room = sub(1, "{\"room\":\"101\"}");
+        Recipient roomAndTeacher = sub(2, "{\"room\":\"101\",\"teacher\":\"petrov\"}");
+        Recipient otherTeacher = sub(3, "{\"room\":\"101\",\"teacher\":\"ivanov\"}");
+
+        assertEquals(List.of(room, roomAndTeacher), index.matching(List.of(room, roomAndTeacher, otherTeacher), ScheduleDiff.parse(diff)));
+    }
+
+    @Test
+    void whatCannotBeEvaluated_matchesEveryone() {
+        List<Recipient> subs = List.of(sub(1, "{\"room\":\"101\"}"), sub(2, "not json"), sub(3, "{\"teacher\":\"4874\"}"));
+
+        // manual edits and legacy field diffs have no lessons to go by
+        assertEquals(subs, index.matching(subs, ScheduleDiff.parse("{\"type\":\"manual\",\"changes\":{\"room\":{\"from\":\"1\",\"to\":\"2\"}}}")));
+        assertEquals(subs, index.matching(subs, ScheduleDiff.parse(null)));
+        // an unreadable filter or a numeric teacher id does not narrow anything
+        assertEquals(subs.subList(1, 3), index.matching(subs, ScheduleDiff.parse(ROOM_CHANGE.replace("101", "102"))));
+    }
+
+    @Test
+    void editedFilters_areRecompiled() {
+        Recipient s = sub(1, "{\"room\":\"205\"}");
+        assertEquals(List.of(), index.matching(List.of(s), ScheduleDiff.parse(ROOM_CHANGE)));
+
+        Recipient edited = sub(1, "{\"room\":\"303\"}");
+
+        assertEquals(List.of(edited), index.matching(List.of(edited), ScheduleDiff.parse(ROOM_CHANGE)));
+    }
+
+    @Test
+    void hundredsOfNarrowFilters_onlyTheMatchingFewAreNotified() {
+        List<Recipient> subs = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            subs.add(sub(i, String.format("{\"date\":\"2025-09-%02d\",\"room\":\"%d\"}", 1 + i % 28, 100 + i % 10)));
+        }
+
+        List<Recipient> out = index.matching(subs, ScheduleDiff.parse(ROOM_CHANGE));
+
+        // the 1st of September, rooms 101 (before) or 303 (after): i % 28 == 0 and i % 10 == 1 never both hold
+        assertTrue(out.isEmpty());
+        List<Recipient> withOldRoom = index.matching(subs, ScheduleDiff.parse(ROOM_CHANGE.replace("Main, 101", "Main, 100")));
+        assertEquals(List.of(subs.get(0), subs.get(140), subs.get(280)), withOldRoom);
+    }
+}
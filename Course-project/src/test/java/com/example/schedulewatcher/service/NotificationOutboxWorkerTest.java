@@ -0,0 +1,185 @@
+package com.example.schedulewatcher.service;
+
+import com.example.schedulewatcher.model.NotificationOutbox;
+import com.example.schedulewatcher.repository.NotificationOutboxRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.mail.MailSendException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class NotificationOutboxWorkerTest {
+
+    private final NotificationOutboxRepository outbox = mock(NotificationOutboxRepository.class);
+    private final NotificationService notifier = mock(NotificationService.class);
+    private final ExecutorService pool = Executors.newFixedThreadPool(2);
+    private final SimpleMeterRegistry metrics = new SimpleMeterRegistry();
+    private final NotificationOutboxWorker worker = new NotificationOutboxWorker(outbox, notifier, pool,
+            mock(PlatformTransactionManager.class), "node-1", 10, 2, 3, 1_000, 8_000, 60_000, metrics);
+
+    @AfterEach
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private NotificationOutbox queued(long id, int attempts) {
+        NotificationOutbox n = new NotificationOutbox();
+        n.setId(id);
+        n.setRecipient("u" + id + "@example.com");
+        n.setAttempts(attempts);
+        return n;
+    }
+
+    private void due(NotificationOutbox... rows) {
+        when(outbox.lockDue(any(), eq(10))).thenReturn(List.of(rows).stream().map(r -> (Number) r.getId()).toList());
+        when(outbox.findAllById(anyList())).thenReturn(List.of(rows));
+    }
+
+    @Test
+    void deliveredMails_areSentInBatches_andMarkedSentAndAudited() {
+        NotificationOutbox a = queued(1, 0), b = queued(2, 0), c = queued(3, 0);
+        due(a, b, c);
+        when(notifier.deliver(anyList())).thenReturn(Map.of());
+
+        assertEquals(3, worker.drainBatch());
+
+        verify(outbox).claim(eq(List.of(1L, 2L, 3L)), eq("node-1"), any());
+        // send-batch 2: one connection for the first two, one for the third
+        verify(notifier).deliver(List.of(a, b));
+        verify(notifier).deliver(List.of(c));
+        for (NotificationOutbox n : List.of(a, b, c)) {
+            verify(outbox).markSent(eq(n.getId()), eq("node-1"), any());
+            verify(notifier).recordSent(n, 1);
+        }
+        assertEquals(3.0, metrics.counter("notifications.outbox", "result", "sent").count());
+    }
+
+    @Test
+    void sentMails_areAudited_onlyOnceMarkedSentIsCommitted() {
+        PlatformTransactionManager tx = mock(PlatformTransactionManager.class);
+        NotificationOutboxWorker committing = new NotificationOutboxWorker(outbox, notifier, pool,
+                tx, "node-1", 10, 2, 3, 1_000, 8_000, 60_000, metrics);
+        NotificationOutbox a = queued(1, 0);
+        due(a);
+        when(notifier.deliver(anyList())).thenReturn(Map.of());
+
+        committing.drainBatch();
+
+        InOrder order = inOrder(outbox, tx, notifier);
+        order.verify(outbox).markSent(eq(1L), eq("node-1"), any());
+        order.verify(tx).commit(any());
+        order.verify(notifier).recordSent(a, 1);
+    }
+
+    @Test
+    void mailsRejectedWithinABatch_areRetried_theRestMarkedSent() {
+        NotificationOutbox ok = queued(1, 0), rejected = queued(2, 0);
+        due(ok, rejected);
+        when(notifier.deliver(anyList())).thenReturn(Map.of(rejected, new MailSendException("550 no such user")));
+
+        worker.drainBatch();
+
+        verify(outbox).markSent(eq(1L), eq("node-1"), any());
+        verify(outbox).markFailed(eq(2L), eq("node-1"), eq("PENDING"), any(), contains("550"));
+        verify(notifier).recordSent(ok, 1);
+        verify(notifier, never()).recordSent(eq(rejected), anyInt());
+    }
+
+    @Test
+    void failedMail_isRetriedLater_andDeadLetteredOnItsLastAttempt() {
+        NotificationOutbox first = queued(1, 0), last = queued(2, 2);
+        due(first, last);
+        MailSendException down = new MailSendException("smtp down");
+        when(notifier.deliver(anyList())).thenReturn(Map.of(first, down, last, down));
+
+        OffsetDateTime before = OffsetDateTime.now();
+        worker.drainBatch();
+
+        // first failure: back to PENDING in 500..1000 ms
+        verify(outbox).markFailed(eq(1L), eq("node-1"), eq("PENDING"),
+                argThat(next -> next.isAfter(before.plusNanos(499_000_000L)) && next.isBefore(before.plusSeconds(3))),
+                contains("smtp down"));
+        // third failure with max-attempts 3: given up on
+        verify(outbox).markFailed(eq(2L), eq("node-1"), eq("DEAD"), any(), contains("smtp down"));
+        verify(outbox, never()).markSent(anyLong(), any(), any());
+        verify(notifier, never()).recordSent(any(), anyInt());
+        assertEquals(1.0, metrics.counter("notifications.outbox", "result", "retried").count());
+        assertEquals(1.0, metrics.counter("notifications.outbox", "result", "dead").count());
+    }
+
+    @Test
+    void digestRowsOfOneRecipient_goOutAsOneMail_nextToImmediateOnes() {
+        NotificationOutbox math = queued(1, 0), physics = queued(2, 0), urgent = queued(3, 0), other = queued(4, 0);
+        for (NotificationOutbox n : List.of(math, physics, urgent)) n.setRecipient("u@example.com");
+        math.setDigest(true);
+        physics.setDigest(true);
+        other.setDigest(true);
+        due(math, urgent, physics, other);
+        NotificationOutbox merged = new NotificationOutbox();
+        merged.setRecipient("u@example.com");
+        when(notifier.digest(List.of(math, physics))).thenReturn(merged);
+        when(notifier.deliver(anyList())).thenReturn(Map.of());
+
+        worker.drainBatch();
+
+        // the important change, then the digest and the single digest row of another user
+        verify(notifier).deliver(List.of(urgent, merged));
+        verify(notifier).deliver(List.of(other));
+        for (long id = 1; id <= 4; id++) verify(outbox).markSent(eq(id), eq("node-1"), any());
+        verify(notifier).recordSent(merged, 2);
+        verify(notifier).recordSent(urgent, 1);
+        verify(notifier).recordSent(other, 1);
+    }
+
+    @Test
+    void failedDigest_retriesAllItsRowsTogether() {
+        NotificationOutbox a = queued(1, 0), b = queued(2, 1);
+        for (NotificationOutbox n : List.of(a, b)) {
+            n.setRecipient("u@example.com");
+            n.setDigest(true);
+        }
+        due(a, b);
+        NotificationOutbox merged = new NotificationOutbox();
+        when(notifier.digest(List.of(a, b))).thenReturn(merged);
+        when(notifier.deliver(anyList())).thenReturn(Map.of(merged, new MailSendException("smtp down")));
+
+        worker.drainBatch();
+
+        ArgumentCaptor<OffsetDateTime> next = ArgumentCaptor.forClass(OffsetDateTime.class);
+        verify(outbox).markFailed(eq(1L), eq("node-1"), eq("PENDING"), next.capture(), any());
+        verify(outbox).markFailed(eq(2L), eq("node-1"), eq("PENDING"), eq(next.getValue()), any());
+        assertEquals(1.0, metrics.counter("notifications.outbox", "result", "retried").count());
+    }
+
+    @Test
+    void backoff_doublesPerAttempt_upToTheMaximum() {
+        for (int i = 0; i < 50; i++) {
+            long first = worker.backoff(1), third = worker.backoff(3), tenth = worker.backoff(10);
+            assertTrue(first >= 500 && first <= 1_000, "attempt 1: " + first);
+            assertTrue(third >= 2_000 && third <= 4_000, "attempt 3: " + third);
+            assertTrue(tenth >= 4_000 && tenth <= 8_000, "attempt 10: " + tenth);
+        }
+    }
+
+    @Test
+    void nothingDue_sendsNothing() {
+        when(outbox.lockDue(any(), anyInt())).thenReturn(List.of());
+
+        worker.drain();
+
+        verify(outbox, never()).claim(any(), any(), any());
+        verifyNoInteractions(notifier);
+    }
+}
@@ -1,23 +1,23 @@
 package com.example.schedulewatcher.service;
 
-import com.example.schedulewatcher.model.AuditLog;
 import com.example.schedulewatcher.model.Event;
-import com.example.schedulewatcher.model.Subject;
-import com.example.schedulewatcher.model.Subscription;
-import com.example.schedulewatcher.model.User;
-import com.example.schedulewatcher.repository.AuditLogRepository;
-import com.example.schedulewatcher.repository.SubjectRepository;
-import com.example.schedulewatcher.repository.UserRepository;
+import com.example.schedulewatcher.model.NotificationOutbox;
+import com.example.schedulewatcher.repository.NotificationOutboxRepository;
+import com.example.schedulewatcher.repository.SubscriptionRepository.Recipient;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
 
+import java.time.OffsetDateTime;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -26,59 +26,234 @@ import static org.mockito.Mockito.*;
 class NotificationServiceTest {
 
     @Mock JavaMailSender mailSender;
-    @Mock AuditLogRepository audit;
-    @Mock UserRepository users;
-    @Mock SubjectRepository subjects;
+    @Mock AuditAppender audit;
+    @Mock NotificationOutboxRepository outbox;
+    @Spy NotificationFilterIndex filters = new NotificationFilterIndex();
+    @Spy DiffTextRenderer texts = new DiffTextRenderer(DiffTextRendererTest.messages());
+    @Spy MailComposer composer = new MailComposer(DiffTextRendererTest.messages(), texts);
 
     @InjectMocks NotificationService service;
 
     @Test
-    void notifyByEmail_skipsWhenDiffNotMeaningful() {
-        Subscription s = new Subscription();
-        User u = new User();
-        u.setEmail("u@example.com");
-        s.setUser(u);
+    void enqueue_skipsWhenDiffNotMeaningful() {
+        Recipient s = recipient("u@example.com", null);
 
         Event evt = new Event();
         // type = initial → isMeaningfulDiff 应该返回 false
         evt.setDiff("{\"type\":\"initial\"}");
 
-        service.notifyByEmail(List.of(s), evt);
+        service.enqueue(List.of(s), evt);
 
+        verifyNoInteractions(outbox);
+        verifyNoInteractions(mailSender);
+    }
+
+    @Test
+    void enqueue_queuesMailWithoutSendingIt_whenDiffMeaningful() {
+        Recipient s = recipient("u@example.com", null);
+
+        Event evt = new Event();
+        evt.setDiff("{\"type\":\"changed\",\"changes\":{\"room\":{\"from\":\"101\",\"to\":\"303\"}}}");
+
+        service.enqueue(List.of(s), evt);
+
+        ArgumentCaptor<NotificationOutbox> captor = ArgumentCaptor.forClass(NotificationOutbox.class);
+        verify(outbox).save(captor.capture());
+        NotificationOutbox queued = captor.getValue();
+
+        assertEquals("u@example.com", queued.getRecipient());
+        assertTrue(queued.getMailSubject().contains("Algorithms"));
+        assertEquals(NotificationOutbox.Status.PENDING, queued.getStatus());
+
+        // sending and auditing is up to NotificationOutboxWorker
         verifyNoInteractions(mailSender);
         verifyNoInteractions(audit);
     }
 
     @Test
-    void notifyByEmail_sendsMailAndWritesAudit_whenDiffMeaningful() {
-        Subscription s = new Subscription();
-        User u = new User();
-        u.setEmail("u@example.com");
-        s.setUser(u);
+    void enqueue_listsLessonChanges_andSkipsEmptyLessonDiffs() {
+        Recipient s = recipient("u@example.com", null);
+
+        Event nothing = new Event();
+        nothing.setDiff("{\"type\":\"changed\",\"added\":[],\"removed\":[],\"modified\":[]}");
+        service.enqueue(List.of(s), nothing);
+        verifyNoInteractions(outbox);
+
+        Event evt = new Event();
+        evt.setDiff("{\"type\":\"changed\",\"added\":[{\"date\":\"2025-09-01\",\"start\":\"16:00\",\"subject\":\"History\"}],"
+                + "\"removed\":[],\"modified\":[{\"lesson\":{\"date\":\"2025-09-01\",\"start\":\"10:00\",\"end\":\"11:40\","
+                + "\"subject\":\"Algebra\",\"room\":\"303\"},\"changes\":{\"room\":{\"from\":\"101\",\"to\":\"303\"}}}]}");
+        service.enqueue(List.of(s), evt);
+
+        ArgumentCaptor<NotificationOutbox> captor = ArgumentCaptor.forClass(NotificationOutbox.class);
+        verify(outbox).save(captor.capture());
+        assertEquals("Schedule changed for Algorithms\n"
+                + "+ 2025-09-01 16:00 History\n"
+                + "~ 2025-09-01 10:00-11:40 Algebra, 303: room 101 -> 303\n", captor.getValue().getBody());
+    }
 
-        Subject subj = new Subject();
-        subj.setName("Algorithms");
-        s.setSubject(subj);
+    @Test
+    void enqueue_mailsNoOne_whoseChannelsAreWebOnly() {
+        Recipient webOnly = new Recipient(1L, "web@example.com", "Algorithms", false, "{}", "[\"web\"]", null, null);
+        Recipient both = new Recipient(2L, "both@example.com", "Algorithms", false, "{}", "[\"web\",\"email\"]", null, null);
+        Recipient unset = new Recipient(3L, "unset@example.com", "Algorithms", false, "{}", null, null, null);
 
         Event evt = new Event();
-        evt.setSubject(subj);
         evt.setDiff("{\"type\":\"changed\",\"changes\":{\"room\":{\"from\":\"101\",\"to\":\"303\"}}}");
+        service.enqueue(List.of(webOnly, both, unset), evt);
+
+        ArgumentCaptor<NotificationOutbox> captor = ArgumentCaptor.forClass(NotificationOutbox.class);
+        verify(outbox, times(2)).save(captor.capture());
+        assertEquals(List.of("both@example.com", "unset@example.com"),
+                captor.getAllValues().stream().map(NotificationOutbox::getRecipient).toList());
+    }
 
-        service.notifyByEmail(List.of(s), evt);
+    @Test
+    void enqueue_mailsOnlySubscribersWhoseFiltersMatchTheChangedLessons_andWhoWantMail() {
+        Recipient everything = recipient("all@example.com", "{}");
+        Recipient oldRoom = recipient("room101@example.com", "{\"room\":\"101\"}");
+        Recipient otherDay = recipient("tue@example.com", "{\"date\":\"2025-09-02\"}");
+        Recipient webOnly = new Recipient(5L, "web@example.com", "Algorithms", false, "{}", "[\"web\"]", null, null);
+        Recipient evening = recipient("evening@example.com", "{\"date\":\"2025-09-01\",\"from\":\"18:00\",\"to\":\"21:00\"}");
+
+        Event evt = new Event();
+        evt.setDiff("{\"type\":\"changed\",\"added\":[],\"removed\":[],\"modified\":[{\"lesson\":{\"date\":\"2025-09-01\","
+                + "\"start\":\"10:00\",\"end\":\"11:40\",\"subject\":\"Algebra\",\"room\":\"Main, 303\"},"
+                + "\"changes\":{\"room\":{\"from\":\"Main, 101\",\"to\":\"Main, 303\"}}}]}");
+        service.enqueue(List.of(everything, oldRoom, otherDay, webOnly, evening), evt);
 
-        ArgumentCaptor<SimpleMailMessage> captor = ArgumentCaptor.forClass(SimpleMailMessage.class);
-        verify(mailSender).send(captor.capture());
-        SimpleMailMessage msg = captor.getValue();
+        ArgumentCaptor<NotificationOutbox> captor = ArgumentCaptor.forClass(NotificationOutbox.class);
+        verify(outbox, times(2)).save(captor.capture());
+        assertEquals(List.of("all@example.com", "room101@example.com"),
+                captor.getAllValues().stream().map(NotificationOutbox::getRecipient).toList());
+    }
+
+    @Test
+    void deliver_sendsABatchInOneCall_andRecordSentAuditsEachMail() {
+        NotificationOutbox a = queued("a@example.com"), b = queued("b@example.com");
+
+        assertTrue(service.deliver(List.of(a, b)).isEmpty());
+        service.recordSent(a, 1);
+
+        ArgumentCaptor<SimpleMailMessage[]> mail = ArgumentCaptor.forClass(SimpleMailMessage[].class);
+        verify(mailSender).send(mail.capture());
+        SimpleMailMessage[] sent = mail.getValue();
+        assertEquals(2, sent.length);
+        assertEquals("a@example.com", sent[0].getTo()[0]);
+        assertEquals("b@example.com", sent[1].getTo()[0]);
+        assertEquals("[Schedule Change] Algorithms", sent[0].getSubject());
+        assertEquals("Schedule changed for Algorithms\nroom: 101 -> 303", sent[0].getText());
+        verify(audit).append("system", "NOTIFY_SENT", null, Map.of("channel", "email", "email", "a@example.com"));
+    }
+
+    @Test
+    void enqueue_holdsChangesForDigestUsers_untilTheEndOfTheirWindow_butNotImportantOnes() {
+        Recipient hourly = new Recipient(1L, "hourly@example.com", "Algorithms", false, null, "[\"web\",\"email\"]", 60, null);
+        Recipient hourlyImportant = new Recipient(2L, "hourly@example.com", "Physics", true, null, "[\"web\",\"email\"]", 60, null);
+        Recipient immediate = recipient("now@example.com", null);
 
-        assertEquals("u@example.com", msg.getTo()[0]);
-        assertTrue(msg.getSubject().contains("Algorithms"));
+        Event evt = new Event();
+        evt.setDiff("{\"type\":\"manual\",\"changes\":{\"room\":{\"from\":\"101\",\"to\":\"303\"}}}");
+        service.enqueue(List.of(hourly, hourlyImportant, immediate), evt);
+
+        ArgumentCaptor<NotificationOutbox> captor = ArgumentCaptor.forClass(NotificationOutbox.class);
+        verify(outbox, times(3)).save(captor.capture());
+        List<NotificationOutbox> queued = captor.getAllValues();
+        assertTrue(queued.get(0).isDigest());
+        assertEquals(0, queued.get(0).getNextAttemptAt().getMinute());
+        assertTrue(queued.get(0).getNextAttemptAt().isAfter(OffsetDateTime.now()));
+        assertFalse(queued.get(1).isDigest());
+        assertFalse(queued.get(2).isDigest());
+    }
+
+    @Test
+    void enqueue_rendersEachLanguageAndImportanceOnce_andRecipientsShareTheText() {
+        Recipient a = recipient("a@example.com", null), b = recipient("b@example.com", null);
+        Recipient zh = new Recipient(3L, "zh@example.com", "Algorithms", false, null, "[\"web\",\"email\"]", null, "zh");
+        Recipient zhImportant = new Recipient(4L, "zh2@example.com", "Algorithms", true, null, "[\"web\",\"email\"]", null, "zh");
+
+        Event evt = new Event();
+        evt.setDiff("{\"type\":\"manual\",\"changes\":{\"room\":{\"from\":\"101\",\"to\":\"303\"}}}");
+        service.enqueue(List.of(a, b, zh, zhImportant), evt);
+
+        ArgumentCaptor<NotificationOutbox> captor = ArgumentCaptor.forClass(NotificationOutbox.class);
+        verify(outbox, times(4)).save(captor.capture());
+        List<NotificationOutbox> queued = captor.getAllValues();
+        assertSame(queued.get(0).getBody(), queued.get(1).getBody());
+        assertEquals("[课表变更] Algorithms", queued.get(2).getMailSubject());
+        assertEquals("Algorithms 的课表有变更\n教室: 101 -> 303", queued.get(2).getBody());
+        assertEquals("[重要] [课表变更] Algorithms", queued.get(3).getMailSubject());
+        assertSame(queued.get(2).getBody(), queued.get(3).getBody());
+        assertEquals("zh", queued.get(3).getLocale());
+    }
+
+    @Test
+    void digestWindows_areAlignedToTheClock() {
+        long tenFourteen = OffsetDateTime.parse("2025-09-01T10:14:59Z").toInstant().toEpochMilli();
+        assertEquals(OffsetDateTime.parse("2025-09-01T10:15:00Z"), NotificationService.digestDue(tenFourteen, 15));
+        assertEquals(OffsetDateTime.parse("2025-09-01T11:00:00Z"), NotificationService.digestDue(tenFourteen, 60));
+        long tenFifteen = OffsetDateTime.parse("2025-09-01T10:15:00Z").toInstant().toEpochMilli();
+        assertEquals(OffsetDateTime.parse("2025-09-01T10:30:00Z"), NotificationService.digestDue(tenFifteen, 15));
+    }
+
+    @Test
+    void digest_mergesTheQueuedMails_andIsAuditedOnce() {
+        NotificationOutbox a = queued("u@example.com"), b = queued("u@example.com");
+        b.setBody("Schedule changed for Physics\n+ 2025-09-02 12:00 Physics\n");
+
+        NotificationOutbox d = service.digest(List.of(a, b));
+        service.recordSent(d, 2);
+
+        assertEquals("u@example.com", d.getRecipient());
+        assertEquals("[Schedule Change] 2 changes", d.getMailSubject());
+        assertEquals("Schedule changed for Algorithms\nroom: 101 -> 303\n\n"
+                + "Schedule changed for Physics\n+ 2025-09-02 12:00 Physics\n", d.getBody());
+        verify(audit).append("system", "NOTIFY_SENT", null,
+                Map.of("channel", "email", "email", "u@example.com", "digest", 2));
+    }
+
+    @Test
+    void digest_isTitledInTheLanguageOfItsMails() {
+        NotificationOutbox a = queued("u@example.com"), b = queued("u@example.com");
+        a.setLocale("zh");
+        b.setLocale("zh");
+
+        assertEquals("[课表变更] 2 项变更", service.digest(List.of(a, b)).getMailSubject());
+    }
+
+    @Test
+    void deliver_reportsOnlyTheMailsTheServerRejected() {
+        NotificationOutbox a = queued("a@example.com"), b = queued("b@example.com");
+        doAnswer(inv -> {
+            SimpleMailMessage rejected = inv.getArgument(1);
+            throw new MailSendException(Map.of(rejected, new RuntimeException("550 no such user")));
+        }).when(mailSender).send(any(SimpleMailMessage[].class));
+
+        Map<NotificationOutbox, Exception> failed = service.deliver(List.of(a, b));
+
+        assertEquals(1, failed.size());
+        assertTrue(failed.get(b).getMessage().contains("550"));
+
+        // no connection at all: the whole batch failed
+        doThrow(new MailSendException("connection refused")).when(mailSender).send(any(SimpleMailMessage[].class));
+        assertEquals(2, service.deliver(List.of(a, b)).size());
+    }
+
+    private static NotificationOutbox queued(String recipient) {
+        NotificationOutbox n = new NotificationOutbox();
+        n.setRecipient(recipient);
+        n.setMailSubject("[Schedule Change] Algorithms");
+        n.setBody("Schedule changed for Algorithms\nroom: 101 -> 303");
+        return n;
+    }
 
-        verify(audit).save(any(AuditLog.class));
+    private static Recipient recipient(String email, String filters) {
+        return new Recipient(null, email, "Algorithms", false, filters, "[\"web\",\"email\"]", null, null);
     }
 
     @Test
     void formatDiffPlain_returnsEmpty_whenNullOrBlank() {
-        assertEquals("", service.formatDiffPlain(null));
+        assertEquals("", service.formatDiffPlain((String) null));
         assertEquals("", service.formatDiffPlain("   "));
     }
 
@@ -0,0 +1,92 @@
+package com.example.schedulewatcher.service;
+
+import com.example.schedulewatcher.model.FetchState;
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PollSchedulerTest {
+
+    private static final long BASE = 60_000;
+    private static final long IMPORTANT = 15_000;
+    private static final long MAX = 21_600_000;
+    private static final long BACKOFF_AFTER = 86_400_000;
+
+    private final PollScheduler scheduler = new PollScheduler(BASE, IMPORTANT, MAX, BACKOFF_AFTER);
+
+    @Test
+    void changedSubject_isPolledAtBaseInterval_andImportantOneFaster() {
+        OffsetDateTime now = OffsetDateTime.now();
+        FetchState plain = new FetchState(1L);
+        FetchState important = new FetchState(2L);
+
+        assertTrue(scheduler.reschedule(plain, false, true, now));
+        assertTrue(scheduler.reschedule(important, true, true, now));
+
+        assertEquals(BASE, plain.getPollIntervalMs());
+        assertEquals(IMPORTANT, important.getPollIntervalMs());
+        assertEquals(now, plain.getLastChangedAt());
+    }
+
+    @Test
+    void recentlyChangedSubject_doesNotBackOff() {
+        OffsetDateTime now = OffsetDateTime.now();
+        FetchState s = new FetchState(1L);
+        s.setPollIntervalMs(BASE);
+        s.setLastChangedAt(now.minusHours(3));
+
+        assertFalse(scheduler.reschedule(s, false, false, now));
+        assertEquals(BASE, s.getPollIntervalMs());
+    }
+
+    @Test
+    void stableSubject_backsOffExponentially_upToCap() {
+        OffsetDateTime now = OffsetDateTime.now();
+        FetchState s = new FetchState(1L);
+        s.setPollIntervalMs(BASE);
+        s.setLastChangedAt(now.minusWeeks(3));
+
+        scheduler.reschedule(s, false, false, now);
+        assertEquals(2 * BASE, s.getPollIntervalMs());
+        scheduler.reschedule(s, false, false, now);
+        assertEquals(4 * BASE, s.getPollIntervalMs());
+
+        for (int i = 0; i < 20; i++) scheduler.reschedule(s, false, false, now);
+        assertEquals(MAX, s.getPollIntervalMs());
+
+        // a change resets the interval
+        scheduler.reschedule(s, false, true, now);
+        assertEquals(BASE, s.getPollIntervalMs());
+    }
+
+    @Test
+    void importantSubject_neverBacksOffBeyondBaseInterval() {
+        OffsetDateTime now = OffsetDateTime.now();
+        FetchState s = new FetchState(1L);
+        s.setPollIntervalMs(IMPORTANT);
+        s.setLastChangedAt(now.minusWeeks(3));
+
+        for (int i = 0; i < 10; i++) scheduler.reschedule(s, true, false, now);
+        assertEquals(BASE, s.getPollIntervalMs());
+    }
+
+    @Test
+    void takeDue_returnsSubjectsInDueOrder_andSkipsUnwatched() {
+        long now = System.currentTimeMillis();
+        scheduler.admit(1L, null, now);
+        scheduler.admit(2L, null, now - 10);
+        scheduler.admit(3L, null, now - 5);
+        scheduler.retryLater(4L, now);
+
+        List<Long> due = scheduler.takeDue(Set.of(1L, 2L), now);
+
+        assertEquals(List.of(2L, 1L), due);
+        // taken and dropped subjects leave the queue, 4 is not due yet and stays
+        assertEquals(Set.of(1L, 2L, 3L), new HashSet<>(scheduler.unscheduled(Set.of(1L, 2L, 3L, 4L))));
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.schedulewatcher.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RetentionServiceTest {
+
+    @Mock JdbcTemplate jdbc;
+    @Mock PlatformTransactionManager txManager;
+
+    // create_month_partition goes through another queryForList overload, hence lenient()
+
+    private RetentionService service() {
+        return new RetentionService(jdbc, txManager, true, 6, 12, 3, 14, 90);
+    }
+
+    @Test
+    void runScheduled_stillCreatesPartitionsAhead_whenRetentionIsDisabled() {
+        new RetentionService(jdbc, txManager, false, 6, 12, 3, 14, 90).runScheduled();
+
+        verify(jdbc, times(4)).queryForList(contains("create_month_partition"), eq("snapshots"), any());
+        verify(jdbc, times(4)).queryForList(contains("create_month_partition"), eq("events"), any());
+        verify(jdbc, never()).queryForList(contains("pg_inherits"), eq(String.class), anyString());
+        verify(jdbc, never()).update(anyString());
+        verify(jdbc, never()).update(contains("notification_outbox"), any(Object[].class));
+    }
+
+    @Test
+    void run_dropsExpiredPartitionsOldestFirst_carryingLatestSnapshotsForward() {
+        lenient().when(jdbc.queryForList(contains("pg_inherits"), eq(String.class), eq("snapshots")))
+                .thenReturn(List.of("snapshots_p202504", "snapshots_p202503", "snapshots_p202502",
+                        "snapshots_p202510", "snapshots_default"));
+        lenient().when(jdbc.queryForList(contains("pg_inherits"), eq(String.class), eq("events")))
+                .thenReturn(List.of("events_p202410", "events_p202409"));
+
+        service().run(LocalDate.of(2025, 10, 15));
+
+        InOrder order = inOrder(jdbc);
+        order.verify(jdbc).update(contains("FROM snapshots_p202502 p"), any(OffsetDateTime.class), any(OffsetDateTime.class));
+        order.verify(jdbc).execute("DROP TABLE snapshots_p202502");
+        order.verify(jdbc).update(contains("FROM snapshots_p202503 p"), any(OffsetDateTime.class), any(OffsetDateTime.class));
+        order.verify(jdbc).execute("DROP TABLE snapshots_p202503");
+        order.verify(jdbc).execute("DROP TABLE events_p202409");
+        order.verify(jdbc).queryForList(startsWith("SELECT p.hash FROM snapshot_payloads"), eq(String.class));
+
+        verify(jdbc, never()).execute("DROP TABLE snapshots_p202504");
+        verify(jdbc, never()).execute("DROP TABLE events_p202410");
+        verify(jdbc, never()).execute(contains("default"));
+        // the month the carried-forward rows go to, plus this month and three ahead, for both tables
+        verify(jdbc, times(5)).queryForList(contains("create_month_partition"), eq("snapshots"), any());
+        verify(jdbc, times(4)).queryForList(contains("create_month_partition"), eq("events"), any());
+    }
+
+    @Test
+    void run_onlyCreatesPartitionsAhead_whenNothingExpired() {
+        lenient().when(jdbc.queryForList(contains("pg_inherits"), eq(String.class), anyString()))
+                .thenReturn(List.of("snapshots_p202510", "events_p202510"));
+
+        service().run(LocalDate.of(2025, 10, 15));
+
+        verify(jdbc, never()).execute(anyString());
+        verify(jdbc, never()).update(anyString());
+        verify(jdbc).update(contains("status = 'SENT' AND sent_at < ?"), any(OffsetDateTime.class));
+        verify(jdbc).update(contains("status = 'DEAD' AND created_at < ?"), any(OffsetDateTime.class));
+    }
+}
@@ -1,17 +1,313 @@
 package com.example.schedulewatcher.service;
 
+import com.example.schedulewatcher.util.CircuitBreaker;
+import com.example.schedulewatcher.util.TokenBucket;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class RuzClientTest {
 
+    HttpServer server;
+    String base;
+    SimpleMeterRegistry metrics;
+    RuzClient client;
+
+    /** Canned responses per path + query, served in order; the last one repeats. */
+    private final Map<String, Deque<Reply>> replies = new ConcurrentHashMap<>();
+    private final Map<String, List<Map<String, List<String>>>> requests = new ConcurrentHashMap<>();
+    /** Requests to these paths are answered only once the latch is released. */
+    private final Map<String, CountDownLatch> holds = new ConcurrentHashMap<>();
+
+    private record Reply(int status, String body, Map<String, String> headers) {}
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", ex -> {
+            String key = ex.getRequestURI().toString().substring("/api".length());
+            requests.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(Map.copyOf(ex.getRequestHeaders()));
+            CountDownLatch hold = holds.get(key);
+            if (hold != null) {
+                try {
+                    hold.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            Deque<Reply> queue = replies.get(key);
+            Reply r;
+            synchronized (this) {
+                r = queue == null ? new Reply(404, "", Map.of()) : queue.size() > 1 ? queue.poll() : queue.peek();
+            }
+            r.headers().forEach((k, v) -> ex.getResponseHeaders().add(k, v));
+            byte[] body = r.body().getBytes(StandardCharsets.UTF_8);
+            if ("gzip".equals(r.headers().get("Content-Encoding"))) body = gzip(body);
+            ex.sendResponseHeaders(r.status(), body.length == 0 ? -1 : body.length);
+            try (OutputStream out = ex.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort() + "/api";
+        metrics = new SimpleMeterRegistry();
+        client = client(new TokenBucket(1000, 1000));
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    private RuzClient client(TokenBucket limiter) {
+        return client(limiter, 0);
+    }
+
+    private RuzClient client(TokenBucket limiter, long coalesceTtlMs) {
+        RuzClient c = new RuzClient(HttpClient.newHttpClient(), limiter, metrics, coalesceTtlMs);
+        ReflectionTestUtils.setField(c, "baseUrl", base);
+        ReflectionTestUtils.setField(c, "backoffMs", 1L);
+        ReflectionTestUtils.setField(c, "maxBackoffMs", 2L);
+        ReflectionTestUtils.setField(c, "failureThreshold", 2);
+        return c;
+    }
+
+    private void reply(String path, Reply... rs) {
+        replies.put(path, new ArrayDeque<>(List.of(rs)));
+    }
+
+    private static Reply status(int status) {
+        return new Reply(status, "", Map.of());
+    }
+
+    private static Reply json(String body) {
+        return new Reply(200, body, Map.of("Content-Type", "application/json"));
+    }
+
+    private int hits(String path) {
+        return requests.getOrDefault(path, List.of()).size();
+    }
+
+    private static FetchOutcome fetch(RuzClient c, String id, String etag) {
+        return c.fetchScheduleAsync("COURSE", id, etag, null).join();
+    }
+
     @Test
     void resolveTeacherIdByTCode_extractsDigitsWithoutHttpCall() {
-        RuzClient client = new RuzClient();
-
         String id = client.resolveTeacherIdByTCode("T-123abc");
 
         assertEquals("123", id);
+        assertTrue(requests.isEmpty());
+    }
+
+    @Test
+    void fetchSchedule_retriesServerErrors_untilSuccess() {
+        reply("/scheduler/42", status(503), status(503), json("{\"days\":[]}"));
+
+        FetchOutcome out = fetch(client, "42", null);
+
+        assertEquals("{\"days\":[]}", out.getBody());
+        assertEquals(3, hits("/scheduler/42"));
+        assertEquals(2.0, metrics.counter("ruz.retries", "endpoint", "schedule").count());
+        assertEquals(CircuitBreaker.State.CLOSED, client.circuitState("schedule"));
+    }
+
+    @Test
+    void fetchSchedule_asksForGzip_andDecodesIt() {
+        String body = "{\"days\":[{\"lessons\":[\"" + "x".repeat(2000) + "\"]}]}";
+        reply("/scheduler/42", new Reply(200, body, Map.of("Content-Encoding", "gzip", "ETag", "\"v2\"")));
+
+        FetchOutcome out = fetch(client, "42", null);
+
+        assertEquals(body, out.getBody());
+        assertEquals("\"v2\"", out.getEtag());
+        assertEquals(List.of("gzip"), requests.get("/scheduler/42").get(0).get("Accept-encoding"));
+    }
+
+    @Test
+    void fetchSchedule_mapsUndecodableGzip_toPermanentFailure() {
+        // declared as gzip, but the stub only compresses for a lower-case "gzip"
+        reply("/scheduler/42", new Reply(200, "{\"days\":[]}", Map.of("Content-Encoding", "GZIP")));
+
+        FetchOutcome out = fetch(client, "42", null);
+
+        assertEquals(FetchOutcome.Status.PERMANENT_FAILURE, out.getStatus());
+        assertEquals("undecodable_body", out.getFailure());
+        assertEquals(1, hits("/scheduler/42"));
+    }
+
+    @Test
+    void fetchSchedule_sendsValidators_andMaps304() {
+        reply("/scheduler/42", status(304));
+
+        FetchOutcome out = fetch(client, "42", "\"v1\"");
+
+        assertTrue(out.isNotModified());
+        assertEquals(List.of("\"v1\""), requests.get("/scheduler/42").get(0).get("If-none-match"));
+    }
+
+    @Test
+    void fetchSchedule_mapsClientErrors_toPermanentFailure() {
+        reply("/scheduler/404", status(404));
+
+        FetchOutcome out = fetch(client, "404", null);
+
+        assertEquals(FetchOutcome.Status.PERMANENT_FAILURE, out.getStatus());
+        assertEquals("http_404", out.getFailure());
+        assertNull(out.getBody());
+        assertEquals(1, hits("/scheduler/404"));
+        assertEquals(1.0, metrics.counter("ruz.schedule.fetch", "result", "permanent_failure").count());
+    }
+
+    @Test
+    void fetchSchedule_mapsNonJsonBody_toTransientFailure() {
+        reply("/scheduler/42", new Reply(200, "<html>maintenance</html>", Map.of("Content-Type", "text/html")));
+
+        FetchOutcome out = fetch(client, "42", null);
+
+        assertEquals(FetchOutcome.Status.TRANSIENT_FAILURE, out.getStatus());
+        assertEquals("invalid_body", out.getFailure());
+        assertEquals(1.0, metrics.counter("ruz.schedule.fetch", "result", "transient_failure").count());
+    }
+
+    @Test
+    void clientErrors_areNotRetried() {
+        reply("/search/groups?term=X", status(404));
+        reply("/search/groups?q=X", json("[{\"id\":7}]"));
+
+        assertEquals("7", client.resolveGroupIdByCode("X"));
+        assertEquals(1, hits("/search/groups?term=X"));
+        assertEquals(0.0, metrics.counter("ruz.retries", "endpoint", "search").count());
+    }
+
+    @Test
+    void resolveGroup_takesTheVariantThatFindsIt() {
+        reply("/search/groups?term=3530", json("[]"));
+        reply("/search/groups?name=3530", json("[{\"id\":38121}]"));
+
+        assertEquals("38121", client.resolveGroupIdByCode("3530"));
+        assertEquals(1, hits("/search/groups?name=3530"));
+    }
+
+    @Test
+    void resolveGroup_returnsNull_whenRuzDoesNotKnowTheCode() {
+        reply("/search/groups?term=Typo", json("[]"));
+
+        assertNull(client.resolveGroupIdByCode("Typo"));
+    }
+
+    @Test
+    void teacherSchedule_usesTheTeacherEndpoint() {
+        reply("/teachers/77/scheduler", json("{}"));
+
+        FetchOutcome out = client.fetchScheduleAsync("TEACHER", "77", null, null).join();
+
+        assertEquals("{}", out.getBody());
+        assertEquals(1, hits("/teachers/77/scheduler"));
+    }
+
+    @Test
+    void concurrentFetchesOfOneSchedule_shareOneRequest() throws Exception {
+        RuzClient coalescing = client(new TokenBucket(1000, 1000), 5_000);
+        CountDownLatch hold = new CountDownLatch(1);
+        holds.put("/scheduler/7", hold);
+        reply("/scheduler/7", json("{\"v\":1}"));
+
+        CompletableFuture<FetchOutcome> a = coalescing.fetchScheduleAsync("COURSE", "7", null, null);
+        CompletableFuture<FetchOutcome> b = coalescing.fetchScheduleAsync("COURSE", "7", null, null);
+        hold.countDown();
+
+        assertEquals("{\"v\":1}", a.get(5, TimeUnit.SECONDS).getBody());
+        assertEquals("{\"v\":1}", b.get(5, TimeUnit.SECONDS).getBody());
+        // and for a few seconds afterwards the result is reused
+        assertEquals("{\"v\":1}", fetch(coalescing, "7", null).getBody());
+        assertEquals(1, hits("/scheduler/7"));
+        assertEquals(2.0, metrics.counter("ruz.schedule.fetch", "result", "shared").count());
+        // other validators are a different request
+        fetch(coalescing, "7", "\"v1\"");
+        assertEquals(2, hits("/scheduler/7"));
+    }
+
+    @Test
+    void circuitOpens_afterRepeatedFailures_andSkipsCallsWithoutHttp() {
+        reply("/scheduler/42", status(502));
+
+        // 2 calls x 3 attempts; the third call must not reach the server
+        assertEquals("http_502", fetch(client, "42", null).getFailure());
+        fetch(client, "42", null);
+        FetchOutcome skipped = fetch(client, "42", null);
+
+        assertEquals(FetchOutcome.Status.TRANSIENT_FAILURE, skipped.getStatus());
+        assertEquals("circuit_open", skipped.getFailure());
+        assertEquals(6, hits("/scheduler/42"));
+        assertEquals(CircuitBreaker.State.OPEN, client.circuitState("schedule"));
+        assertEquals(1.0, metrics.counter("ruz.calls.rejected", "endpoint", "schedule", "reason", "circuit_open").count());
+        assertEquals(1.0, metrics.counter("ruz.circuit.transitions", "endpoint", "schedule", "to", "open").count());
+        assertEquals(2.0, metrics.get("ruz.circuit.state").tag("endpoint", "schedule").gauge().value());
+        // other endpoints are unaffected
+        assertEquals(CircuitBreaker.State.CLOSED, client.circuitState("search"));
+    }
+
+    @Test
+    void fetchSchedule_isRejected_whenRateLimitLeavesNoToken() {
+        // one token, refilled once a minute; the second call would wait far longer than max-wait
+        RuzClient limited = client(new TokenBucket(1.0 / 60, 1));
+        ReflectionTestUtils.setField(limited, "rateLimitMaxWaitMs", 10L);
+        reply("/scheduler/1", json("{}"));
+
+        fetch(limited, "1", null);
+        FetchOutcome skipped = fetch(limited, "2", null);
+
+        assertEquals(FetchOutcome.Status.TRANSIENT_FAILURE, skipped.getStatus());
+        assertEquals("rate_limited", skipped.getFailure());
+        assertEquals(0, hits("/scheduler/2"));
+        assertEquals(1.0, metrics.counter("ruz.calls.rejected", "endpoint", "schedule", "reason", "rate_limited").count());
+    }
+
+    @Test
+    void retryThatRunsOutOfTokens_isRejectedOnce_andLeavesTheCircuitClosed() {
+        // two tokens: the first call and one retry; the second retry cannot get one
+        RuzClient limited = client(new TokenBucket(1.0 / 60, 2));
+        ReflectionTestUtils.setField(limited, "rateLimitMaxWaitMs", 10L);
+        ReflectionTestUtils.setField(limited, "maxAttempts", 4);
+        reply("/scheduler/42", status(503));
+
+        FetchOutcome out = fetch(limited, "42", null);
+
+        assertEquals(FetchOutcome.Status.TRANSIENT_FAILURE, out.getStatus());
+        assertEquals("rate_limited", out.getFailure());
+        assertEquals(2, hits("/scheduler/42"));
+        assertEquals(1.0, metrics.counter("ruz.calls.rejected", "endpoint", "schedule", "reason", "rate_limited").count());
+        assertEquals(CircuitBreaker.State.CLOSED, limited.circuitState("schedule"));
+    }
+
+    static byte[] gzip(byte[] raw) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(bytes)) {
+            gz.write(raw);
+        }
+        return bytes.toByteArray();
     }
 }
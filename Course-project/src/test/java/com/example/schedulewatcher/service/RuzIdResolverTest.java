@@ -0,0 +1,85 @@
+package com.example.schedulewatcher.service;
+
+import com.example.schedulewatcher.model.Subject;
+import com.example.schedulewatcher.model.SubjectType;
+import com.example.schedulewatcher.repository.SubjectRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class RuzIdResolverTest {
+
+    @Mock RuzClient ruz;
+    @Mock SubjectRepository subjects;
+
+    private final AtomicLong now = new AtomicLong(1_000);
+
+    private RuzIdResolver resolver() {
+        // found ids live 60 s, unknown codes 5 s
+        return new RuzIdResolver(ruz, subjects, 60_000, 5_000, now::get);
+    }
+
+    @Test
+    void foundIds_areCached_untilTtl() {
+        RuzIdResolver resolver = resolver();
+        when(ruz.resolveGroupIdByCode("3530")).thenReturn("38121");
+
+        assertEquals("38121", resolver.resolve(SubjectType.COURSE, "3530"));
+        now.addAndGet(59_000);
+        assertEquals("38121", resolver.resolve(SubjectType.COURSE, "3530"));
+        verify(ruz, times(1)).resolveGroupIdByCode("3530");
+
+        now.addAndGet(2_000);
+        resolver.resolve(SubjectType.COURSE, "3530");
+        verify(ruz, times(2)).resolveGroupIdByCode("3530");
+    }
+
+    @Test
+    void unknownCodes_areCachedForTheShorterNegativeTtl() {
+        RuzIdResolver resolver = resolver();
+        when(ruz.resolveGroupIdByCode("Typo")).thenReturn(null);
+
+        assertNull(resolver.resolve(SubjectType.COURSE, "Typo"));
+        assertNull(resolver.resolve(SubjectType.COURSE, "Typo"));
+        verify(ruz, times(1)).resolveGroupIdByCode("Typo");
+
+        now.addAndGet(5_000);
+        resolver.resolve(SubjectType.COURSE, "Typo");
+        verify(ruz, times(2)).resolveGroupIdByCode("Typo");
+    }
+
+    @Test
+    void failedLookups_areNotCached() {
+        RuzIdResolver resolver = resolver();
+        when(ruz.resolveTeacherIdByTCode("Ivanov"))
+                .thenThrow(new RuzUnavailableException("search", "circuit_open"))
+                .thenReturn("77");
+
+        assertNull(resolver.resolve(SubjectType.TEACHER, "Ivanov"));
+        assertEquals("77", resolver.resolve(SubjectType.TEACHER, "Ivanov"));
+    }
+
+    @Test
+    void ruzIdOf_storesNewlyResolvedId_andSkipsSubjectsThatHaveOne() {
+        RuzIdResolver resolver = resolver();
+        Subject legacy = new Subject();
+        legacy.setId(5L);
+        legacy.setType(SubjectType.COURSE);
+        legacy.setRuzKey("3530");
+        when(ruz.resolveGroupIdByCode("3530")).thenReturn("38121");
+
+        assertEquals("38121", resolver.ruzIdOf(legacy));
+        assertEquals("38121", legacy.getRuzId());
+        verify(subjects).updateRuzId(5L, "38121");
+
+        assertEquals("38121", resolver.ruzIdOf(legacy));
+        verifyNoMoreInteractions(ruz, subjects);
+    }
+}
@@ -2,33 +2,80 @@ package com.example.schedulewatcher.service;
 
 import com.example.schedulewatcher.model.*;
 import com.example.schedulewatcher.repository.*;
-import com.example.schedulewatcher.util.ScheduleDiffUtil;
+import com.example.schedulewatcher.util.CanonicalJson;
+import com.example.schedulewatcher.util.LessonDiff;
+import com.example.schedulewatcher.util.ScheduleHashTree;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.MessageSource;
+import org.springframework.context.support.ResourceBundleMessageSource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.SimpleTransactionStatus;
 
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import static org.junit.jupiter.api.Assertions.*;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class ScheduleFetchServiceTest {
 
+    private static final CanonicalJson CANONICAL = new CanonicalJson(List.of("generated_at"));
+    private static final DiffTextRenderer TEXTS = new DiffTextRenderer(messages());
+
     @Mock SubscriptionRepository subs;
+    @Mock SubjectRepository subjects;
     @Mock SnapshotRepository snaps;
     @Mock EventRepository events;
     @Mock NotificationService notifier;
     @Mock RuzClient ruz;
+    @Mock FetchStateRepository states;
+    @Mock SnapshotPayloadRepository payloads;
+
+    ExecutorService pool;
+    SimpleMeterRegistry metrics;
+    PollScheduler scheduler;
+    ScheduleFetchService service;
 
-    @InjectMocks ScheduleFetchService service;
+    @BeforeEach
+    void setUp() {
+        pool = Executors.newFixedThreadPool(4);
+        metrics = new SimpleMeterRegistry();
+        scheduler = new PollScheduler(60_000, 15_000, 21_600_000, 86_400_000);
+        LeaseService leases = new LeaseService(null, mock(PlatformTransactionManager.class), false, "test", 60_000, 100);
+        service = new ScheduleFetchService(subs, subjects, snaps, events, notifier, ruz,
+                new RuzIdResolver(ruz, subjects, 60_000, 60_000), states,
+                new SnapshotPayloadStore(payloads), CANONICAL, scheduler, leases, TEXTS, pool, mock(PlatformTransactionManager.class),
+                metrics);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
 
     @Test
     void fetchAll_doesNothing_whenNoSubscriptions() {
-        when(subs.findAll()).thenReturn(List.of());
+        when(subs.findWatchedSubjects()).thenReturn(List.of());
 
         service.fetchAll();
 
@@ -41,16 +88,16 @@ class ScheduleFetchServiceTest {
         subject.setId(1L);
         subject.setName("Math");
         subject.setRuzKey("G-1");
+        subject.setRuzId("G-1");
         subject.setType(SubjectType.COURSE);
 
-        Subscription s = new Subscription();
-        s.setSubject(subject);
+        SubscriptionRepository.Recipient s = new SubscriptionRepository.Recipient(10L, "u@example.com", "Math", false, null, "[\"web\",\"email\"]", null, null);
 
-        when(subs.findAll()).thenReturn(List.of(s));
-        when(subs.findAllBySubjectIdFetchUser(1L)).thenReturn(List.of(s));
+        subscribed(subject);
+        when(subs.findRecipientsBySubjectId(1L)).thenReturn(List.of(s));
 
         String json = "[{\"lesson\":\"Math\"}]";
-        when(ruz.fetchScheduleJson("COURSE", "G-1")).thenReturn(json);
+        when(ruz.fetchScheduleAsync("COURSE", "G-1", null, null)).thenReturn(completedFuture(FetchOutcome.modified(json, null, null)));
         when(snaps.findTopBySubjectOrderBySnapshotAtDesc(subject))
                 .thenReturn(Optional.empty());
 
@@ -59,12 +106,14 @@ class ScheduleFetchServiceTest {
         verify(events).insertIgnore(
                 any(OffsetDateTime.class),
                 anyString(),
+                eq("Type: initial"),
+                eq("类型: 首次获取"),
                 any(OffsetDateTime.class),
                 anyString(),
                 eq(1L)
         );
         verify(snaps).save(any(Snapshot.class));
-        verify(notifier).notifyByEmail(eq(List.of(s)), any(Event.class));
+        verify(notifier).enqueue(eq(List.of(s)), any(Event.class));
     }
 
     @Test
@@ -73,28 +122,540 @@ class ScheduleFetchServiceTest {
         subject.setId(1L);
         subject.setName("Math");
         subject.setRuzKey("G-1");
+        subject.setRuzId("G-1");
         subject.setType(SubjectType.COURSE);
 
-        Subscription s = new Subscription();
-        s.setSubject(subject);
-
         String json = "[{\"lesson\":\"Math\"}]";
-        String hash = ScheduleDiffUtil.sha256(json);
+        String hash = CANONICAL.sha256(json);
 
         Snapshot last = new Snapshot();
         last.setSubject(subject);
         last.setRaw(json);
         last.setPayloadHash(hash);
 
-        when(subs.findAll()).thenReturn(List.of(s));
-        when(subs.findAllBySubjectIdFetchUser(1L)).thenReturn(List.of(s));
-        when(ruz.fetchScheduleJson("COURSE", "G-1")).thenReturn(json);
+        subscribed(subject);
+        when(ruz.fetchScheduleAsync("COURSE", "G-1", null, null)).thenReturn(completedFuture(FetchOutcome.modified(json, null, null)));
         when(snaps.findTopBySubjectOrderBySnapshotAtDesc(subject))
                 .thenReturn(Optional.of(last));
 
         service.fetchAll();
 
-        verify(events, never()).insertIgnore(any(), any(), any(), any(), anyLong());
-        verify(notifier, never()).notifyByEmail(anyList(), any());
+        verify(events, never()).insertIgnore(any(), any(), any(), any(), any(), any(), anyLong());
+        verify(notifier, never()).enqueue(anyList(), any());
+    }
+
+    @Test
+    void fetchAll_fetchesSubjectsConcurrently_andRecordsTimings() throws Exception {
+        int n = 4;
+        Subject[] all = new Subject[n];
+        for (int i = 0; i < n; i++) {
+            Subject subject = new Subject();
+            subject.setId((long) i);
+            subject.setName("S" + i);
+            subject.setRuzKey("G-" + i);
+            subject.setRuzId("G-" + i);
+            subject.setType(SubjectType.COURSE);
+            all[i] = subject;
+        }
+        subscribed(all);
+
+        // every response arrives only once all requests are in flight, which only happens when they are issued in parallel
+        CountDownLatch inFlight = new CountDownLatch(n);
+        ExecutorService ruzIo = Executors.newCachedThreadPool();
+        when(ruz.fetchScheduleAsync(eq("COURSE"), anyString(), any(), any())).thenAnswer(inv -> {
+            inFlight.countDown();
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    assertTrue(inFlight.await(5, TimeUnit.SECONDS), "fetches were not issued concurrently");
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return FetchOutcome.modified("{\"lesson\":\"" + inv.getArgument(1) + "\"}", null, null);
+            }, ruzIo);
+        });
+        when(snaps.findTopBySubjectOrderBySnapshotAtDesc(any())).thenReturn(Optional.empty());
+
+        service.fetchAll();
+        ruzIo.shutdown();
+
+        verify(snaps, times(n)).save(any(Snapshot.class));
+        assertEquals(1, metrics.get("fetcher.cycle").timer().count());
+        assertEquals(n, metrics.get("fetcher.subject.latency").timer().count());
+    }
+
+    @Test
+    void fetchAll_shortCircuitsOnNotModified() {
+        Subject subject = new Subject();
+        subject.setId(1L);
+        subject.setRuzKey("G-1");
+        subject.setRuzId("G-1");
+        subject.setType(SubjectType.COURSE);
+
+        Subscription s = new Subscription();
+        s.setSubject(subject);
+
+        FetchState state = new FetchState(1L);
+        state.setPollIntervalMs(60_000L);
+        state.setLastChangedAt(OffsetDateTime.now());
+        state.setEtag("\"v1\"");
+        state.setLastModified("Mon, 01 Sep 2025 10:00:00 GMT");
+
+        subscribed(subject);
+        when(states.findById(1L)).thenReturn(Optional.of(state));
+        when(ruz.fetchScheduleAsync("COURSE", "G-1", "\"v1\"", "Mon, 01 Sep 2025 10:00:00 GMT"))
+                .thenReturn(completedFuture(FetchOutcome.notModified()));
+
+        service.fetchAll();
+
+        verifyNoInteractions(snaps, events, notifier);
+        verify(states, never()).save(any());
+    }
+
+    @Test
+    void fetchAll_duringRuzOutage_writesNothing_andKeepsLastGoodSnapshot() {
+        HoldTimeRecorder tx = new HoldTimeRecorder();
+        ScheduleFetchService recorded = new ScheduleFetchService(subs, subjects, snaps, events, notifier, ruz,
+                new RuzIdResolver(ruz, subjects, 60_000, 60_000), states,
+                new SnapshotPayloadStore(payloads), CANONICAL, scheduler,
+                new LeaseService(null, tx, false, "test", 60_000, 100), TEXTS, pool, tx, metrics);
+        Subject[] batch = new Subject[3];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = new Subject();
+            batch[i].setId(i + 1L);
+            batch[i].setRuzKey("G-" + i);
+            batch[i].setRuzId("G-" + i);
+            batch[i].setType(SubjectType.COURSE);
+        }
+        subscribed(batch);
+        when(ruz.fetchScheduleAsync(eq("COURSE"), anyString(), any(), any()))
+                .thenReturn(completedFuture(FetchOutcome.transientFailure("http_502")),
+                        completedFuture(FetchOutcome.transientFailure("timeout")),
+                        completedFuture(FetchOutcome.transientFailure("circuit_open")));
+
+        recorded.fetchAll();
+
+        assertTrue(tx.holds.isEmpty(), "no transaction opened");
+        verifyNoInteractions(snaps, events, notifier, payloads);
+        verify(states, never()).save(any());
+    }
+
+    @Test
+    void fetchAll_permanentFailure_isNotDiffed_norRetriedEarly() {
+        Subject subject = new Subject();
+        subject.setId(1L);
+        subject.setRuzKey("G-1");
+        subject.setRuzId("G-1");
+        subject.setType(SubjectType.COURSE);
+
+        FetchState state = new FetchState(1L);
+        state.setPollIntervalMs(600_000L);
+
+        subscribed(subject);
+        when(states.findById(1L)).thenReturn(Optional.of(state));
+        when(ruz.fetchScheduleAsync("COURSE", "G-1", null, null))
+                .thenReturn(completedFuture(FetchOutcome.permanentFailure("http_404")));
+
+        long before = System.currentTimeMillis();
+        service.fetchAll();
+
+        verifyNoInteractions(snaps, events, notifier, payloads);
+        verify(states, never()).save(any());
+        // polled again at its normal pace, not after the short retry delay
+        assertEquals(List.of(), scheduler.takeDue(Set.of(1L), before + 599_000L));
+        assertEquals(List.of(1L), scheduler.takeDue(Set.of(1L), System.currentTimeMillis() + 600_000L));
+    }
+
+    @Test
+    void fetchAll_persistsNewValidators_whenScheduleDownloaded() {
+        Subject subject = new Subject();
+        subject.setId(1L);
+        subject.setRuzKey("G-1");
+        subject.setRuzId("G-1");
+        subject.setType(SubjectType.COURSE);
+
+        SubscriptionRepository.Recipient s = new SubscriptionRepository.Recipient(10L, "u@example.com", "Math", false, null, "[\"web\",\"email\"]", null, null);
+
+        subscribed(subject);
+        when(subs.findRecipientsBySubjectId(1L)).thenReturn(List.of(s));
+        when(ruz.fetchScheduleAsync("COURSE", "G-1", null, null))
+                .thenReturn(completedFuture(FetchOutcome.modified("{}", "\"v2\"", "Tue, 02 Sep 2025 10:00:00 GMT")));
+
+        service.fetchAll();
+
+        verify(states).save(argThat(st -> st.getSubjectId() == 1L
+                && "\"v2\"".equals(st.getEtag())
+                && "Tue, 02 Sep 2025 10:00:00 GMT".equals(st.getLastModified())));
+    }
+
+    @Test
+    void fetchAll_comparesAgainstStoredHash_withoutReadingSnapshots() {
+        Subject subject = new Subject();
+        subject.setId(1L);
+        subject.setRuzKey("G-1");
+        subject.setRuzId("G-1");
+        subject.setType(SubjectType.COURSE);
+
+        String json = "[{\"lesson\":\"Math\"}]";
+        stored(1L, CANONICAL.sha256(json), 42L);
+
+        subscribed(subject);
+        when(ruz.fetchScheduleAsync("COURSE", "G-1", null, null)).thenReturn(completedFuture(FetchOutcome.modified(json, null, null)));
+
+        service.fetchAll();
+
+        verifyNoInteractions(snaps, events, notifier);
+    }
+
+    @Test
+    void fetchAll_scheduleBackToAnOlderVersion_isAChange() {
+        Subject subject = new Subject();
+        subject.setId(1L);
+        subject.setRuzKey("G-1");
+        subject.setRuzId("G-1");
+        subject.setType(SubjectType.COURSE);
+
+        // room 101 first, then another instance stored room 202, now it is 101 again
+        String old = "{\"room\":\"101\"}";
+        Snapshot newer = new Snapshot();
+        newer.setId(42L);
+        newer.setSubject(subject);
+        newer.setRaw("{\"room\":\"202\"}");
+        newer.setPayloadHash(CANONICAL.sha256(newer.getRaw()));
+        stored(1L, newer.getPayloadHash(), 42L);
+
+        subscribed(subject);
+        when(ruz.fetchScheduleAsync("COURSE", "G-1", null, null))
+                .thenReturn(completedFuture(FetchOutcome.modified(old, null, null)));
+        when(snaps.findTopBySubjectOrderBySnapshotAtDesc(subject)).thenReturn(Optional.of(newer));
+        when(payloads.insertIfAbsent(anyString(), any(byte[].class), anyInt(), any())).thenReturn(1);
+        when(snaps.save(any(Snapshot.class))).thenAnswer(inv -> {
+            Snapshot saved = inv.getArgument(0);
+            saved.setId(43L);
+            return saved;
+        });
+
+        service.fetchAll();
+
+        verify(snaps).save(argThat(s -> CANONICAL.sha256(old).equals(s.getPayloadHash())));
+        verify(events).insertIgnore(any(), anyString(), any(), any(), any(), eq(CANONICAL.sha256(old)), eq(1L));
+        verify(states).save(argThat(st -> CANONICAL.sha256(old).equals(st.getPayloadHash()) && st.getSnapshotId() == 43L));
+    }
+
+    @Test
+    void fetchAll_storesNewSnapshot_andDiffsAgainstPreviousPayload() {
+        Subject subject = new Subject();
+        subject.setId(1L);
+        subject.setRuzKey("G-1");
+        subject.setRuzId("G-1");
+        subject.setType(SubjectType.COURSE);
+
+        Snapshot previous = new Snapshot();
+        previous.setId(41L);
+        previous.setSubject(subject);
+        previous.setRaw("{\"room\":\"101\"}");
+        previous.setPayloadHash(CANONICAL.sha256("{\"room\":\"101\"}"));
+        stored(1L, previous.getPayloadHash(), 41L);
+
+        subscribed(subject);
+        when(ruz.fetchScheduleAsync("COURSE", "G-1", null, null))
+                .thenReturn(completedFuture(FetchOutcome.modified("{\"room\":\"202\"}", null, null)));
+        when(snaps.findTopBySubjectOrderBySnapshotAtDesc(subject)).thenReturn(Optional.of(previous));
+        when(snaps.save(any(Snapshot.class))).thenAnswer(inv -> {
+            Snapshot saved = inv.getArgument(0);
+            saved.setId(43L);
+            return saved;
+        });
+        String newHash = CANONICAL.sha256("{\"room\":\"202\"}");
+        when(payloads.insertIfAbsent(eq(newHash), any(byte[].class), anyInt(), any())).thenReturn(1);
+
+        service.fetchAll();
+
+        verify(events).insertIgnore(any(), contains("202"), eq("Type: changed"), eq("类型: 课表变更"), any(), eq(newHash), eq(1L));
+        verify(payloads).insertIfAbsent(eq(newHash), any(byte[].class), anyInt(), any());
+        verify(states).save(argThat(st -> newHash.equals(st.getPayloadHash()) && st.getSnapshotId() == 43L));
+    }
+
+    @Test
+    void fetchAll_withHashTrees_diffsOnlyTheChangedDay() throws Exception {
+        Subject subject = new Subject();
+        subject.setId(1L);
+        subject.setRuzKey("G-1");
+        subject.setRuzId("G-1");
+        subject.setType(SubjectType.COURSE);
+
+        String oldJson = week("101");
+        Snapshot previous = new Snapshot();
+        previous.setId(41L);
+        previous.setSubject(subject);
+        previous.setRaw(oldJson);
+        previous.setPayloadHash(CANONICAL.sha256(oldJson));
+        previous.setHashTree(ScheduleHashTree.of(LessonDiff.parse(oldJson)).toJson());
+
+        subscribed(subject);
+        when(subs.findRecipientsBySubjectId(1L)).thenReturn(List.of());
+        when(ruz.fetchScheduleAsync("COURSE", "G-1", null, null))
+                .thenReturn(completedFuture(FetchOutcome.modified(week("303"), null, null)));
+        when(snaps.findTopBySubjectOrderBySnapshotAtDesc(subject)).thenReturn(Optional.of(previous));
+
+        service.fetchAll();
+
+        ArgumentCaptor<String> diff = ArgumentCaptor.forClass(String.class);
+        verify(events).insertIgnore(any(), diff.capture(), any(), any(), any(), anyString(), eq(1L));
+        assertEquals("{\"type\":\"changed\",\"added\":[],\"removed\":[],\"modified\":[{\"lesson\":"
+                + "{\"date\":\"2025-09-03\",\"start\":\"10:00\",\"subject\":\"Algebra\",\"room\":\"303\"},"
+                + "\"changes\":{\"room\":{\"from\":\"101\",\"to\":\"303\"}}}]}", diff.getValue());
+        verify(snaps).save(argThat(snap -> snap.getHashTree() != null && snap.getHashTree().contains("2025-W36")));
+    }
+
+    @Test
+    void fetchAll_withEqualLessonTrees_doesNotLoadThePreviousPayload() throws Exception {
+        Subject subject = new Subject();
+        subject.setId(1L);
+        subject.setRuzKey("G-1");
+        subject.setRuzId("G-1");
+        subject.setType(SubjectType.COURSE);
+
+        String oldJson = "{\"week\":{\"is_odd\":true}," + week("101").substring(1);
+        Snapshot previous = new Snapshot();
+        previous.setId(41L);
+        previous.setSubject(subject);
+        previous.setPayloadHash(CANONICAL.sha256(oldJson));   // payload in the shared store
+        previous.setHashTree(ScheduleHashTree.of(LessonDiff.parse(oldJson)).toJson());
+
+        subscribed(subject);
+        when(subs.findRecipientsBySubjectId(1L)).thenReturn(List.of());
+        when(ruz.fetchScheduleAsync("COURSE", "G-1", null, null))
+                .thenReturn(completedFuture(FetchOutcome.modified(week("101"), null, null)));
+        when(snaps.findTopBySubjectOrderBySnapshotAtDesc(subject)).thenReturn(Optional.of(previous));
+
+        service.fetchAll();
+
+        verify(payloads, never()).findById(any());
+        verify(events).insertIgnore(any(), eq("{\"type\":\"changed\",\"added\":[],\"removed\":[],\"modified\":[]}"),
+                any(), any(), any(), anyString(), eq(1L));
+        verify(notifier).enqueue(eq(List.of()), any(Event.class));
+    }
+
+    /** Five days of two lessons; only Wednesday's algebra room varies. */
+    private static String week(String wednesdayRoom) {
+        StringBuilder sb = new StringBuilder("{\"days\":[");
+        for (int d = 1; d <= 5; d++) {
+            if (d > 1) sb.append(',');
+            sb.append("{\"date\":\"2025-09-0").append(d).append("\",\"lessons\":[")
+                    .append("{\"subject\":\"Algebra\",\"time_start\":\"10:00\",\"auditory\":\"")
+                    .append(d == 3 ? wednesdayRoom : "101").append("\"},")
+                    .append("{\"subject\":\"Physics\",\"time_start\":\"12:00\",\"auditory\":\"102\"}]}");
+        }
+        return sb.append("]}").toString();
+    }
+
+    @Test
+    void fetchAll_reorderedKeysAndNewTimestamp_areNoChange() {
+        Subject subject = new Subject();
+        subject.setId(1L);
+        subject.setRuzKey("G-1");
+        subject.setRuzId("G-1");
+        subject.setType(SubjectType.COURSE);
+        stored(1L, CANONICAL.sha256("{\"room\":\"101\",\"teacher\":\"Ivanov\",\"generated_at\":\"10:00\"}"), 41L);
+
+        subscribed(subject);
+        when(ruz.fetchScheduleAsync("COURSE", "G-1", null, null)).thenReturn(completedFuture(FetchOutcome.modified(
+                "{ \"generated_at\": \"10:05\", \"teacher\": \"Ivanov\", \"room\": \"101\" }", null, null)));
+
+        service.fetchAll();
+
+        verifyNoInteractions(snaps, events, notifier);
+    }
+
+    @Test
+    void fetchAll_previousStoredUnderOldHash_sameContent_isNoChange() {
+        Subject subject = new Subject();
+        subject.setId(1L);
+        subject.setRuzKey("G-1");
+        subject.setRuzId("G-1");
+        subject.setType(SubjectType.COURSE);
+
+        // hashed over the raw text, before canonical hashing
+        Snapshot previous = new Snapshot();
+        previous.setId(41L);
+        previous.setSubject(subject);
+        previous.setRaw("{\"room\": \"101\"}");
+        previous.setPayloadHash("raw-text-hash");
+        stored(1L, "raw-text-hash", 41L);
+
+        subscribed(subject);
+        when(ruz.fetchScheduleAsync("COURSE", "G-1", null, null))
+                .thenReturn(completedFuture(FetchOutcome.modified("{\"room\": \"101\"}", null, null)));
+        when(snaps.findTopBySubjectOrderBySnapshotAtDesc(subject)).thenReturn(Optional.of(previous));
+
+        service.fetchAll();
+
+        verify(snaps, never()).save(any());
+        verifyNoInteractions(events, notifier);
+        String canonicalHash = CANONICAL.sha256("{\"room\":\"101\"}");
+        verify(states).save(argThat(st -> canonicalHash.equals(st.getPayloadHash()) && st.getSnapshotId() == 41L));
+    }
+
+    @Test
+    void refresh_pollsTheOneSubject_regardlessOfItsSchedule() {
+        Subject subject = new Subject();
+        subject.setId(1L);
+        subject.setRuzKey("G-1");
+        subject.setRuzId("G-1");
+        subject.setType(SubjectType.COURSE);
+        when(subjects.findById(1L)).thenReturn(Optional.of(subject));
+        when(subs.existsBySubject_IdAndImportantTrue(1L)).thenReturn(true);
+        when(ruz.fetchScheduleAsync("COURSE", "G-1", null, null)).thenReturn(completedFuture(FetchOutcome.notModified()));
+
+        assertTrue(service.refresh(1L));
+
+        verify(ruz).fetchScheduleAsync("COURSE", "G-1", null, null);
+        verify(subs, never()).findWatchedSubjects();
+    }
+
+    @Test
+    void refresh_isRefused_whileACycleHereIsPollingTheSubject() throws Exception {
+        Subject subject = new Subject();
+        subject.setId(1L);
+        subject.setRuzKey("G-1");
+        subject.setRuzId("G-1");
+        subject.setType(SubjectType.COURSE);
+        subscribed(subject);
+        when(subjects.findById(1L)).thenReturn(Optional.of(subject));
+        CompletableFuture<FetchOutcome> slow = new CompletableFuture<>();
+        when(ruz.fetchScheduleAsync("COURSE", "G-1", null, null)).thenReturn(slow);
+
+        CompletableFuture<Void> cycle = CompletableFuture.runAsync(service::fetchAll);
+        verify(ruz, timeout(5000)).fetchScheduleAsync("COURSE", "G-1", null, null);
+
+        assertFalse(service.refresh(1L));
+
+        slow.complete(FetchOutcome.notModified());
+        cycle.get(5, TimeUnit.SECONDS);
+        assertTrue(service.refresh(1L));
+        verify(ruz, times(2)).fetchScheduleAsync("COURSE", "G-1", null, null);
+    }
+
+    @Test
+    void pollDue_fetchesOnlySubjectsThatAreDue() {
+        Subject due = new Subject();
+        due.setId(1L);
+        due.setRuzKey("G-1");
+        due.setRuzId("G-1");
+        due.setType(SubjectType.COURSE);
+
+        // subject 2 was just polled and is not due for another minute
+        FetchState polled = new FetchState(2L);
+        polled.setPollIntervalMs(60_000L);
+        polled.setLastChangedAt(OffsetDateTime.now());
+        scheduler.reschedule(polled, false, false, OffsetDateTime.now());
+
+        when(subs.findWatchedSubjects()).thenReturn(List.of(watched(1L, 0L), watched(2L, 0L)));
+        when(subjects.findAllById(List.of(1L))).thenReturn(List.of(due));
+        when(ruz.fetchScheduleAsync("COURSE", "G-1", null, null)).thenReturn(completedFuture(FetchOutcome.notModified()));
+
+        service.pollDue();
+
+        verify(ruz).fetchScheduleAsync("COURSE", "G-1", null, null);
+        verifyNoMoreInteractions(ruz);
+        // subject 1 got its first interval persisted
+        verify(states).save(argThat(st -> st.getSubjectId() == 1L && st.getPollIntervalMs() == 60_000L));
+    }
+
+    @Test
+    void fetchAll_holdsTransactionsPerSubject_notAcrossTheCycle() {
+        HoldTimeRecorder tx = new HoldTimeRecorder();
+        ScheduleFetchService recorded = new ScheduleFetchService(subs, subjects, snaps, events, notifier, ruz,
+                new RuzIdResolver(ruz, subjects, 60_000, 60_000), states,
+                new SnapshotPayloadStore(payloads), CANONICAL, scheduler,
+                new LeaseService(null, tx, false, "test", 60_000, 100), TEXTS, pool, tx, metrics);
+
+        long fetchMs = 50;
+        when(ruz.fetchScheduleAsync(eq("COURSE"), anyString(), any(), any())).thenAnswer(inv -> {
+            Thread.sleep(fetchMs);
+            return completedFuture(FetchOutcome.modified("{\"lesson\":\"" + inv.getArgument(1) + "\"}", null, null));
+        });
+        when(snaps.findTopBySubjectOrderBySnapshotAtDesc(any())).thenReturn(Optional.empty());
+        doAnswer(inv -> {
+            assertTrue(tx.isOpen(), "mail queued outside the subject's transaction");
+            return null;
+        }).when(notifier).enqueue(anyList(), any());
+
+        // 2 subjects take one round of fetches on the 4-thread pool, 16 take four;
+        // the longest a transaction stays open must not grow with that
+        for (int n : new int[] {2, 16}) {
+            tx.holds.clear();
+            Subject[] batch = new Subject[n];
+            for (int i = 0; i < n; i++) {
+                Subject subject = new Subject();
+                subject.setId(100L * n + i);
+                subject.setRuzKey("G-" + n + "-" + i);
+                subject.setRuzId("G-" + n + "-" + i);
+                subject.setType(SubjectType.COURSE);
+                batch[i] = subject;
+            }
+            subscribed(batch);
+
+            recorded.fetchAll();
+
+            assertEquals(n, tx.holds.size(), "one transaction per changed subject");
+            long longest = tx.holds.stream().mapToLong(Long::longValue).max().orElse(0);
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(longest) < fetchMs,
+                    n + " subjects held a transaction for " + TimeUnit.NANOSECONDS.toMillis(longest) + " ms");
+        }
+    }
+
+    private void subscribed(Subject... watchedSubjects) {
+        List<SubscriptionRepository.WatchedSubject> rows = new ArrayList<>();
+        for (Subject subject : watchedSubjects) rows.add(watched(subject.getId(), 0L));
+        when(subs.findWatchedSubjects()).thenReturn(rows);
+        when(subjects.findAllById(anyIterable())).thenReturn(List.of(watchedSubjects));
+    }
+
+    private void stored(Long subjectId, String payloadHash, Long snapshotId) {
+        FetchState state = new FetchState(subjectId);
+        state.setPayloadHash(payloadHash);
+        state.setSnapshotId(snapshotId);
+        when(states.findById(subjectId)).thenReturn(Optional.of(state));
+    }
+
+    private static SubscriptionRepository.WatchedSubject watched(Long subjectId, Long importantCount) {
+        return new SubscriptionRepository.WatchedSubject() {
+            public Long getSubjectId() { return subjectId; }
+            public Long getImportantCount() { return importantCount; }
+        };
+    }
+
+    private static MessageSource messages() {
+        ResourceBundleMessageSource m = new ResourceBundleMessageSource();
+        m.setBasename("messages");
+        m.setDefaultEncoding("UTF-8");
+        m.setFallbackToSystemLocale(false);
+        return m;
+    }
+
+    /** Stand-in transaction manager that records how long every transaction stays open. */
+    private static final class HoldTimeRecorder implements PlatformTransactionManager {
+        final List<Long> holds = Collections.synchronizedList(new ArrayList<>());
+        private final ThreadLocal<Long> openedAt = new ThreadLocal<>();
+
+        boolean isOpen() { return openedAt.get() != null; }
+
+        @Override
+        public TransactionStatus getTransaction(TransactionDefinition definition) {
+            openedAt.set(System.nanoTime());
+            return new SimpleTransactionStatus();
+        }
+
+        @Override
+        public void commit(TransactionStatus status) { close(); }
+
+        @Override
+        public void rollback(TransactionStatus status) { close(); }
+
+        private void close() {
+            holds.add(System.nanoTime() - openedAt.get());
+            openedAt.remove();
+        }
     }
 }
@@ -0,0 +1,120 @@
+package com.example.schedulewatcher.service;
+
+import com.example.schedulewatcher.model.Snapshot;
+import com.example.schedulewatcher.model.SnapshotPayload;
+import com.example.schedulewatcher.repository.SnapshotPayloadRepository;
+import com.example.schedulewatcher.util.ScheduleDiffUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SnapshotPayloadStoreTest {
+
+    @Mock SnapshotPayloadRepository payloads;
+
+    @Test
+    void put_storesGzippedBody_andRawOfReadsItBack() {
+        SnapshotPayloadStore store = new SnapshotPayloadStore(payloads);
+        String raw = ruzWeek(0);
+        String hash = ScheduleDiffUtil.sha256(raw);
+        when(payloads.insertIfAbsent(eq(hash), any(), anyInt(), any())).thenReturn(1);
+
+        store.put(hash, raw);
+
+        ArgumentCaptor<byte[]> body = ArgumentCaptor.forClass(byte[].class);
+        verify(payloads).insertIfAbsent(eq(hash), body.capture(), eq(raw.getBytes(StandardCharsets.UTF_8).length), any());
+
+        SnapshotPayload stored = new SnapshotPayload();
+        stored.setHash(hash);
+        stored.setBody(body.getValue());
+        when(payloads.findById(hash)).thenReturn(Optional.of(stored));
+
+        Snapshot snap = new Snapshot();
+        snap.setPayloadHash(hash);
+        assertEquals(raw, store.rawOf(snap));
+    }
+
+    @Test
+    void put_locksAStoredPayload_andStoresItAgainWhenItWasJustSwept() {
+        SnapshotPayloadStore store = new SnapshotPayloadStore(payloads);
+        when(payloads.touch("kept")).thenReturn(1);
+
+        store.put("kept", "{\"v\":1}");
+        verify(payloads).insertIfAbsent(eq("kept"), any(), anyInt(), any());
+
+        // the conflicting row was deleted by the sweep in between
+        store.put("swept", "{\"v\":2}");
+        verify(payloads, times(2)).insertIfAbsent(eq("swept"), any(), anyInt(), any());
+    }
+
+    @Test
+    void rawOf_prefersInlinePayloadOfOldSnapshots() {
+        Snapshot old = new Snapshot();
+        old.setPayloadHash("h");
+        old.setRaw("{\"v\":0}");
+
+        assertEquals("{\"v\":0}", new SnapshotPayloadStore(payloads).rawOf(old));
+        verifyNoInteractions(payloads);
+    }
+
+    /**
+     * Bytes stored per snapshot for a subject that flips between two versions of a
+     * two-week schedule 20 times: inline jsonb before, shared gzip rows after.
+     */
+    @Test
+    void bytesPerSnapshot_beforeAndAfter() {
+        String[] versions = { ruzWeek(0), ruzWeek(1) };
+        int snapshots = 20;
+
+        long inline = 0;
+        Map<String, Integer> shared = new HashMap<>();
+        for (int i = 0; i < snapshots; i++) {
+            String raw = versions[i % 2];
+            inline += raw.getBytes(StandardCharsets.UTF_8).length;
+            shared.computeIfAbsent(ScheduleDiffUtil.sha256(raw),
+                    h -> SnapshotPayloadStore.gzip(raw.getBytes(StandardCharsets.UTF_8)).length);
+        }
+        long stored = shared.values().stream().mapToLong(Integer::longValue).sum();
+
+        System.out.printf("bytes/snapshot: inline=%d, content-addressed+gzip=%d (%d distinct payloads)%n",
+                inline / snapshots, stored / snapshots, shared.size());
+        assertEquals(2, shared.size());
+        assertTrue(stored * 20 < inline, "expected at least 20x less, got " + inline + " -> " + stored);
+    }
+
+    /** A RUZ-like schedule: 10 days x 6 lessons; variant 1 moves one lesson to another room. */
+    private static String ruzWeek(int variant) {
+        StringBuilder sb = new StringBuilder("{\"week\":{\"date_start\":\"2025.09.01\",\"date_end\":\"2025.09.14\"},\"days\":[");
+        for (int d = 0; d < 10; d++) {
+            if (d > 0) sb.append(',');
+            sb.append("{\"weekday\":").append(d % 5 + 1)
+              .append(",\"date\":\"").append(LocalDate.of(2025, 9, 1).plusDays(d)).append("\",\"lessons\":[");
+            for (int l = 0; l < 6; l++) {
+                if (l > 0) sb.append(',');
+                String room = variant == 1 && d == 3 && l == 2 ? "215" : String.valueOf(100 + l);
+                sb.append("{\"subject\":\"Discrete mathematics ").append(l).append('"')
+                  .append(",\"time_start\":\"").append(8 + 2 * l).append(":00\",\"time_end\":\"").append(9 + 2 * l).append(":30\"")
+                  .append(",\"typeObj\":{\"id\":2,\"name\":\"Lecture\",\"abbr\":\"Lec\"}")
+                  .append(",\"groups\":[{\"id\":40123,\"name\":\"3530901/30001\",\"level\":3,\"kind\":0}]")
+                  .append(",\"teachers\":[{\"id\":1234,\"full_name\":\"Ivanov Ivan Ivanovich\",\"chair\":\"Higher school of software engineering\"}]")
+                  .append(",\"auditories\":[{\"id\":77,\"name\":\"").append(room)
+                  .append("\",\"building\":{\"id\":11,\"name\":\"Main building\",\"address\":\"Polytechnicheskaya, 29\"}}]}");
+            }
+            sb.append("]}");
+        }
+        return sb.append("]}").toString();
+    }
+}
@@ -13,6 +13,7 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import java.util.List;
 import java.util.Optional;
@@ -32,6 +33,12 @@ class SubscriptionServiceTest {
     @Mock
     UserRepository users;
 
+    @Mock
+    RuzIdResolver resolver;
+
+    @Mock
+    PlatformTransactionManager txManager;
+
     @InjectMocks
     SubscriptionService service;
 
@@ -88,6 +95,40 @@ class SubscriptionServiceTest {
         assertNotNull(toSave.getChannels());
     }
 
+    @Test
+    void addByInput_storesResolvedRuzIdOnNewSubject() {
+        when(subjects.findByRuzKey("3530")).thenReturn(Optional.empty());
+        when(resolver.resolve(SubjectType.COURSE, "3530")).thenReturn("38121");
+        when(subjects.save(any(Subject.class))).thenAnswer(invocation -> {
+            Subject s = invocation.getArgument(0);
+            s.setId(50L);
+            return s;
+        });
+        User user = new User();
+        user.setId(1L);
+        when(users.findById(1L)).thenReturn(Optional.of(user));
+        when(subs.save(any(Subscription.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        var created = service.addByInput(1L, "3530");
+
+        assertEquals("38121", created.orElseThrow().getSubject().getRuzId());
+    }
+
+    @Test
+    void addByInput_doesNotResolveAgain_whenSubjectHasRuzId() {
+        Subject subject = new Subject();
+        subject.setId(10L);
+        subject.setRuzKey("T-123");
+        subject.setRuzId("123");
+        when(subjects.findByRuzKey("T-123")).thenReturn(Optional.of(subject));
+        when(subs.existsByUser_IdAndSubject_Id(1L, 10L)).thenReturn(true);
+
+        service.addByInput(1L, "T-123");
+
+        verifyNoInteractions(resolver);
+        verify(subjects, never()).save(any());
+    }
+
     @Test
     void addByInput_returnsEmpty_whenAlreadySubscribed() {
         Long userId = 1L;
@@ -9,6 +9,7 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.Locale;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -71,7 +72,7 @@ class UserSessionServiceTest {
         when(users.findByEmail("used@example.com"))
                 .thenReturn(Optional.of(other));
 
-        service.updateEmail(session, "used@example.com");
+        service.updateEmail(session, "used@example.com", Locale.ENGLISH);
 
         verify(session).setAttribute("uid", "2");
 
@@ -87,9 +88,25 @@ class UserSessionServiceTest {
         when(users.findByEmail("new@example.com"))
                 .thenReturn(Optional.empty());
 
-        service.updateEmail(session, "new@example.com");
+        service.updateEmail(session, "new@example.com", Locale.CHINESE);
 
         assertEquals("new@example.com", me.getEmail());
+        assertEquals("zh", me.getLocale());
         verify(users).save(me);
     }
+
+    @Test
+    void updateDigest_setsTheWindow_andZeroTurnsItOff() {
+        when(session.getAttribute("uid")).thenReturn("1");
+        User me = new User();
+        me.setId(1L);
+        when(users.findById(1L)).thenReturn(Optional.of(me));
+
+        service.updateDigest(session, 15, Locale.ENGLISH);
+        assertEquals(15, me.getDigestMinutes());
+
+        service.updateDigest(session, 0, Locale.ENGLISH);
+        assertNull(me.getDigestMinutes());
+        verify(users, times(2)).save(me);
+    }
 }
@@ -0,0 +1,44 @@
+package com.example.schedulewatcher.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AsyncPermitsTest {
+
+    private final AsyncPermits permits = new AsyncPermits(2);
+
+    @Test
+    void freePermits_areGrantedImmediately() {
+        assertTrue(permits.acquire().isDone());
+        assertTrue(permits.acquire().isDone());
+        assertFalse(permits.acquire().isDone());
+    }
+
+    @Test
+    void release_handsThePermitToWaitersInOrder() {
+        permits.acquire();
+        permits.acquire();
+        CompletableFuture<Void> first = permits.acquire();
+        CompletableFuture<Void> second = permits.acquire();
+
+        permits.release();
+        assertTrue(first.isDone());
+        assertFalse(second.isDone());
+
+        permits.release();
+        assertTrue(second.isDone());
+    }
+
+    @Test
+    void releaseWithoutWaiters_returnsThePermit() {
+        permits.acquire();
+        permits.acquire();
+        permits.release();
+
+        assertTrue(permits.acquire().isDone());
+        assertFalse(permits.acquire().isDone());
+    }
+}
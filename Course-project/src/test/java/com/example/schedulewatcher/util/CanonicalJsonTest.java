@@ -0,0 +1,59 @@
+package com.example.schedulewatcher.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CanonicalJsonTest {
+
+    private final CanonicalJson canonical = new CanonicalJson(List.of("generated_at"));
+
+    @Test
+    void keyOrderWhitespaceAndEscaping_doNotChangeTheHash() {
+        String a = "{\"days\":[{\"lessons\":[{\"subject\":\"Math\",\"room\":\"101\"}],\"weekday\":1}],\"week\":{\"is_odd\":true}}";
+        String b = "{ \"week\" : { \"is_odd\" : true },\n  \"days\" : [ { \"weekday\" : 1, \"lessons\" : "
+                + "[ { \"room\" : \"\\u0031\\u0030\\u0031\", \"subject\" : \"Math\" } ] } ] }";
+
+        assertEquals(canonical.sha256(a), canonical.sha256(b));
+    }
+
+    @Test
+    void ignoredFields_areDroppedAtAnyDepth() {
+        String a = "{\"generated_at\":\"2025-09-01T10:00\",\"days\":[{\"generated_at\":1,\"weekday\":1}]}";
+        String b = "{\"generated_at\":\"2025-09-01T10:05\",\"days\":[{\"generated_at\":{\"x\":[2]},\"weekday\":1}]}";
+
+        assertEquals(canonical.sha256(a), canonical.sha256(b));
+    }
+
+    @Test
+    void realChanges_doChangeTheHash() {
+        assertNotEquals(canonical.sha256("{\"room\":\"101\"}"), canonical.sha256("{\"room\":\"102\"}"));
+        assertNotEquals(canonical.sha256("[1,2]"), canonical.sha256("[2,1]"));
+        assertNotEquals(canonical.sha256("{\"n\":1}"), canonical.sha256("{\"n\":\"1\"}"));
+    }
+
+    @Test
+    void canonicalForm_isSortedCompactUtf8() throws Exception {
+        byte[] bytes = canonical.canonicalBytes("{\"b\": [1, 2.50, null], \"a\": \"Иванов \\\"И.\\\" \\ud83d\\ude00\\n\"}");
+
+        assertEquals("{\"a\":\"Иванов \\\"И.\\\" 😀\\u000a\",\"b\":[1,2.5,null]}",
+                new String(bytes, StandardCharsets.UTF_8));
+        assertEquals(hex(bytes), canonical.sha256("{\"a\":\"Иванов \\\"И.\\\" 😀\\n\",\"b\":[1,2.5,null]}"));
+    }
+
+    @Test
+    void notJson_isHashedAsUtf8Text() throws Exception {
+        String html = "<html>Расписание недоступно</html>";
+
+        assertEquals(hex(html.getBytes(StandardCharsets.UTF_8)), canonical.sha256(html));
+    }
+
+    private static String hex(byte[] bytes) throws Exception {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+    }
+}
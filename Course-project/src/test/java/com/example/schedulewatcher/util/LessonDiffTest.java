@@ -0,0 +1,111 @@
+package com.example.schedulewatcher.util;
+
+import com.example.schedulewatcher.util.LessonDiff.Change;
+import com.example.schedulewatcher.util.LessonDiff.Lesson;
+import com.example.schedulewatcher.util.LessonDiff.Result;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LessonDiffTest {
+
+    private static Lesson lesson(String date, String start, String subject, String room) {
+        return new Lesson(date, start, null, subject, null, room, "Ivanov");
+    }
+
+    @Test
+    void parse_readsRuzDaysWithNestedRoomsAndTeachers() throws Exception {
+        String json = "{\"week\":{\"date_start\":\"2025.09.01\"},\"days\":[{\"weekday\":1,\"date\":\"2025-09-01\",\"lessons\":["
+                + "{\"subject\":\"Algebra\",\"time_start\":\"10:00\",\"time_end\":\"11:40\",\"typeObj\":{\"name\":\"Lecture\"},"
+                + "\"teachers\":[{\"id\":5,\"full_name\":\"Petrov P.\"},{\"id\":4,\"full_name\":\"Ivanov I.\"}],"
+                + "\"auditories\":[{\"name\":\"101\",\"building\":{\"name\":\"Main\"}}]}]}]}";
+
+        List<Lesson> lessons = LessonDiff.parse(json);
+
+        assertEquals(List.of(new Lesson("2025-09-01", "10:00", "11:40", "Algebra", "Lecture", "Main, 101",
+                "Ivanov I.; Petrov P.")), lessons);
+    }
+
+    @Test
+    void parse_acceptsFlatLessonArrays() throws Exception {
+        String json = "[{\"date\":\"2025.09.02\",\"beginLesson\":\"09:30\",\"discipline\":\"Physics\",\"auditorium\":\"R205\"}]";
+
+        Lesson l = LessonDiff.parse(json).get(0);
+
+        assertEquals("2025.09.02", l.date());
+        assertEquals("09:30", l.start());
+        assertEquals("Physics", l.subject());
+        assertEquals("R205", l.room());
+    }
+
+    @Test
+    void parse_takesTheDayDate_evenWhenItFollowsTheLessons() throws Exception {
+        String json = "{\"days\":[{\"lessons\":[{\"subject\":\"Algebra\"}],\"date\":\"2025-09-03\"}]}";
+
+        assertEquals("2025-09-03", LessonDiff.parse(json).get(0).date());
+    }
+
+    @Test
+    void parse_returnsNull_forOtherDocuments() throws Exception {
+        assertEquals(List.of(), LessonDiff.parse("{\"week\":{},\"days\":[]}"));
+        assertEquals(List.of(), LessonDiff.parse("[]"));
+        assertNull(LessonDiff.parse("{\"room\":\"101\"}"));
+        assertNull(LessonDiff.parse("\"text\""));
+    }
+
+    @Test
+    void identicalSchedules_haveNoChanges() {
+        List<Lesson> week = List.of(lesson("d1", "10:00", "Algebra", "101"), lesson("d1", "12:00", "Physics", "102"));
+
+        assertTrue(LessonDiff.diff(week, List.copyOf(week)).isEmpty());
+    }
+
+    @Test
+    void roomChange_isOneModifiedLesson_withTheFieldChange() {
+        Result r = LessonDiff.diff(
+                List.of(lesson("d1", "10:00", "Algebra", "101"), lesson("d1", "12:00", "Physics", "102")),
+                List.of(lesson("d1", "10:00", "Algebra", "303"), lesson("d1", "12:00", "Physics", "102")));
+
+        assertTrue(r.added().isEmpty());
+        assertTrue(r.removed().isEmpty());
+        assertEquals(1, r.modified().size());
+        assertEquals(Map.of("room", new Change("101", "303")), r.modified().get(0).changes());
+    }
+
+    @Test
+    void movedLesson_isModified_notRemovedAndAdded() {
+        Result r = LessonDiff.diff(
+                List.of(lesson("d1", "10:00", "Algebra", "101")),
+                List.of(lesson("d1", "14:00", "Algebra", "101")));
+
+        assertEquals(Map.of("start", new Change("10:00", "14:00")), r.modified().get(0).changes());
+        assertTrue(r.added().isEmpty());
+        assertTrue(r.removed().isEmpty());
+    }
+
+    @Test
+    void newAndCancelledLessons_areAddedAndRemoved() {
+        Lesson kept = lesson("d1", "10:00", "Algebra", "101");
+        Lesson cancelled = lesson("d2", "10:00", "Physics", "102");
+        Lesson extra = lesson("d3", "16:00", "History", "201");
+
+        Result r = LessonDiff.diff(List.of(kept, cancelled), List.of(extra, kept));
+
+        assertEquals(List.of(extra), r.added());
+        assertEquals(List.of(cancelled), r.removed());
+        assertTrue(r.modified().isEmpty());
+    }
+
+    @Test
+    void duplicateLessons_areCountedNotCollapsed() {
+        Lesson twice = lesson("d1", "10:00", "Lab", "101");
+
+        Result r = LessonDiff.diff(List.of(twice), List.of(twice, twice));
+
+        assertEquals(List.of(twice), r.added());
+        assertTrue(r.removed().isEmpty());
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.schedulewatcher.util;
+
+import com.example.schedulewatcher.util.LessonDiff.Change;
+import com.example.schedulewatcher.util.LessonDiff.Lesson;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScheduleDiffTest {
+
+    private static Lesson lesson(String start, String subject, String room) {
+        return new Lesson("2025-09-01", start, null, subject, null, room, "Ivanov");
+    }
+
+    @Test
+    void lessonDiff_readsBackAsWritten_withModifiedLessonsAsTheyWere() {
+        ScheduleDiff made = ScheduleDiffUtil.compare(
+                List.of(lesson("10:00", "Algebra", "101"), lesson("12:00", "Physics", "102")),
+                List.of(lesson("10:00", "Algebra", "303"), lesson("16:00", "History", "201")));
+
+        ScheduleDiff read = ScheduleDiff.parse(made.toJson());
+
+        assertEquals(made.toJson(), read.toJson());
+        assertEquals(List.of(lesson("16:00", "History", "201")), read.added());
+        assertEquals(List.of(lesson("12:00", "Physics", "102")), read.removed());
+        assertEquals(lesson("10:00", "Algebra", "101"), read.modified().get(0).before());
+        assertEquals(lesson("10:00", "Algebra", "303"), read.modified().get(0).after());
+        assertEquals(Map.of("room", new Change("101", "303")), read.modified().get(0).changes());
+        assertTrue(read.isMeaningful());
+        assertEquals(4, read.touchedLessons().size());
+    }
+
+    @Test
+    void isMeaningful_likeTheStoredDiffsAlwaysWere() {
+        assertFalse(ScheduleDiff.initial().isMeaningful());
+        assertFalse(ScheduleDiff.parse(null).isMeaningful());
+        assertFalse(ScheduleDiff.parse("{\"type\":\"changed\",\"added\":[],\"removed\":[],\"modified\":[]}").isMeaningful());
+        assertFalse(ScheduleDiff.parse("{\"type\":\"changed\",\"changedFields\":1,\"room\":{\"old\":1,\"new\":2}}").isMeaningful());
+        assertFalse(ScheduleDiff.manual(Map.of()).isMeaningful());
+        assertTrue(ScheduleDiff.manual(Map.of("room", new Change("101", "303"))).isMeaningful());
+        assertTrue(ScheduleDiff.parse("not json").isMeaningful());
+        assertNull(ScheduleDiff.parse("{\"type\":\"manual\",\"changes\":{}}").touchedLessons());
+    }
+}
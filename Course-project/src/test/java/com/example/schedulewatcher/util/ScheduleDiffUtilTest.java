@@ -58,6 +58,27 @@ class ScheduleDiffUtilTest {
         assertTrue(diff.get("changedFields").asInt() >= 2);
     }
 
+    @Test
+    void diffOfSchedules_listsLessonChanges() throws Exception {
+        String oldJson = "{\"days\":[{\"date\":\"2025-09-01\",\"lessons\":["
+                + "{\"subject\":\"Algebra\",\"time_start\":\"10:00\",\"auditory\":\"101\"},"
+                + "{\"subject\":\"Physics\",\"time_start\":\"12:00\",\"auditory\":\"102\"}]}]}";
+        String newJson = "{\"days\":[{\"date\":\"2025-09-01\",\"lessons\":["
+                + "{\"subject\":\"Algebra\",\"time_start\":\"10:00\",\"auditory\":\"303\"},"
+                + "{\"subject\":\"History\",\"time_start\":\"16:00\",\"auditory\":\"201\"},"
+                + "{\"subject\":\"Physics\",\"time_start\":\"12:00\",\"auditory\":\"102\"}]}]}";
+
+        JsonNode diff = om.readTree(ScheduleDiffUtil.diff(oldJson, newJson));
+
+        assertEquals("changed", diff.get("type").asText());
+        assertEquals("History", diff.get("added").get(0).get("subject").asText());
+        assertEquals(0, diff.get("removed").size());
+        JsonNode modified = diff.get("modified").get(0);
+        assertEquals("Algebra", modified.get("lesson").get("subject").asText());
+        assertEquals("101", modified.get("changes").get("room").get("from").asText());
+        assertEquals("303", modified.get("changes").get("room").get("to").asText());
+    }
+
     @Test
     void sha256_sameInputSameHash_differentInputDifferentHash() {
         String h1 = ScheduleDiffUtil.sha256("abc");
@@ -0,0 +1,93 @@
+package com.example.schedulewatcher.util;
+
+import com.example.schedulewatcher.util.LessonDiff.Lesson;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScheduleHashTreeTest {
+
+    private static Lesson lesson(String date, String start, String room) {
+        return new Lesson(date, start, null, "Algebra", null, room, "Ivanov");
+    }
+
+    private static List<Lesson> semester() {
+        List<Lesson> out = new ArrayList<>();
+        for (int day = 1; day <= 28; day++) {
+            String date = String.format("2025-09-%02d", day);
+            out.add(lesson(date, "10:00", "101"));
+            out.add(lesson(date, "12:00", "102"));
+        }
+        return out;
+    }
+
+    @Test
+    void sameLessons_inAnyOrder_haveTheSameRoot() {
+        List<Lesson> a = semester();
+        List<Lesson> b = new ArrayList<>(a);
+        Collections.reverse(b);
+
+        ScheduleHashTree ta = ScheduleHashTree.of(a);
+        ScheduleHashTree tb = ScheduleHashTree.of(b);
+
+        assertEquals(ta.root(), tb.root());
+        assertEquals(Set.of(), tb.changedDays(ta));
+    }
+
+    @Test
+    void changedDays_pointsAtTheDaysThatDiffer() {
+        List<Lesson> before = semester();
+        List<Lesson> after = semester();
+        after.set(5, lesson("2025-09-03", "12:00", "303"));   // one room on the 3rd
+        after.removeIf(l -> l.date().equals("2025-09-20"));    // a cancelled day
+        after.add(lesson("2025-10-01", "09:00", "500"));       // a new one
+
+        Set<String> changed = ScheduleHashTree.of(after).changedDays(ScheduleHashTree.of(before));
+
+        assertEquals(Set.of("2025-09-03", "2025-09-20", "2025-10-01"), changed);
+    }
+
+    @Test
+    void roundTripsThroughJson() {
+        ScheduleHashTree tree = ScheduleHashTree.of(semester());
+
+        ScheduleHashTree read = ScheduleHashTree.fromJson(tree.toJson());
+
+        assertEquals(tree.root(), read.root());
+        assertEquals(Set.of(), read.changedDays(tree));
+        assertTrue(tree.toJson().contains("\"2025-W36\""));
+        assertNull(ScheduleHashTree.fromJson(null));
+        assertNull(ScheduleHashTree.fromJson("{\"room\":\"101\"}"));
+    }
+
+    @Test
+    void slice_cutsTheChangedDaysOutOfTheStoredPayload() throws Exception {
+        String payload = "{\"week\":{},\"days\":["
+                + "{\"date\":\"2025-09-01\",\"lessons\":[{\"subject\":\"Algebra\",\"time_start\":\"10:00\"}]},"
+                + "{\"date\":\"2025-09-02\",\"lessons\":[{\"subject\":\"Physics\",\"time_start\":\"12:00\"}]}]}";
+        List<LessonDiff.Day> positions = new ArrayList<>();
+        ScheduleHashTree tree = ScheduleHashTree.of(LessonDiff.parse(payload, null, positions), positions);
+
+        String slice = tree.slice(payload, Set.of("2025-09-02", "2025-09-09"));
+
+        assertEquals("{\"days\":[{\"date\":\"2025-09-02\",\"lessons\":[{\"subject\":\"Physics\",\"time_start\":\"12:00\"}]}]}",
+                slice);
+        assertTrue(tree.covers(LessonDiff.parse(slice), Set.of("2025-09-02", "2025-09-09")));
+        // a payload that does not line up with the stored positions is refused, or caught by covers
+        assertNull(tree.slice("{}", Set.of("2025-09-02")));
+        assertFalse(tree.covers(List.of(), Set.of("2025-09-02")));
+    }
+
+    @Test
+    void weekOf_readsTheUsualDateFormats() {
+        assertEquals("2025-W36", ScheduleHashTree.weekOf("2025-09-01"));
+        assertEquals("2025-W36", ScheduleHashTree.weekOf("2025.09.01"));
+        assertEquals("2026-W01", ScheduleHashTree.weekOf("29.12.2025"));
+        assertEquals(ScheduleHashTree.NO_WEEK, ScheduleHashTree.weekOf("3"));
+    }
+}
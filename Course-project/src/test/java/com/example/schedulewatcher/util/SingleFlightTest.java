@@ -0,0 +1,66 @@
+package com.example.schedulewatcher.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final SingleFlight<String, String> flights = new SingleFlight<>(1_000, now::get);
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    void concurrentCallers_shareOneCall() {
+        CompletableFuture<String> response = new CompletableFuture<>();
+
+        CompletableFuture<String> a = flights.run("k", () -> { calls.incrementAndGet(); return response; });
+        CompletableFuture<String> b = flights.run("k", () -> { calls.incrementAndGet(); return response; });
+        assertEquals(1, flights.inFlight());
+
+        response.complete("v");
+        assertEquals("v", a.join());
+        assertEquals("v", b.join());
+        assertEquals(1, calls.get());
+        assertEquals(0, flights.inFlight());
+    }
+
+    @Test
+    void results_areReusedUntilTtl() {
+        flights.run("k", () -> { calls.incrementAndGet(); return CompletableFuture.completedFuture("v1"); });
+
+        now.set(999);
+        assertEquals("v1", flights.run("k", () -> { calls.incrementAndGet(); return CompletableFuture.completedFuture("v2"); }).join());
+        now.set(1_000);
+        assertEquals("v2", flights.run("k", () -> { calls.incrementAndGet(); return CompletableFuture.completedFuture("v2"); }).join());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void failures_areSharedButNotCached() {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        CompletableFuture<String> a = flights.run("k", () -> response);
+        CompletableFuture<String> b = flights.run("k", () -> response);
+
+        response.completeExceptionally(new IllegalStateException("down"));
+        assertTrue(a.isCompletedExceptionally());
+        assertTrue(b.isCompletedExceptionally());
+
+        assertEquals("ok", flights.run("k", () -> CompletableFuture.completedFuture("ok")).join());
+    }
+
+    @Test
+    void callersCannotCompleteTheSharedFuture() {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        CompletableFuture<String> a = flights.run("k", () -> response);
+        CompletableFuture<String> b = flights.run("k", () -> response);
+
+        a.complete("forged");
+        response.complete("real");
+        assertEquals("real", b.join());
+    }
+}
@@ -0,0 +1,44 @@
+package com.example.schedulewatcher.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketTest {
+
+    private final AtomicLong nanos = new AtomicLong();
+    // 10 per second, bursts of 2
+    private final TokenBucket bucket = new TokenBucket(10, 2, nanos::get);
+
+    @Test
+    void burstIsFree_thenCallersWaitForRefill() {
+        assertEquals(0, bucket.reserve(0));
+        assertEquals(0, bucket.reserve(0));
+
+        long wait = bucket.reserve(TimeUnit.SECONDS.toNanos(1));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), wait, TimeUnit.MICROSECONDS.toNanos(1));
+    }
+
+    @Test
+    void rejects_whenTokenWouldTakeLongerThanMaxWait_withoutTakingIt() {
+        bucket.reserve(0);
+        bucket.reserve(0);
+
+        assertEquals(-1, bucket.reserve(TimeUnit.MILLISECONDS.toNanos(50)));
+
+        nanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(0, bucket.reserve(0), "the rejected call did not consume the refilled token");
+    }
+
+    @Test
+    void refillIsCappedAtBurst() {
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(60));
+
+        assertEquals(0, bucket.reserve(0));
+        assertEquals(0, bucket.reserve(0));
+        assertTrue(bucket.reserve(0) < 0);
+    }
+}